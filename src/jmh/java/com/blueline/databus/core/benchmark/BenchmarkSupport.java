@@ -0,0 +1,61 @@
+package com.blueline.databus.core.benchmark;
+
+import com.blueline.databus.core.JsonConfiguration;
+import com.blueline.databus.core.helper.SQLParser;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基准测试共用的对象和数据;不启动SpringBoot,依赖的字段直接注入
+ */
+final class BenchmarkSupport {
+
+    static final JsonConfiguration JSON = new JsonConfiguration();
+
+    private BenchmarkSupport() {}
+
+    static SQLParser sqlParser() {
+        SQLParser sqlParser = new SQLParser();
+        ReflectionTestUtils.setField(sqlParser, "defaultTakes", "10");
+        ReflectionTestUtils.setField(sqlParser, "rowListReader", JSON.rowListReader());
+        return sqlParser;
+    }
+
+    /**
+     * @param count 条件参数的数目
+     * @return 查询参数,如<code>?col0=v0&amp;col1_start=1&amp;...&amp;_by=id&amp;_take=20</code>
+     */
+    static Map<String, String[]> queryParams(int count) {
+        String[] suffixes = {"", "_start", "_stop", "_not"};
+        Map<String, String[]> map = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            map.put("col" + i + suffixes[i % suffixes.length], new String[] { "v" + i });
+        }
+        map.put("_by", new String[] { "id" });
+        map.put("_take", new String[] { "20" });
+        return map;
+    }
+
+    /**
+     * @param count 行数
+     * @return 查询结果形式的行数据
+     */
+    static List<Map<String, Object>> rows(int count) {
+        List<Map<String, Object>> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("id", i);
+            row.put("name", "name-" + i);
+            row.put("age", 20 + i % 50);
+            row.put("email", "user" + i + "@example.com");
+            row.put("created_at", "2016-08-01 12:00:00");
+            rows.add(row);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,52 @@
+package com.blueline.databus.core.benchmark;
+
+import com.blueline.databus.core.helper.LRUCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LRUCache在多线程下的get;缓存用于SQL模板、列信息、凭据和ACL,都是读多写少
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class LRUCacheBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class CacheState {
+        @Param({"1000", "100000"})
+        public int keyCount;
+
+        LRUCache<Integer, Integer> cache;
+
+        @Setup
+        public void setup() {
+            // 容量是键数目的一半,约一半的get未命中并触发put和淘汰
+            cache = new LRUCache<>(keyCount / 2);
+            for (int i = 0; i < keyCount / 2; i++) {
+                cache.put(i, i);
+            }
+        }
+    }
+
+    /**
+     * 全部命中
+     */
+    @Benchmark
+    public Integer getHit(CacheState state) {
+        return state.cache.get(ThreadLocalRandom.current().nextInt(state.keyCount / 2));
+    }
+
+    /**
+     * 约一半未命中,未命中时放入缓存
+     */
+    @Benchmark
+    public Integer getOrLoad(CacheState state) {
+        return state.cache.get(ThreadLocalRandom.current().nextInt(state.keyCount), k -> k);
+    }
+}
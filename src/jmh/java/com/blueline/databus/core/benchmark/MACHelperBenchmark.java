@@ -0,0 +1,52 @@
+package com.blueline.databus.core.benchmark;
+
+import com.blueline.databus.core.helper.MACEngine;
+import com.blueline.databus.core.helper.MACHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个请求认证时的MAC计算
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MACHelperBenchmark {
+
+    private final String skey = "0123456789abcdef0123456789abcdef";
+
+    private final String payload = "appkey0123456789_GET_/api/data/db1/table1?name=dave&_take=20";
+
+    private final String mac = MACHelper.calculateMAC(skey, payload);
+
+    private final MACEngine md5 = MACEngine.forName(MACEngine.MD5);
+
+    private final MACEngine hmacSha256 = MACEngine.forName(MACEngine.HMAC_SHA256);
+
+    private final String hmacSha256Mac = hmacSha256.calculate(skey, payload);
+
+    @Benchmark
+    public String calculateMAC() {
+        return MACHelper.calculateMAC(skey, payload);
+    }
+
+    /**
+     * AuthenticationFilter中的用法:分段写入payload并直接与x-mac比较
+     */
+    @Benchmark
+    public boolean verifyMD5() {
+        return md5.begin(skey)
+                .update("appkey0123456789").update('_').update("GET").update('_')
+                .update("/api/data/db1/table1").update('?').update("name=dave&_take=20")
+                .matches(mac);
+    }
+
+    @Benchmark
+    public boolean verifyHmacSHA256() {
+        return hmacSha256.verify(skey, payload, hmacSha256Mac);
+    }
+}
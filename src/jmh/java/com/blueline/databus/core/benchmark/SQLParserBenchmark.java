@@ -0,0 +1,84 @@
+package com.blueline.databus.core.benchmark;
+
+import com.blueline.databus.core.datatype.ColumnInfo;
+import com.blueline.databus.core.exception.InternalException;
+import com.blueline.databus.core.helper.PreparedSQL;
+import com.blueline.databus.core.helper.SQLParser;
+import com.blueline.databus.core.helper.SQLTemplate;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SQLParser的查询和插入SQL构建
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SQLParserBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SelectState {
+        @Param({"1", "4", "16"})
+        public int paramCount;
+
+        SQLParser sqlParser;
+        Map<String, String[]> params;
+        SQLTemplate template;
+
+        @Setup
+        public void setup() {
+            sqlParser = BenchmarkSupport.sqlParser();
+            params = BenchmarkSupport.queryParams(paramCount);
+            template = sqlParser.compileSQL4Select(params);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class InsertState {
+        @Param({"1", "100", "10000"})
+        public int rowCount;
+
+        SQLParser sqlParser;
+        String jsonBody;
+        List<ColumnInfo> columns;
+
+        @Setup
+        public void setup() throws Exception {
+            sqlParser = BenchmarkSupport.sqlParser();
+            jsonBody = BenchmarkSupport.JSON.objectWriter().writeValueAsString(BenchmarkSupport.rows(rowCount));
+            columns = Arrays.asList(
+                    new ColumnInfo("id", "int", 1),
+                    new ColumnInfo("name", "varchar", 2),
+                    new ColumnInfo("age", "int", 3),
+                    new ColumnInfo("email", "varchar", 4),
+                    new ColumnInfo("created_at", "datetime", 5));
+        }
+    }
+
+    /**
+     * 每次都完整解析参数
+     */
+    @Benchmark
+    public PreparedSQL parseSQL4Select(SelectState state) {
+        return state.sqlParser.parseSQL4Select(state.params);
+    }
+
+    /**
+     * 命中SQLTemplateCache时的路径:只绑定参数
+     */
+    @Benchmark
+    public Object[] bindCompiledSelect(SelectState state) {
+        return state.template.bindArgs(state.params);
+    }
+
+    @Benchmark
+    public PreparedSQL parseSQL4Insert(InsertState state) throws InternalException {
+        return state.sqlParser.parseSQL4Insert(state.jsonBody, state.columns);
+    }
+}
@@ -0,0 +1,52 @@
+package com.blueline.databus.core.benchmark;
+
+import com.blueline.databus.core.datatype.RestResult;
+import com.blueline.databus.core.datatype.ResultType;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 返回结果的序列化:RestResult.toString和查询结果(List&lt;Map&gt;)转json
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+    @Param({"10", "1000"})
+    public int rowCount;
+
+    private ObjectWriter rowListWriter;
+
+    private List<Map<String, Object>> rows;
+
+    private RestResult restResult;
+
+    @Setup
+    public void setup() {
+        rowListWriter = BenchmarkSupport.JSON.rowListWriter();
+        rows = BenchmarkSupport.rows(rowCount);
+        restResult = new RestResult(ResultType.FAIL, "MAC not match. Expect: abc, actual: def", "");
+    }
+
+    /**
+     * CoreDBDao.queryPage中的做法
+     */
+    @Benchmark
+    public String rowListToJson() throws JsonProcessingException {
+        return rowListWriter.writeValueAsString(rows);
+    }
+
+    @Benchmark
+    public String restResultToString() {
+        return restResult.toString();
+    }
+}
@@ -0,0 +1,44 @@
+package com.blueline.databus.core.benchmark;
+
+import com.blueline.databus.core.helper.MinuteClock;
+import com.blueline.databus.core.helper.TimeHelper;
+import com.blueline.databus.core.helper.TimeWindow;
+import org.openjdk.jmh.annotations.*;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * acl的访问时间段检查:原来的字符串比较与预先解析的TimeWindow
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TimeHelperBenchmark {
+
+    private final String duration = "08001930";
+
+    private final TimeWindow window = TimeWindow.parse(duration);
+
+    /**
+     * 原来checkAccess中的做法:每次格式化当前时间再比较字符串
+     */
+    @Benchmark
+    public boolean isInDuration() {
+        return TimeHelper.isInDuration(new SimpleDateFormat("HHmm").format(new Date()), duration);
+    }
+
+    @Benchmark
+    public boolean isInDurationOnly() {
+        return TimeHelper.isInDuration("1200", duration);
+    }
+
+    @Benchmark
+    public boolean timeWindow() {
+        return window.contains(MinuteClock.SYSTEM.minuteOfDay());
+    }
+}
@@ -0,0 +1,131 @@
+package com.blueline.databus.core.loadtest;
+
+import com.blueline.databus.core.helper.MACHelper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * 按databus的认证方式(x-appkey, x-mac头部)签名并发送HTTP请求的客户端;线程安全
+ * <p>
+ *     使用HttpURLConnection,读完响应体后连接回到JDK的keep-alive连接池中复用
+ * </p>
+ */
+public class DatabusClient {
+
+    private final String baseUrl;
+
+    private final String appKey;
+
+    private final String sKey;
+
+    private final ObjectReader mapReader;
+
+    public DatabusClient(String baseUrl, String appKey, String sKey, ObjectReader mapReader) {
+        this.baseUrl = baseUrl;
+        this.appKey = appKey;
+        this.sKey = sKey;
+        this.mapReader = mapReader;
+    }
+
+    /**
+     * 响应:HTTP状态码和json中的resultType、message、ext
+     */
+    public static class Response {
+        private final int status;
+        private final String resultType;
+        private final String message;
+        private final String ext;
+
+        Response(int status, String resultType, String message, String ext) {
+            this.status = status;
+            this.resultType = resultType;
+            this.message = message;
+            this.ext = ext;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getResultType() {
+            return resultType;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * @return ext字段,如查询结果中下一页的游标;没有则为null
+         */
+        public String getExt() {
+            return ext;
+        }
+
+        public boolean isOk() {
+            return status == 200 && "OK".equals(resultType);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d %s %s", status, resultType, message);
+        }
+    }
+
+    /**
+     * @param method HTTP方法
+     * @param pathAndQuery 路径和query string,如<code>/api/data/db/t?_take=10</code>
+     * @param body 请求体;没有则为null
+     * @return 响应
+     * @throws IOException 请求失败
+     */
+    public Response send(String method, String pathAndQuery, String body) throws IOException {
+        HttpURLConnection con = (HttpURLConnection) new URL(baseUrl + pathAndQuery).openConnection();
+        con.setRequestMethod(method);
+        con.setRequestProperty("x-appkey", appKey);
+        con.setRequestProperty("x-mac", MACHelper.calculateMAC(sKey,
+                String.format("%s_%s_%s", appKey, method, pathAndQuery)));
+        if (body != null) {
+            con.setDoOutput(true);
+            con.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            try (OutputStream out = con.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        int status = con.getResponseCode();
+        InputStream in = status < 400 ? con.getInputStream() : con.getErrorStream();
+        byte[] content = readAll(in);
+        if (content.length == 0) {
+            return new Response(status, null, null, null);
+        }
+        Map<String, Object> json = mapReader.readValue(content);
+        Object message = json.containsKey("message") ? json.get("message") : json.get("data");
+        Object ext = json.get("ext");
+        return new Response(status, String.valueOf(json.get("resultType")), String.valueOf(message),
+                ext != null ? ext.toString() : null);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        if (in == null) {
+            return new byte[0];
+        }
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = input.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+}
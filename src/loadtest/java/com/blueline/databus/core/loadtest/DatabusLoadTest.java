@@ -0,0 +1,516 @@
+package com.blueline.databus.core.loadtest;
+
+import com.blueline.databus.core.Application;
+import com.blueline.databus.core.JsonConfiguration;
+import com.blueline.databus.core.datasource.DataSourcePoolFactory;
+import com.blueline.databus.core.datasource.ShardRouter;
+import com.blueline.databus.core.datatype.RestResult;
+import com.blueline.databus.core.datatype.ResultType;
+import com.blueline.databus.core.helper.ApiMetrics;
+import com.blueline.databus.core.helper.DmlExecutor;
+import com.blueline.databus.core.helper.ExecutorMetricsEndpoint;
+import com.blueline.databus.core.helper.LatencyHistogram;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * 端到端负载测试
+ * <p>
+ *     启动内嵌的MariaDB和Redis以及完整的服务(Jetty、全部filter和controller),
+ *     通过DDL接口建表、以普通client的身份写入初始数据,
+ *     然后用多个线程按权重随机发送查询、流式查询和插入请求,
+ *     每个请求都经过Cors、Authentication、Authority filter和DMLController
+ * </p>
+ * <p>
+ *     结束后按接口输出吞吐量、延迟分位数和各结果类型的数量,
+ *     同时写入target/loadtest-result.json,便于比较不同版本的结果
+ * </p>
+ * <p>
+ *     参数(系统属性):loadtest.threads 并发线程数,默认8;
+ *     loadtest.seconds 持续秒数,默认20;loadtest.rows 初始数据行数,默认5000;
+ *     loadtest.churn 建表、删表的次数,默认50
+ * </p>
+ */
+public class DatabusLoadTest {
+
+    private static final String DATA_DB = "loadtest";
+
+    private static final String TABLE = "items";
+
+    private static final String DATA_API = "/api/data/" + DATA_DB + "/" + TABLE;
+
+    private static final String[] CATEGORIES = {"alpha", "beta", "gamma", "delta"};
+
+    private static final int THREADS = Integer.getInteger("loadtest.threads", 8);
+
+    private static final int SECONDS = Integer.getInteger("loadtest.seconds", 20);
+
+    private static final int SEED_ROWS = Integer.getInteger("loadtest.rows", 5000);
+
+    private static final JsonConfiguration json = new JsonConfiguration();
+
+    private static final ObjectReader mapReader = json.mapReader();
+
+    private static final ObjectReader rowListReader = json.rowListReader();
+
+    private static final ObjectWriter objectWriter = json.objectWriter();
+
+    private static EmbeddedServers servers;
+
+    private static ConfigurableApplicationContext context;
+
+    private static DatabusClient client;
+
+    private static DatabusClient admin;
+
+    /**
+     * 负载中的一种请求,weight是它被选中的相对权重
+     */
+    private enum Endpoint {
+        QUERY(6),
+        QUERY_FILTERED(2),
+        STREAM(1),
+        INSERT(1);
+
+        private final int weight;
+
+        Endpoint(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * 每种请求的统计:延迟直方图和各结果类型(含IO错误)的数量
+     */
+    private static class EndpointStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final Map<String, LongAdder> results = new ConcurrentHashMap<>();
+
+        void record(long nanos, String resultType) {
+            latency.record(nanos);
+            results.computeIfAbsent(resultType, k -> new LongAdder()).increment();
+        }
+    }
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        servers = new EmbeddedServers();
+        servers.start(DATA_DB);
+
+        // 覆盖application.yml中的连接配置;空密码无法通过命令行参数传入,因此作为优先级最高的属性源加入
+        Map<String, Object> overrides = new HashMap<>();
+        overrides.put("server.port", 0);
+        overrides.put("db.core.url", servers.jdbcUrl(EmbeddedServers.CORE_DB));
+        overrides.put("db.core.username", "root");
+        overrides.put("db.core.password", "");
+        overrides.put("db.sys.url", servers.jdbcUrl(EmbeddedServers.SYS_DB));
+        overrides.put("db.sys.username", "root");
+        overrides.put("db.sys.password", "");
+        overrides.put("redis.port", servers.getRedisPort());
+        // 没有真正的复制环境,只读副本都指向同一个库,只用于验证查询经过副本的连接池
+        int replicas = Integer.getInteger("loadtest.replicas", 0);
+        if (replicas > 0) {
+            overrides.put("db.replica.urls",
+                    String.join(",", Collections.nCopies(replicas, servers.jdbcUrl(EmbeddedServers.CORE_DB))));
+        }
+        // 将测试库放在分片s1上;分片同样指向同一个MariaDB,只用于验证按dbName选择分片的连接池
+        if (Boolean.getBoolean("loadtest.sharded")) {
+            overrides.put("db.shards.servers.s1.url", servers.jdbcUrl(EmbeddedServers.CORE_DB));
+            overrides.put("db.shards.servers.s1.username", "root");
+            overrides.put("db.shards.servers.s1.password", "");
+            overrides.put("db.shards.databases." + DATA_DB, "s1");
+        }
+        SpringApplication app = new SpringApplication(Application.class);
+        app.addInitializers(ctx -> ctx.getEnvironment().getPropertySources()
+                .addFirst(new MapPropertySource("loadtest", overrides)));
+        context = app.run();
+        int port = ((EmbeddedWebApplicationContext) context).getEmbeddedServletContainer().getPort();
+        String baseUrl = "http://localhost:" + port;
+
+        String adminKey = context.getEnvironment().getProperty("admin.appkey");
+        String adminSKey = context.getEnvironment().getProperty("admin.skey");
+        admin = new DatabusClient(baseUrl, adminKey, adminSKey, mapReader);
+
+        // 创建client,并以它为owner建表;建表时owner自动获得该表所有数据接口的权限
+        DatabusClient.Response created = expectOk(admin.send("POST", "/api/sys/clients", "{\"name\":\"loadtest\"}"));
+        Map<String, Object> clientInfo = mapReader.readValue(created.getMessage());
+        client = new DatabusClient(baseUrl,
+                clientInfo.get("appKey").toString(), clientInfo.get("sKey").toString(), mapReader);
+
+        Map<String, Object> tableDef = new LinkedHashMap<>();
+        tableDef.put("owner_name", "loadtest");
+        tableDef.put("description", "load test table");
+        tableDef.put("columns", Arrays.asList(
+                column("name", "varchar", "64", false),
+                column("category", "varchar", "16", true),
+                column("amount", "int", null, false)));
+        expectOk(admin.send("POST", "/api/def/" + DATA_DB + "/" + TABLE, objectWriter.writeValueAsString(tableDef)));
+
+        for (int seeded = 0; seeded < SEED_ROWS; seeded += 500) {
+            expectOk(client.send("POST", DATA_API, objectWriter.writeValueAsString(rows(Math.min(500, SEED_ROWS - seeded)))));
+        }
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        if (context != null) {
+            context.close();
+        }
+        if (servers != null) {
+            servers.stop();
+        }
+    }
+
+    @Test
+    public void mixedWorkload() throws Exception {
+        Map<Endpoint, EndpointStats> stats = new LinkedHashMap<>();
+        for (Endpoint endpoint : Endpoint.values()) {
+            stats.put(endpoint, new EndpointStats());
+        }
+
+        long deadline = System.nanoTime() + SECONDS * 1_000_000_000L;
+        CountDownLatch done = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < deadline) {
+                        Endpoint endpoint = pick();
+                        long start = System.nanoTime();
+                        String resultType;
+                        try {
+                            DatabusClient.Response response = send(endpoint);
+                            resultType = response.getResultType() == null
+                                    ? "HTTP_" + response.getStatus() : response.getResultType();
+                        }
+                        catch (Exception ex) {
+                            resultType = "IO_ERROR";
+                        }
+                        stats.get(endpoint).record(System.nanoTime() - start, resultType);
+                    }
+                }
+                finally {
+                    done.countDown();
+                }
+            }, "loadtest-" + i);
+            worker.start();
+        }
+        done.await();
+
+        Map<String, Object> report = report(stats);
+        File out = new File("target/loadtest-result.json");
+        objectWriter.withDefaultPrettyPrinter().writeValue(out, report);
+        System.out.println("results written to " + out.getAbsolutePath());
+
+        for (Map.Entry<Endpoint, EndpointStats> entry : stats.entrySet()) {
+            Map<String, LongAdder> results = entry.getValue().results;
+            for (String resultType : results.keySet()) {
+                assertEquals(entry.getKey() + " got " + resultType, "OK", resultType);
+            }
+        }
+        assertTrue("no request was sent", stats.get(Endpoint.QUERY).latency.getCount() > 0);
+    }
+
+    /**
+     * 反复建表、删表(每次都会在sys库的事务中写入/删除表、接口和acl记录),
+     * 结束后sys库的连接池中不应有未归还的连接
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void tableChurnReturnsConnections() throws Exception {
+        Map<String, Object> tableDef = new LinkedHashMap<>();
+        tableDef.put("owner_name", "loadtest");
+        tableDef.put("description", "churn");
+        tableDef.put("columns", Collections.singletonList(column("name", "varchar", "32", false)));
+        String body = objectWriter.writeValueAsString(tableDef);
+
+        int tables = Integer.getInteger("loadtest.churn", 50);
+        for (int i = 0; i < tables; i++) {
+            String api = "/api/def/" + DATA_DB + "/churn_" + i;
+            expectOk(admin.send("POST", api, body));
+            expectOk(admin.send("DELETE", api, null));
+        }
+
+        Map<String, Object> sys = (Map<String, Object>) context.getBean(DataSourcePoolFactory.class).snapshot().get("sys");
+        System.out.println("sys pool after " + tables + " tables: " + sys);
+        assertEquals(0, sys.get("active"));
+    }
+
+    /**
+     * 按有大量重复值的列(category)以keyset分页遍历整个表:
+     * 每一行都应该恰好出现一次,不会因为重复值跨越两页而被跳过
+     */
+    @Test
+    public void keysetPagingWithDuplicateSortValues() throws Exception {
+        long total = context.getBean("templateCore", JdbcTemplate.class).queryForObject(
+                "SELECT COUNT(*) FROM `" + DATA_DB + "`.`" + TABLE + "`", Long.class);
+
+        Set<Object> ids = new HashSet<>();
+        String after = null;
+        do {
+            String query = "?_by=category&_take=37" + (after != null ? "&_after=" + after : "");
+            DatabusClient.Response page = expectOk(client.send("GET", DATA_API + query, null));
+            List<Map<String, Object>> rows = rowListReader.readValue(page.getMessage());
+            for (Map<String, Object> row : rows) {
+                // 没有数据时返回的是只包含列名的空结构
+                if (!"".equals(row.get("id"))) {
+                    assertTrue("row returned twice: " + row.get("id"), ids.add(row.get("id")));
+                }
+            }
+            after = page.getExt();
+        }
+        while (after != null && !after.isEmpty());
+
+        assertEquals(total, ids.size());
+    }
+
+    /**
+     * 批量导入中有值无法写入整数列时,MySQL只给出警告;整个导入应该回滚并返回错误
+     */
+    @Test
+    public void bulkLoadRollsBackOnWarnings() throws Exception {
+        JdbcTemplate template = context.getBean("templateCore", JdbcTemplate.class);
+        String countSql = "SELECT COUNT(*) FROM `" + DATA_DB + "`.`" + TABLE + "`";
+        long before = template.queryForObject(countSql, Long.class);
+
+        String bad = "{\"name\":\"bulk-1\",\"category\":\"alpha\",\"amount\":\"1\"}\n" +
+                "{\"name\":\"bulk-2\",\"category\":\"beta\",\"amount\":\"not a number\"}\n";
+        DatabusClient.Response rejected = client.send("POST", DATA_API + "/_bulk?_format=ndjson", bad);
+        assertEquals(rejected.toString(), "ERROR", rejected.getResultType());
+        assertTrue(rejected.getMessage(), rejected.getMessage().contains("rolled back"));
+        assertEquals(before, (long) template.queryForObject(countSql, Long.class));
+
+        String good = "{\"name\":\"bulk-1\",\"category\":\"alpha\",\"amount\":\"1\"}\n" +
+                "{\"name\":\"bulk-2\",\"category\":\"beta\",\"amount\":\"2\"}\n";
+        expectOk(client.send("POST", DATA_API + "/_bulk?_format=ndjson", good));
+        assertEquals(before + 2, (long) template.queryForObject(countSql, Long.class));
+    }
+
+    /**
+     * 流式查询出错:还没有输出数据时返回ERROR;已经输出部分数据之后连接被中断,
+     * 客户端读到不完整的json,而不是看似正常结束的OK结果
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void streamFailureIsNotReportedAsOk() throws Exception {
+        assumeTrue("needs at least 2000 rows to commit the response", SEED_ROWS >= 2000);
+        ShardRouter router = context.getBean(ShardRouter.class);
+        Map<String, ShardRouter.Shard> databases =
+                (Map<String, ShardRouter.Shard>) ReflectionTestUtils.getField(router, "databases");
+        ShardRouter.Shard mapped = databases.get(DATA_DB);
+        ShardRouter.Shard shard = router.forDb(DATA_DB);
+        try {
+            databases.put(DATA_DB, failingShard(shard, 0));
+            DatabusClient.Response failed = client.send("GET", DATA_API + "?_stream&_take=2000", null);
+            assertEquals(failed.toString(), "ERROR", failed.getResultType());
+
+            databases.put(DATA_DB, failingShard(shard, 1500));
+            try {
+                DatabusClient.Response aborted = client.send("GET", DATA_API + "?_stream&_take=2000", null);
+                fail("expected an incomplete response, got " + aborted);
+            }
+            catch (IOException expected) {
+            }
+        }
+        finally {
+            if (mapped != null) {
+                databases.put(DATA_DB, mapped);
+            }
+            else {
+                databases.remove(DATA_DB);
+            }
+        }
+        expectOk(client.send("GET", DATA_API + "?_stream&_take=2000", null));
+    }
+
+    /**
+     * DmlExecutor中执行的语句以剩余的时间为查询超时:阻塞在数据库上的语句在超时后被结束,而不是一直占用连接
+     */
+    @Test
+    public void dmlStatementsAreKilledAtTimeout() throws Exception {
+        DmlExecutor executor = context.getBean(DmlExecutor.class);
+        JdbcTemplate template = context.getBean("templateCore", JdbcTemplate.class);
+        Object timeout = ReflectionTestUtils.getField(executor, "timeout");
+        ReflectionTestUtils.setField(executor, "timeout", 1000L);
+        try {
+            long start = System.nanoTime();
+            CountDownLatch done = new CountDownLatch(1);
+            DeferredResult<RestResult> deferred = executor.submit(() -> {
+                template.queryForObject("SELECT SLEEP(10)", Integer.class);
+                return new RestResult(ResultType.OK, "slept");
+            });
+            deferred.setResultHandler(result -> done.countDown());
+            assertTrue("statement was not killed", done.await(8, TimeUnit.SECONDS));
+            assertTrue(String.valueOf(deferred.getResult()), deferred.getResult() instanceof DataAccessException);
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        }
+        finally {
+            ReflectionTestUtils.setField(executor, "timeout", timeout);
+        }
+    }
+
+    /**
+     * @return 与shard相同,但读取failAfter行之后查询抛出异常的分片;
+     * 刚写过数据的client读主库(db.replica.stickyWindow),因此主库和只读副本都替换
+     */
+    private static ShardRouter.Shard failingShard(ShardRouter.Shard shard, int failAfter) {
+        return new ShardRouter.Shard(shard.getName(),
+                failingTemplate(shard.getTemplate(), failAfter),
+                failingTemplate(shard.getReadTemplate(), failAfter),
+                shard.getTxTemplate());
+    }
+
+    private static JdbcTemplate failingTemplate(JdbcTemplate template, int failAfter) {
+        return new JdbcTemplate(template.getDataSource()) {
+            @Override
+            public void query(PreparedStatementCreator psc, RowCallbackHandler rch) throws DataAccessException {
+                int[] rows = new int[1];
+                super.query(psc, (RowCallbackHandler) rs -> {
+                    if (rows[0]++ == failAfter) {
+                        throw new SQLException("injected failure after " + failAfter + " rows");
+                    }
+                    rch.processRow(rs);
+                });
+            }
+        };
+    }
+
+    private static DatabusClient.Response send(Endpoint endpoint) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch (endpoint) {
+            case QUERY:
+                return client.send("GET", DATA_API + "?_take=20&_skip=" + random.nextInt(SEED_ROWS), null);
+            case QUERY_FILTERED:
+                return client.send("GET", DATA_API + "?category=" + CATEGORIES[random.nextInt(CATEGORIES.length)] +
+                        "&_take=20", null);
+            case STREAM:
+                return client.send("GET", DATA_API + "?_stream&_take=500", null);
+            case INSERT:
+                return client.send("POST", DATA_API, objectWriter.writeValueAsString(rows(10)));
+            default:
+                throw new IllegalArgumentException(endpoint.name());
+        }
+    }
+
+    private static Endpoint pick() {
+        int total = 0;
+        for (Endpoint endpoint : Endpoint.values()) {
+            total += endpoint.weight;
+        }
+        int n = ThreadLocalRandom.current().nextInt(total);
+        for (Endpoint endpoint : Endpoint.values()) {
+            n -= endpoint.weight;
+            if (n < 0) {
+                return endpoint;
+            }
+        }
+        return Endpoint.QUERY;
+    }
+
+    private static Map<String, Object> report(Map<Endpoint, EndpointStats> stats) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("threads", THREADS);
+        report.put("seconds", SECONDS);
+        report.put("seedRows", SEED_ROWS);
+
+        Map<String, Object> endpoints = new LinkedHashMap<>();
+        System.out.println(String.format("%-16s %10s %10s %9s %9s %9s %9s %9s  %s",
+                "endpoint", "count", "req/s", "mean", "p50", "p90", "p99", "max", "results"));
+        for (Map.Entry<Endpoint, EndpointStats> entry : stats.entrySet()) {
+            Map<String, Object> latency = entry.getValue().latency.snapshot();
+            Map<String, Long> results = new HashMap<>();
+            entry.getValue().results.forEach((k, v) -> results.put(k, v.sum()));
+            long count = entry.getValue().latency.getCount();
+            double throughput = (double) count / SECONDS;
+
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("throughput", throughput);
+            item.put("latencyMs", latency);
+            item.put("results", results);
+            endpoints.put(entry.getKey().name(), item);
+
+            System.out.println(String.format("%-16s %10d %10.1f %9s %9s %9s %9s %9s  %s",
+                    entry.getKey(), count, throughput, latency.get("mean"), latency.get("p50"),
+                    latency.get("p90"), latency.get("p99"), latency.get("max"), results));
+        }
+        report.put("endpoints", endpoints);
+
+        Map<String, Object> pools = context.getBean(DataSourcePoolFactory.class).snapshot();
+        System.out.println("pools: " + pools);
+        report.put("pools", pools);
+
+        Map<String, Object> executors = context.getBean(ExecutorMetricsEndpoint.class).invoke();
+        System.out.println("executors: " + executors);
+        report.put("executors", executors);
+
+        // 服务端记录的各api分阶段耗时,只写入json文件
+        report.put("apiMetrics", context.getBean(ApiMetrics.class).snapshot());
+        return report;
+    }
+
+    private static Map<String, Object> column(String name, String type, String length, boolean index) {
+        Map<String, Object> column = new LinkedHashMap<>();
+        column.put("name", name);
+        column.put("data_type", type);
+        if (length != null) {
+            column.put("data_length", length);
+        }
+        column.put("index", index);
+        return column;
+    }
+
+    private static List<Map<String, Object>> rows(int count) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<Map<String, Object>> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("name", "item-" + random.nextInt(1_000_000));
+            row.put("category", CATEGORIES[random.nextInt(CATEGORIES.length)]);
+            row.put("amount", random.nextInt(10_000));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static DatabusClient.Response expectOk(DatabusClient.Response response) {
+        if (!response.isOk()) {
+            throw new IllegalStateException("unexpected response: " + response);
+        }
+        return response;
+    }
+}
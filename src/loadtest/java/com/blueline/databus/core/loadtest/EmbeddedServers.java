@@ -0,0 +1,108 @@
+package com.blueline.databus.core.loadtest;
+
+import ch.vorburger.exec.ManagedProcessException;
+import ch.vorburger.mariadb4j.DB;
+import ch.vorburger.mariadb4j.DBConfigurationBuilder;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 负载测试使用的内嵌服务:MariaDB(代替MySQL)和Redis
+ * <p>
+ *     都使用随机的空闲端口;sys库由项目根目录的databus_sys.sql创建
+ * </p>
+ */
+public class EmbeddedServers {
+
+    public static final String SYS_DB = "databus_sys";
+
+    public static final String CORE_DB = "databus_core";
+
+    private DB mariaDB;
+
+    private DBConfigurationBuilder mariaConfig;
+
+    private RedisServer redis;
+
+    private int redisPort;
+
+    /**
+     * 启动服务,创建sys库、core库和dataDbName库
+     * @param dataDbName 负载测试中建表使用的库名
+     * @throws IOException 启动失败
+     */
+    public void start(String dataDbName) throws IOException {
+        redisPort = freePort();
+        redis = new RedisServer(redisPort);
+        redis.start();
+
+        try {
+            mariaConfig = DBConfigurationBuilder.newBuilder();
+            mariaConfig.setPort(freePort());
+            // 以root运行(如在容器中)时mysqld需要明确指定用户
+            if ("root".equals(System.getProperty("user.name"))) {
+                mariaConfig.addArg("--user=root");
+            }
+            mariaDB = DB.newEmbeddedDB(mariaConfig.build());
+            mariaDB.start();
+        }
+        catch (ManagedProcessException ex) {
+            throw new IOException("failed to start embedded MariaDB: " + ex.getMessage(), ex);
+        }
+
+        // 通过jdbc建库和导入sys表结构,不依赖MariaDB4j自带的mysql命令行客户端
+        try (Connection conn = DriverManager.getConnection(jdbcUrl(""), "root", "");
+             Statement stmt = conn.createStatement()) {
+            for (String dbName : new String[]{SYS_DB, CORE_DB, dataDbName}) {
+                stmt.execute("CREATE DATABASE IF NOT EXISTS `" + dbName + "` DEFAULT CHARSET utf8");
+            }
+            conn.setCatalog(SYS_DB);
+            ScriptUtils.executeSqlScript(conn, new FileSystemResource("databus_sys.sql"));
+        }
+        catch (SQLException ex) {
+            throw new IOException("failed to initialize embedded MariaDB: " + ex.getMessage(), ex);
+        }
+    }
+
+    public void stop() {
+        try {
+            if (mariaDB != null) {
+                mariaDB.stop();
+            }
+        }
+        catch (ManagedProcessException ex) {
+            System.err.println(ex.getMessage());
+        }
+        if (redis != null) {
+            redis.stop();
+        }
+    }
+
+    /**
+     * @param dbName 库名
+     * @return 连接某个库的jdbc url,参数与application.yml中的相同
+     */
+    public String jdbcUrl(String dbName) {
+        return "jdbc:mysql://localhost:" + mariaConfig.getPort() + "/" + dbName + "?useSSL=false&useUnicode=true&characterEncoding=utf-8" +
+                "&useServerPrepStmts=true&cachePrepStmts=true&prepStmtCacheSize=250&prepStmtCacheSqlLimit=2048" +
+                "&rewriteBatchedStatements=true&allowLoadLocalInfile=true";
+    }
+
+    public int getRedisPort() {
+        return redisPort;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.blueline.databus.core;
 
+import com.blueline.databus.core.filter.ApiMetricsFilter;
 import com.blueline.databus.core.filter.AuthenticationFilter;
 import com.blueline.databus.core.filter.AuthorityFilter;
 import com.blueline.databus.core.filter.CorsFilter;
@@ -7,19 +8,46 @@ import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import javax.servlet.DispatcherType;
+import java.util.EnumSet;
+
 /**
  * 配置总线服务的servlet filters
+ * <p>
+ *     filters只在请求最初的dispatch中执行:DML请求异步执行(见DmlExecutor)后
+ *     还会有一次ASYNC dispatch来输出结果,此时不能再次认证、鉴权和记录
+ * </p>
  */
 @Configuration
 public class AppFilterConfiguration {
 
+    private static final EnumSet<DispatcherType> DISPATCHER_TYPES =
+            EnumSet.of(DispatcherType.REQUEST, DispatcherType.FORWARD, DispatcherType.INCLUDE);
+
+    @Bean
+    public FilterRegistrationBean apiMetricsFilterRegistration() {
+        FilterRegistrationBean registration = new FilterRegistrationBean();
+        registration.setFilter(apiMetricsFilter());
+        registration.addUrlPatterns("/api/*");
+        registration.setName("apiMetricsFilter");
+        registration.setDispatcherTypes(DISPATCHER_TYPES);
+        registration.setOrder(2);
+        return registration;
+    }
+
+    @Bean
+    public ApiMetricsFilter apiMetricsFilter() {
+        return new ApiMetricsFilter();
+    }
+
     @Bean
     public FilterRegistrationBean authenticationFilterRegistration() {
         FilterRegistrationBean registration = new FilterRegistrationBean();
         registration.setFilter(authenticationFilter());
         registration.addUrlPatterns("/api/*");
         registration.setName("authenticationFilter");
-        registration.setOrder(2);
+        registration.setDispatcherTypes(DISPATCHER_TYPES);
+        registration.setOrder(3);
         return registration;
     }
 
@@ -34,7 +62,8 @@ public class AppFilterConfiguration {
         registration.setFilter(authorityFilter());
         registration.addUrlPatterns("/api/*");
         registration.setName("authorityFilter");
-        registration.setOrder(3);
+        registration.setDispatcherTypes(DISPATCHER_TYPES);
+        registration.setOrder(4);
         return registration;
     }
 
@@ -49,6 +78,7 @@ public class AppFilterConfiguration {
         registration.setFilter(corsFilter());
         registration.addUrlPatterns("/*");
         registration.setName("corsFilter");
+        registration.setDispatcherTypes(DISPATCHER_TYPES);
         registration.setOrder(1);
         return registration;
     }
@@ -6,6 +6,7 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.data.redis.RedisAutoConfiguration;
 import org.springframework.boot.autoconfigure.data.redis.RedisRepositoriesAutoConfiguration;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * 数据总线服务程序主入口
@@ -15,6 +16,7 @@ import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
     DataSourceAutoConfiguration.class,
     RedisRepositoriesAutoConfiguration.class,
     RedisAutoConfiguration.class})
+@EnableScheduling
 public class Application  {
     public static void main(String[] args) {
         SpringApplication.run(Application.class, args);
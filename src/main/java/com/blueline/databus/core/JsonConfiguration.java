@@ -0,0 +1,66 @@
+package com.blueline.databus.core;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 配置全局共享的json序列化工具
+ * <p>
+ *     ObjectMapper是线程安全的,但创建的代价很高(每个实例都要重新内省类型、构建序列化器缓存);
+ *     因此整个服务只使用一个实例,各处按名称注入下面预先构建好的ObjectReader/ObjectWriter,
+ *     它们是不可变的,已经解析好了根类型,可以在多个线程中共享
+ * </p>
+ * <p>
+ *     这里的ObjectMapper保持Jackson的默认配置,与原来各处new ObjectMapper()的输出一致;
+ *     它同时替代了SpringBoot默认的ObjectMapper(用于@RestController返回值的输出)
+ * </p>
+ */
+@Configuration
+public class JsonConfiguration {
+
+    @Bean
+    @Primary
+    public ObjectMapper objectMapper() {
+        return new ObjectMapper();
+    }
+
+    /**
+     * 读取json对象(如请求体中的参数字典)
+     */
+    @Bean
+    public ObjectReader mapReader() {
+        return objectMapper().readerFor(Map.class);
+    }
+
+    /**
+     * 读取json数组,每个元素是一行数据(如插入、更新数据的请求体)
+     */
+    @Bean
+    public ObjectReader rowListReader() {
+        return objectMapper().readerFor(new TypeReference<List<Map<String, Object>>>() {});
+    }
+
+    /**
+     * 输出查询结果(行数据的列表)
+     */
+    @Bean
+    public ObjectWriter rowListWriter() {
+        return objectMapper().writerFor(new TypeReference<List<Map<String, Object>>>() {});
+    }
+
+    /**
+     * 输出任意对象(如系统接口返回的各种信息)
+     */
+    @Bean
+    public ObjectWriter objectWriter() {
+        return objectMapper().writer();
+    }
+}
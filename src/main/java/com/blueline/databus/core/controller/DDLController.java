@@ -7,7 +7,8 @@ import com.blueline.databus.core.datatype.RestResult;
 import com.blueline.databus.core.datatype.ResultType;
 
 import com.blueline.databus.core.exception.InternalException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -41,6 +42,12 @@ public class DDLController {
     @Autowired
     private SysDBDao sysDBDao;
 
+    @Autowired
+    private ObjectReader mapReader;
+
+    @Autowired
+    private ObjectWriter objectWriter;
+
     /**
      * 创建数据表(并自动创建相关sys数据);
      * <p>
@@ -101,8 +108,7 @@ public class DDLController {
                 return new RestResult(ResultType.FAIL, "admin only");
             }
 
-            ObjectMapper om = new ObjectMapper();
-            params = om.readValue(jsonBody, Map.class);
+            params = mapReader.readValue(jsonBody);
 
             if (params == null || params.size() < 2) {
                 return new RestResult(ResultType.ERROR, "json body parsing failed or lack of necessary fields");
@@ -213,7 +219,7 @@ public class DDLController {
     ) {
         try {
             List<ColumnInfo> columns = coreDBDao.getColumns(dbName, tableName);
-            return new RestResult(ResultType.OK, new ObjectMapper().writeValueAsString(columns));
+            return new RestResult(ResultType.OK, objectWriter.writeValueAsString(columns));
         }
         catch (Exception ex) {
             String err = String.format(
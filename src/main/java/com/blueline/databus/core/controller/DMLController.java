@@ -3,19 +3,33 @@ package com.blueline.databus.core.controller;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import com.blueline.databus.core.dao.CoreDBDao;
+import com.blueline.databus.core.helper.BulkLoadReader;
+import com.blueline.databus.core.helper.DmlExecutor;
+import com.blueline.databus.core.helper.FilterResponseRender;
+import com.fasterxml.jackson.databind.ObjectReader;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import static org.springframework.web.bind.annotation.RequestMethod.*;
 
+import com.blueline.databus.core.datatype.DataPage;
 import com.blueline.databus.core.datatype.RestResult;
 import com.blueline.databus.core.datatype.ResultType;
 
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
 /**
  * 处理数据CRUD相关的操作(DML)
+ * <p>
+ *     各接口访问数据库的部分交给DmlExecutor执行,返回DeferredResult;
+ *     等待执行的请求已满时返回503(见{@link #busy(RejectedExecutionException)}),
+ *     超时没有结果时返回504(见{@link #timeout(TimeoutException)})
+ * </p>
  */
 @RestController
 @RequestMapping("/api/data")
@@ -31,6 +45,12 @@ public class DMLController {
     @Autowired
     private CoreDBDao coreDBDao;
 
+    @Autowired
+    private DmlExecutor dmlExecutor;
+
+    @Autowired
+    private ObjectReader mapReader;
+
     /**
      * 数据查询
      *
@@ -46,6 +66,8 @@ public class DMLController {
      *     <li><strong>_order</strong>:排序方向;取值为"asc"/"desc";默认是升序"asc"</li>
      *     <li><strong>_skip</strong>:跳过条目数;默认是0</li>
      *     <li><strong>_take</strong>:取值条目数;默认是10(默认值可配置)</li>
+     *     <li><strong>_after</strong>:上一页返回的游标(ext字段);带有此参数时使用keyset分页,忽略_skip</li>
+     *     <li><strong>_stream</strong>:如果带有此参数,则以流的方式输出结果(见streamData)</li>
      * </ul>
      *
      * <strong>条件参数</strong>
@@ -76,27 +98,77 @@ public class DMLController {
      *     </li>
      * </ul>
      *
+     * <p>
+     *     <strong>keyset分页</strong>:对于深度翻页,使用_skip时数据库需要扫描并丢弃前面所有的行;
+     *     取满_take行时,返回结果的ext字段中带有游标,将其作为下一次请求的_after参数即可取下一页,
+     *     每页的代价是恒定的;ext为空表示没有更多数据;
+     *     _by不是id时以id作为第二排序列,_by的值有重复时翻页也不会遗漏行(表需要含有id列)
+     * </p>
+     *
      * @param dbName 数据库名
      * @param tableName 表名
-     * @return json格式的数据
+     * @return json格式的数据;ext字段为下一页的游标
      * @see com.blueline.databus.core.helper.SQLParser#parseSQL4Select(Map)
      */
     @RequestMapping(value = "/{dbName}/{tableName}", method = GET)
-    public RestResult queryData(
+    public DeferredResult<RestResult> queryData(
+        @PathVariable("dbName")    String dbName,
+        @PathVariable("tableName") String tableName
+    ) {
+        return dmlExecutor.submit(() -> {
+            try {
+                DataPage page = coreDBDao.queryPage(dbName, tableName, request.getParameterMap());
+                response.setHeader("Cache-Control", "public");
+                response.setHeader("Cache-Control", "must-revalidate");
+                response.setHeader("Cache-Control", "max-age=3600");
+                return new RestResult(ResultType.OK, page.getData(), page.getNextCursor());
+            }
+            catch (Exception ex) {
+                logger.fatal(ex.getMessage());
+                return new RestResult(ResultType.ERROR, ex.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 数据查询(流式输出)
+     *
+     * <pre>
+     *     <code>GET /api/data/{dbName}/{tableName}?_stream[&amp;args...]</code>
+     * </pre>
+     *
+     * 带有meta参数<strong>_stream</strong>时使用本接口;其余参数与普通查询完全相同;
+     * 查询结果逐行从数据库读出并直接写入response,内存占用不随结果行数增长,适合大量(_take很大)的查询;
+     * 返回的json中数据是json列表而不是字符串,不再经过二次编码:
+     *
+     * <pre><code>{"resultType":"OK","data":[{"id":1,"name":"dave"}, ...],"ext":"{下一页的游标}"}</code></pre>
+     *
+     * 还没有开始输出数据时出错(如SQL错误),返回普通的RestResult错误信息;
+     * 已经开始输出数据之后出错,连接被中断,客户端得到不完整的json(不会是看似正常结束的OK结果)
+     *
+     * @param dbName 数据库名
+     * @param tableName 表名
+     * @see #queryData(String, String)
+     * @see CoreDBDao#streamData(String, String, Map, java.io.OutputStream)
+     */
+    @RequestMapping(value = "/{dbName}/{tableName}", method = GET, params = "_stream")
+    public DeferredResult<RestResult> streamData(
         @PathVariable("dbName")    String dbName,
         @PathVariable("tableName") String tableName
     ) {
-        try {
-            String jsonData = coreDBDao.queryData(dbName, tableName, request.getParameterMap());
-            response.setHeader("Cache-Control", "public");
-            response.setHeader("Cache-Control", "must-revalidate");
-            response.setHeader("Cache-Control", "max-age=3600");
-            return new RestResult(ResultType.OK, jsonData);
-        }
-        catch (Exception ex) {
-            logger.fatal(ex.getMessage());
-            return new RestResult(ResultType.ERROR, ex.getMessage());
-        }
+        return dmlExecutor.submitStream(() -> {
+            try {
+                response.setHeader("Cache-Control", "max-age=3600");
+                response.setCharacterEncoding("utf-8");
+                response.setContentType("application/json");
+                coreDBDao.streamData(dbName, tableName, request.getParameterMap(), response.getOutputStream());
+            }
+            catch (Exception ex) {
+                logger.fatal(ex.getMessage());
+                FilterResponseRender.renderStreamError(response, ex);
+            }
+            return null;
+        });
     }
 
     /**
@@ -141,23 +213,25 @@ public class DMLController {
      * @see com.blueline.databus.core.helper.SQLParser#parseSQL4Delete(Map)
      */
     @RequestMapping(value = "/{dbName}/{tableName}", method = DELETE)
-    public RestResult deleteData(
+    public DeferredResult<RestResult> deleteData(
         @PathVariable("dbName")    String dbName,
         @PathVariable("tableName") String tableName
     ) {
-        try {
-            int count = coreDBDao.deleteData(dbName, tableName, request.getParameterMap());
-            if (count > 0) {
-                return new RestResult(ResultType.OK, String.format("%d rows deleted", count));
+        return dmlExecutor.submit(() -> {
+            try {
+                int count = coreDBDao.deleteData(dbName, tableName, request.getParameterMap());
+                if (count > 0) {
+                    return new RestResult(ResultType.OK, String.format("%d rows deleted", count));
+                }
+                else{
+                    return new RestResult(ResultType.FAIL, "nothing deleted");
+                }
             }
-            else{
-                return new RestResult(ResultType.FAIL, "nothing deleted");
+            catch (Exception ex) {
+                logger.fatal(ex.getMessage());
+                return new RestResult(ResultType.ERROR, ex.getMessage());
             }
-        }
-        catch (Exception ex) {
-            logger.fatal(ex.getMessage());
-            return new RestResult(ResultType.ERROR, ex.getMessage());
-        }
+        });
     }
 
     /**
@@ -181,33 +255,134 @@ public class DMLController {
      * <ul>
      *     <li>提供的值中,如果缺少某些列,取'DEFAULT'字符作为值(交给数据库引擎处理)</li>
      *     <li>忽略id列和数据表中没有的列的值</li>
+     *     <li>数据按批次(默认每批1000行,可配置)插入,每个批次单独提交</li>
+     *     <li>如果带有meta参数<strong>_atomic</strong>,则所有批次在同一个事务中插入,出错时全部回滚</li>
      * </ul>
      *
      * @param dbName 数据库名
      * @param tableName 表名
      * @param jsonBody 请求体参数
      * @return 结果信息
-     * @see com.blueline.databus.core.helper.SQLParser#parseSQL4Insert(String, List)
+     * @see CoreDBDao#insertRows(String, String, java.util.Iterator, boolean)
      */
     @RequestMapping(value = "/{dbName}/{tableName}", method = POST)
-    public RestResult insertData(
+    public DeferredResult<RestResult> insertData(
         @PathVariable("dbName")    String dbName,
         @PathVariable("tableName") String tableName,
         @RequestBody String jsonBody
     ) {
-        try {
-            int count = coreDBDao.insertData(dbName, tableName, jsonBody);
-            if (count > 0) {
-                return new RestResult(ResultType.OK, String.format("%s rows inserted", count));
+        return dmlExecutor.submit(() -> {
+            try {
+                boolean atomic = request.getParameter("_atomic") != null;
+                int count = coreDBDao.insertData(dbName, tableName, jsonBody, atomic);
+                if (count > 0) {
+                    return new RestResult(ResultType.OK, String.format("%s rows inserted", count));
+                }
+                else {
+                    return new RestResult(ResultType.FAIL, "nothing inserted");
+                }
             }
-            else {
-                return new RestResult(ResultType.FAIL, "nothing inserted");
+            catch (Exception ex) {
+                logger.fatal(ex.getMessage());
+                return new RestResult(ResultType.ERROR, ex.getMessage());
             }
-        }
-        catch (Exception ex) {
-            logger.fatal(ex.getMessage());
-            return new RestResult(ResultType.ERROR, ex.getMessage());
-        }
+        });
+    }
+
+    /**
+     * 插入数据(流式读取)
+     * <pre>
+     *     <code>POST /api/data/{dbName}/{tableName}?_stream[&amp;_atomic]</code>
+     * </pre>
+     *
+     * 带有meta参数<strong>_stream</strong>时使用本接口;请求体格式和插入规则与普通插入完全相同;
+     * 请求体不再整个读入内存,而是从输入流中逐个解析json对象,每凑满一个批次就写入数据库;
+     * 适合上传很大(数百MB)的数据
+     *
+     * <p>
+     *     不带_atomic时每个批次单独提交,出错时返回错误信息,但之前的批次已经写入
+     * </p>
+     *
+     * @param dbName 数据库名
+     * @param tableName 表名
+     * @return 结果信息
+     * @see #insertData(String, String, String)
+     * @see CoreDBDao#insertData(String, String, java.io.InputStream, boolean)
+     */
+    @RequestMapping(value = "/{dbName}/{tableName}", method = POST, params = "_stream")
+    public DeferredResult<RestResult> insertStream(
+        @PathVariable("dbName")    String dbName,
+        @PathVariable("tableName") String tableName
+    ) {
+        return dmlExecutor.submitStream(() -> {
+            try {
+                boolean atomic = request.getParameter("_atomic") != null;
+                int count = coreDBDao.insertData(dbName, tableName, request.getInputStream(), atomic);
+                if (count > 0) {
+                    return new RestResult(ResultType.OK, String.format("%s rows inserted", count));
+                }
+                else {
+                    return new RestResult(ResultType.FAIL, "nothing inserted");
+                }
+            }
+            catch (Exception ex) {
+                logger.fatal(ex.getMessage());
+                return new RestResult(ResultType.ERROR, ex.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 批量导入数据
+     * <pre>
+     *     <code>POST /api/data/{dbName}/{tableName}/_bulk[?_format=ndjson|csv]</code>
+     * </pre>
+     *
+     * 用于大量数据的导入(如每晚的数据同步);数据以LOAD DATA LOCAL INFILE的方式写入,速度接近mysqlimport;
+     * 请求体的格式由meta参数<strong>_format</strong>指定;没有时,Content-Type含有"csv"的按csv处理,否则按ndjson处理:
+     * <ul>
+     *     <li><strong>ndjson</strong>:每行一个json对象,每行的键必须相同,如:
+     *         <pre><code>{"name":"dave","age":"18"}
+     * {"name":"mike","age":"20"}</code></pre>
+     *     </li>
+     *     <li><strong>csv</strong>:第一行是列名,不带引号的\N表示NULL,如:
+     *         <pre><code>name,age
+     * dave,18</code></pre>
+     *     </li>
+     * </ul>
+     * <ul>
+     *     <li>列名必须是表中存在的列(可以包含id列);数据中没有的列取默认值</li>
+     *     <li>字符类型的值不能超过列的长度</li>
+     *     <li>整个导入在一个事务中:数据检查失败,或者有值无法按列的类型写入(MySQL对LOAD DATA LOCAL只给出警告,
+     *     如非数字的值写入整数列)时全部回滚,错误信息为前几条警告;主键重复的行被忽略,不算作错误</li>
+     *     <li>访问权限与该表的插入(POST)接口相同</li>
+     * </ul>
+     *
+     * @param dbName 数据库名
+     * @param tableName 表名
+     * @return 结果信息
+     * @see CoreDBDao#bulkLoad(String, String, com.blueline.databus.core.helper.BulkLoadReader)
+     */
+    @RequestMapping(value = "/{dbName}/{tableName}/_bulk", method = POST)
+    public DeferredResult<RestResult> bulkLoad(
+        @PathVariable("dbName")    String dbName,
+        @PathVariable("tableName") String tableName
+    ) {
+        String contentType = request.getContentType();
+        String format = !StringUtils.isEmpty(request.getParameter("_format"))
+                ? request.getParameter("_format")
+                : (contentType != null && contentType.toLowerCase().contains("csv")) ? "csv" : "ndjson";
+
+        return dmlExecutor.submitStream(() -> {
+            try (BulkLoadReader reader = BulkLoadReader.of(format, request.getInputStream(), mapReader)) {
+                int count = coreDBDao.bulkLoad(dbName, tableName, reader);
+                return new RestResult(ResultType.OK, String.format("%s rows loaded", count));
+            }
+            catch (Exception ex) {
+                logger.fatal(ex.getMessage());
+                return new RestResult(ResultType.ERROR, ex.getMessage());
+            }
+        });
     }
 
     /**
@@ -236,25 +411,51 @@ public class DMLController {
      * @see com.blueline.databus.core.helper.SQLParser#parseSQL4Update(String, String, String)
      */
     @RequestMapping(value = "/{dbName}/{tableName}/{colName}/{colValue}", method = PUT)
-    public RestResult updateData(
+    public DeferredResult<RestResult> updateData(
         @PathVariable("dbName")    String dbName,
         @PathVariable("tableName") String tableName,
         @PathVariable("colName")   String colName,
         @PathVariable("colValue")  String colValue,
         @RequestBody String jsonBody
     ) {
-        try {
-            int count = coreDBDao.updateData(dbName, tableName, colName, colValue, jsonBody);
-            if (count > 0) {
-                return new RestResult(ResultType.OK, String.format("%s rows updated", count));
+        return dmlExecutor.submit(() -> {
+            try {
+                int count = coreDBDao.updateData(dbName, tableName, colName, colValue, jsonBody);
+                if (count > 0) {
+                    return new RestResult(ResultType.OK, String.format("%s rows updated", count));
+                }
+                else {
+                    return new RestResult(ResultType.FAIL,"nothing updated");
+                }
             }
-            else {
-                return new RestResult(ResultType.FAIL,"nothing updated");
+            catch (Exception ex) {
+                logger.fatal(ex.getMessage());
+                return new RestResult(ResultType.ERROR, ex.getMessage());
             }
-        }
-        catch (Exception ex) {
-            logger.fatal(ex.getMessage());
-            return new RestResult(ResultType.ERROR, ex.getMessage());
-        }
+        });
+    }
+
+    /**
+     * DmlExecutor中等待执行的请求已满:返回503,客户端应稍后重试
+     * @param ex 提交任务时的异常
+     * @return 结果信息
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public RestResult busy(RejectedExecutionException ex) {
+        response.setHeader("Retry-After", "1");
+        return new RestResult(ResultType.FAIL, "server busy, please retry later");
+    }
+
+    /**
+     * DmlExecutor中的任务超过default.dmlTimeout(流式接口为default.dmlStreamTimeout)没有结果:返回504
+     * @param ex 超时信息
+     * @return 结果信息
+     */
+    @ExceptionHandler(TimeoutException.class)
+    @ResponseStatus(HttpStatus.GATEWAY_TIMEOUT)
+    public RestResult timeout(TimeoutException ex) {
+        logger.error(ex.getMessage());
+        return new RestResult(ResultType.ERROR, ex.getMessage());
     }
 }
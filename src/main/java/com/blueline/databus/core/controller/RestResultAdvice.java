@@ -0,0 +1,35 @@
+package com.blueline.databus.core.controller;
+
+import com.blueline.databus.core.datatype.RestResult;
+import com.blueline.databus.core.helper.RequestTimer;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+/**
+ * 在controller返回的RestResult输出之前,记录结果类型并开始计时输出(SERIALIZATION)阶段
+ * @see RequestTimer
+ */
+@ControllerAdvice
+public class RestResultAdvice implements ResponseBodyAdvice<Object> {
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return RestResult.class.isAssignableFrom(returnType.getParameterType());
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        if (body != null) {
+            RequestTimer.result(((RestResult) body).getResultType());
+        }
+        RequestTimer.serializing();
+        return body;
+    }
+}
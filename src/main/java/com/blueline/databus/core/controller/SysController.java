@@ -4,14 +4,21 @@ import com.blueline.databus.core.dao.AclCacheService;
 import com.blueline.databus.core.dao.ApiRecordService;
 import com.blueline.databus.core.dao.SysDBDao;
 import com.blueline.databus.core.datatype.*;
+import com.blueline.databus.core.helper.FilterResponseRender;
 import com.blueline.databus.core.helper.SQLParser;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import org.apache.catalina.servlet4preview.http.HttpServletRequest;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -27,7 +34,6 @@ import static org.springframework.web.bind.annotation.RequestMethod.*;
 @RequestMapping("/api/sys")
 public class SysController {
     private final Logger logger = Logger.getLogger(SysController.class);
-    private ObjectMapper om = new ObjectMapper();
 
     @Value("${admin.appkey}")
     private String adminAppKey;
@@ -35,6 +41,9 @@ public class SysController {
     @Autowired
     private HttpServletRequest request;
 
+    @Autowired
+    private HttpServletResponse response;
+
     @Autowired
     private SysDBDao sysDBDao;
 
@@ -44,6 +53,9 @@ public class SysController {
     @Autowired
     private ApiRecordService apiRecordService;
 
+    @Autowired
+    private ObjectWriter objectWriter;
+
     /**
      * 获取所有客户端信息;
      * <p>
@@ -67,7 +79,7 @@ public class SysController {
             }
 
             List<ClientInfo> clients = sysDBDao.getClients();
-            return new RestResult(ResultType.OK, om.writeValueAsString(clients));
+            return new RestResult(ResultType.OK, objectWriter.writeValueAsString(clients));
         }
         catch (Exception ex) {
             logger.fatal(ex.getMessage());
@@ -89,7 +101,7 @@ public class SysController {
             }
 
             ClientInfo newClient = sysDBDao.createClient(jsonBody);
-            return new RestResult(ResultType.OK, om.writeValueAsString(newClient));
+            return new RestResult(ResultType.OK, objectWriter.writeValueAsString(newClient));
         }
         catch (Exception ex) {
             logger.fatal(ex.getMessage());
@@ -113,7 +125,7 @@ public class SysController {
         try {
             ClientInfo client = sysDBDao.getClientByName(name);
             if (client != null) {
-                return new RestResult(ResultType.OK, om.writeValueAsString(client));
+                return new RestResult(ResultType.OK, objectWriter.writeValueAsString(client));
             }
             else {
                 return new RestResult(ResultType.FAIL, String.format("got no client with name {%s}", name));
@@ -148,7 +160,7 @@ public class SysController {
 
             ClientInfo client = sysDBDao.getClientByID(Integer.valueOf(id));
             if (client != null) {
-                return new RestResult(ResultType.OK, om.writeValueAsString(client));
+                return new RestResult(ResultType.OK, objectWriter.writeValueAsString(client));
             }
             else {
                 return new RestResult(ResultType.FAIL, String.format("got no client with Id {%s}", id));
@@ -173,7 +185,7 @@ public class SysController {
             }
 
             List<TableInfo> result = sysDBDao.getTablesByClient(clientName);
-            return new RestResult(ResultType.OK, om.writeValueAsString(result));
+            return new RestResult(ResultType.OK, objectWriter.writeValueAsString(result));
         }
         catch (Exception ex) {
             logger.fatal(ex.getMessage());
@@ -206,7 +218,7 @@ public class SysController {
 
             List<AclInfo> aclInfoList = sysDBDao.getAclInfoByClient(name);
             if (aclInfoList != null && aclInfoList.size() > 0) {
-                return new RestResult(ResultType.OK, om.writeValueAsString(aclInfoList));
+                return new RestResult(ResultType.OK, objectWriter.writeValueAsString(aclInfoList));
             }
             else {
                 return new RestResult(ResultType.FAIL, String.format("got no acl record for client '%s'", name));
@@ -275,7 +287,7 @@ public class SysController {
             }
 
             List<TableInfo> tables = sysDBDao.getTableInfo();
-            return new RestResult(ResultType.OK, om.writeValueAsString(tables));
+            return new RestResult(ResultType.OK, objectWriter.writeValueAsString(tables));
         }
         catch (Exception ex) {
             logger.fatal(ex.getMessage());
@@ -308,7 +320,7 @@ public class SysController {
             result.put("table", table);
             result.put("owner", client);
 
-            return new RestResult(ResultType.OK, om.writeValueAsString(result));
+            return new RestResult(ResultType.OK, objectWriter.writeValueAsString(result));
         }
         catch (Exception ex) {
             logger.fatal(ex.getMessage());
@@ -335,7 +347,7 @@ public class SysController {
     ) {
         try {
             List<InterfaceInfo> apis = sysDBDao.getInterfaceInfoByTable(dbName, tableName);
-            return new RestResult(ResultType.OK, om.writeValueAsString(apis));
+            return new RestResult(ResultType.OK, objectWriter.writeValueAsString(apis));
         }
         catch (Exception ex) {
             logger.fatal(ex.getMessage());
@@ -364,7 +376,7 @@ public class SysController {
 
         try {
             InterfaceInfo api = sysDBDao.getInterfaceInfoById(id);
-            return new RestResult(ResultType.OK, om.writeValueAsString(api));
+            return new RestResult(ResultType.OK, objectWriter.writeValueAsString(api));
         }
         catch (Exception ex) {
             logger.fatal(ex.getMessage());
@@ -392,7 +404,7 @@ public class SysController {
 
         try {
             List<AclInfo> aclList = sysDBDao.getAclInfoByInterface(id);
-            return new RestResult(ResultType.OK, om.writeValueAsString(aclList));
+            return new RestResult(ResultType.OK, objectWriter.writeValueAsString(aclList));
         }
         catch (Exception ex) {
             logger.fatal("get interface ACL by id error: " + ex.getMessage());
@@ -438,6 +450,12 @@ public class SysController {
                 if (!sysDBDao.isInterfaceOwner(appkey, id))
                     return new RestResult(ResultType.FAIL, "admin or interface owner only");
             sysDBDao.grantInterfaceToClient(id, clientName, duration);
+
+            // 缓存中可能还有原来的duration,清除后下次访问时从数据库重新载入
+            ClientInfo clientInfo = sysDBDao.getClientByName(clientName);
+            InterfaceInfo interfaceInfo = sysDBDao.getInterfaceInfoById(id);
+            String cacheKey = String.format("%s %s", interfaceInfo.getMethod().toUpperCase(), interfaceInfo.getApi());
+            aclCacheService.removeOneAcl(cacheKey, clientInfo.getAppKey());
             return new RestResult(ResultType.OK, String.format(
                     "granted interface{%s} to client{%s} with duration{%s}",id, clientName, duration));
         }
@@ -508,7 +526,7 @@ public class SysController {
             }
 
             List<AclInfo> aclInfoList = aclCacheService.dumpAllAcl();
-            return new RestResult(ResultType.OK, om.writeValueAsString(aclInfoList));
+            return new RestResult(ResultType.OK, objectWriter.writeValueAsString(aclInfoList));
         }
         catch (Exception ex) {
             logger.fatal(ex.getMessage());
@@ -516,6 +534,42 @@ public class SysController {
         }
     }
 
+    /**
+     * Dump目前缓存中保存的所有acl记录(流式输出);
+     * <p>
+     *     <strong>admin only!</strong>
+     * </p>
+     *
+     * <pre>
+     *     <code>GET /api/sys/acl_cache?_stream</code>
+     * </pre>
+     *
+     * acl记录从redis中分批读出并直接写入response,不在内存中收集全部记录;
+     * 返回的json中数据是json列表而不是字符串:
+     *
+     * <pre><code>{"resultType":"OK","data":[{"api":"/api/data/db/t","method":"GET",...}, ...]}</code></pre>
+     *
+     * @see #dumpAclCache()
+     * @see AclCacheService#dumpAllAcl(java.util.function.Consumer)
+     */
+    @RequestMapping(value = "/acl_cache", method = GET, params = "_stream")
+    public void streamAclCache() {
+        // 默认每写出一个值就flush一次,这里由generator自己的缓冲区决定何时写出
+        ObjectWriter writer = objectWriter.without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        streamResult(generator -> {
+            generator.writeStartArray();
+            aclCacheService.dumpAllAcl(aclInfo -> {
+                try {
+                    writer.writeValue(generator, aclInfo);
+                }
+                catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+            generator.writeEndArray();
+        });
+    }
+
     /**
      * Dump记录在缓存中得所有api调用计数;
      * <p>
@@ -536,11 +590,87 @@ public class SysController {
             }
 
             Map<String, Integer> record = apiRecordService.dumpAllCallRecord();
-            return new RestResult(ResultType.OK, om.writeValueAsString(record));
+            return new RestResult(ResultType.OK, objectWriter.writeValueAsString(record));
         }
         catch (Exception ex) {
             logger.fatal(ex.getMessage());
             return new RestResult(ResultType.ERROR, ex.getMessage());
         }
     }
+
+    /**
+     * Dump记录在缓存中得所有api调用计数(流式输出);
+     * <p>
+     *     <strong>admin only!</strong>
+     * </p>
+     *
+     * <pre>
+     *     <code>GET /api/sys/call_records?_stream</code>
+     * </pre>
+     *
+     * 返回的json中数据是json对象而不是字符串:
+     *
+     * <pre><code>{"resultType":"OK","data":{"GET /api/data/db/t":12, ...}}</code></pre>
+     *
+     * @see #dumpCallRecord()
+     * @see ApiRecordService#dumpAllCallRecord(java.util.function.BiConsumer)
+     */
+    @RequestMapping(value = "/call_records", method = GET, params = "_stream")
+    public void streamCallRecord() {
+        streamResult(generator -> {
+            generator.writeStartObject();
+            apiRecordService.dumpAllCallRecord((apiKey, count) -> {
+                try {
+                    generator.writeNumberField(apiKey, count);
+                }
+                catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+            generator.writeEndObject();
+        });
+    }
+
+    /**
+     * 写出数据的函数
+     */
+    @FunctionalInterface
+    private interface DataWriter {
+        void write(JsonGenerator generator) throws IOException;
+    }
+
+    /**
+     * 以<code>{"resultType":"OK","data":...}</code>的格式流式输出,data部分由dataWriter写出;
+     * admin only;只有dataWriter成功时才写出json的结尾;
+     * 出错时如果还没有开始写出数据,返回普通的RestResult错误信息,否则中断响应
+     * @param dataWriter 写出data部分
+     * @see FilterResponseRender#renderStreamError(javax.servlet.ServletResponse, Exception)
+     */
+    private void streamResult(DataWriter dataWriter) {
+        if (!request.getHeader("x-appkey").equalsIgnoreCase(adminAppKey)) {
+            FilterResponseRender.render(response, new RestResult(ResultType.FAIL, "admin only"));
+            return;
+        }
+
+        try {
+            response.setCharacterEncoding("utf-8");
+            response.setContentType("application/json");
+            // 出错时不能由close补全json或关闭输出流
+            JsonGenerator generator = objectWriter.getFactory().createGenerator(
+                    response.getOutputStream(), JsonEncoding.UTF8)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartObject();
+            generator.writeStringField("resultType", ResultType.OK.toString());
+            generator.writeFieldName("data");
+            dataWriter.write(generator);
+            generator.writeEndObject();
+            // 写出缓冲中的内容并flush输出流
+            generator.close();
+        }
+        catch (Exception ex) {
+            logger.fatal(ex.getMessage());
+            FilterResponseRender.renderStreamError(response, ex);
+        }
+    }
 }
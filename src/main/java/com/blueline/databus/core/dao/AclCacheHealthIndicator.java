@@ -0,0 +1,30 @@
+package com.blueline.databus.core.dao;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.stereotype.Component;
+
+/**
+ * acl缓存的就绪状态,通过actuator的/health输出(aclCache);
+ * 启动预热结束前为OUT_OF_SERVICE,负载均衡可以据此在预热完成后才转发流量
+ * @see AclCacheService#warmUp()
+ */
+@Component
+public class AclCacheHealthIndicator extends AbstractHealthIndicator {
+
+    @Autowired
+    private AclCacheService aclCacheService;
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) throws Exception {
+        if (!aclCacheService.isWarmedUp()) {
+            builder.outOfService().withDetail("warmUp", "in progress");
+            return;
+        }
+        builder.up().withDetail("warmUp", "done").withDetail("entries", aclCacheService.getWarmUpCount());
+        if (aclCacheService.getWarmUpError() != null) {
+            builder.withDetail("error", aclCacheService.getWarmUpError());
+        }
+    }
+}
@@ -1,26 +1,109 @@
 package com.blueline.databus.core.dao;
 
 import com.blueline.databus.core.datatype.AclInfo;
-import com.blueline.databus.core.helper.TimeHelper;
+import com.blueline.databus.core.helper.LRUCache;
+import com.blueline.databus.core.helper.MinuteClock;
+import com.blueline.databus.core.helper.RedisScanHelper;
+import com.blueline.databus.core.helper.TimeWindow;
+import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Repository;
 import org.springframework.util.StringUtils;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * ACL缓存操作服务
+ * <p>
+ *     缓存分两级:redis是各服务节点共享的缓存;每个节点内存中还有一个容量有限、TTL很短的本地缓存(localCache),
+ *     命中本地缓存时不需要任何网络访问;
+ *     修改acl(授权/剥夺)时除了更新redis,还会通过redis的pub/sub通知所有节点清除本地缓存中对应的条目
+ * </p>
  */
 @Repository
 public class AclCacheService {
 
+    private static final Logger logger = Logger.getLogger(AclCacheService.class);
+
+    /**
+     * 通知各节点清除本地acl缓存的频道;
+     * 消息格式为 "{cacheKey}\n{appKey}";消息为"*"表示清空整个本地缓存
+     */
+    public static final String INVALIDATE_CHANNEL = "acl:invalidate";
+
+    private static final String ALL = "*";
+
     @Autowired
     private StringRedisTemplate redisTemplate4Acl;
 
+    @Autowired
+    private RedisMessageListenerContainer aclListenerContainer;
+
+    @Value("${default.aclLocalCacheSize:4096}")
+    private int aclLocalCacheSize;
+
+    @Value("${default.aclLocalCacheTTL:5}")
+    private long aclLocalCacheTTL;
+
+    @Value("${default.aclDeniedCacheTTL:2}")
+    private long aclDeniedCacheTTL;
+
+    @Value("${default.aclWarmUp:true}")
+    private boolean aclWarmUp;
+
+    @Value("${default.aclWarmUpBatchSize:1000}")
+    private int aclWarmUpBatchSize;
+
+    @Value("${default.aclDumpBatchSize:500}")
+    private int aclDumpBatchSize;
+
+    @Autowired
+    private SysDBDao sysDBDao;
+
+    private final CountDownLatch warmUpLatch = new CountDownLatch(1);
+
+    private volatile int warmUpCount;
+
+    private volatile String warmUpError;
+
+    /**
+     * 本地acl缓存,键为 "{method} {api} {appKey}",值为解析好的时间段(duration);
+     * 只缓存redis中存在的记录,TTL(秒)是漏掉失效通知时(如与redis断开期间)的保险
+     */
+    private LRUCache<String, TimeWindow> localCache;
+
+    /**
+     * 本地的拒绝记录缓存(负缓存),键同localCache;
+     * 缓存中和数据库中都没有acl记录的访问,在TTL(秒)内直接拒绝,不再查询数据库;
+     * 授权时通过失效通知清除
+     */
+    private LRUCache<String, Boolean> deniedCache;
+
+    @PostConstruct
+    public void init() {
+        localCache = new LRUCache<>(aclLocalCacheSize, aclLocalCacheTTL * 1000);
+        deniedCache = new LRUCache<>(aclLocalCacheSize, aclDeniedCacheTTL * 1000);
+        aclListenerContainer.addMessageListener(
+                (message, pattern) -> onInvalidate(message), new ChannelTopic(INVALIDATE_CHANNEL));
+    }
+
     /**
      * 检测redis缓存中的acl信息,判断某个client(通过其appkey)能否访问api;
      * <p>
@@ -28,6 +111,11 @@ public class AclCacheService {
      *     acl cache的内容是个Map：键值对为{clientName}:{duration};
      * </p>
      *
+     * <p>
+     *     先查本地缓存,没有再查redis,redis中查到的记录放入本地缓存;
+     *     最近被拒绝过(见{@link #markDenied(String, String, String)})的访问直接返回-1
+     * </p>
+     *
      * @param api api地址(是缓存键值)
      * @param method 访问方法(HTTP方法,如GET,POST等)
      * @param appKey client的appkey
@@ -44,13 +132,22 @@ public class AclCacheService {
             // cache key is in format like "GET /xxx/xxx", "POST /yyy/yyy", etc.
             String cacheKey = String.format("%s %s", method.toUpperCase(), api);
 
-            String duration = this.redisTemplate4Acl.opsForHash().get(cacheKey, appKey).toString();
-            if (StringUtils.isEmpty(duration)) {
-                return 0; // find no entry for this user/api
+            String localKey = localKey(cacheKey, appKey);
+
+            TimeWindow window = localCache.get(localKey);
+            if (window == null) {
+                if (deniedCache.get(localKey) != null) {
+                    return -1;
+                }
+                Object cached = this.redisTemplate4Acl.opsForHash().get(cacheKey, appKey);
+                if (cached == null || StringUtils.isEmpty(cached.toString())) {
+                    return 0; // find no entry for this user/api
+                }
+                window = TimeWindow.parse(cached.toString());
+                localCache.put(localKey, window);
             }
 
-            String nowDate = new SimpleDateFormat("HHmm").format(new Date());
-            if (TimeHelper.isInDuration(nowDate, duration)) {
+            if (window.contains(MinuteClock.SYSTEM.minuteOfDay())) {
                 return 1;
             }
             else {
@@ -66,23 +163,40 @@ public class AclCacheService {
     /**
      * 返回目前缓存中所有acl信息
      * @return AclInfo实例列表
+     * @see #dumpAllAcl(Consumer)
      */
     public List<AclInfo> dumpAllAcl() {
         List<AclInfo> result = new LinkedList<>();
-        this.redisTemplate4Acl.keys("*").forEach(cacheKey ->
-            this.redisTemplate4Acl.opsForHash().keys(cacheKey).forEach(
-                    appKey -> {
-                        String[] key_pair = cacheKey.split(" ");
-                        String method = key_pair[0];
-                        String api = key_pair[1];
-                        String duration = this.redisTemplate4Acl.opsForHash().get(cacheKey, appKey).toString();
-                        result.add(new AclInfo(api, method, appKey.toString(), duration));
-                    }
-            )
-        );
+        dumpAllAcl(result::add);
         return result;
     }
 
+    /**
+     * 逐条读取目前缓存中所有acl信息,交给consumer处理
+     * <p>
+     *     用SCAN分批遍历键(不使用会阻塞redis的KEYS *),每批键的HGETALL通过pipeline一次发出;
+     *     每批的键数由default.aclDumpBatchSize设置
+     * </p>
+     * @param consumer 处理每条acl信息
+     */
+    @SuppressWarnings("unchecked")
+    public void dumpAllAcl(Consumer<AclInfo> consumer) {
+        RedisScanHelper.scanKeys(this.redisTemplate4Acl, aclDumpBatchSize, cacheKeys -> {
+            List<Object> entries = this.redisTemplate4Acl.executePipelined((RedisCallback<Object>) connection -> {
+                cacheKeys.forEach(cacheKey -> connection.hGetAll(
+                        this.redisTemplate4Acl.getStringSerializer().serialize(cacheKey)));
+                return null;
+            });
+            for (int i = 0; i < cacheKeys.size(); i++) {
+                String[] key_pair = cacheKeys.get(i).split(" ");
+                String method = key_pair[0];
+                String api = key_pair[1];
+                ((Map<String, String>) entries.get(i)).forEach((appKey, duration) ->
+                        consumer.accept(new AclInfo(api, method, appKey, duration)));
+            }
+        });
+    }
+
     /**
      * 将acl信息列表加载到缓存中
      * @param aclList acl信息列表
@@ -90,18 +204,107 @@ public class AclCacheService {
      * @return 设置的数目
      */
     private int loadAcl(List<AclInfo> aclList, boolean cleanUnknown) {
-        int count = 0;
-
         if (cleanUnknown) {
             flushDB();
         }
 
-        for(AclInfo item : aclList) {
-            String cacheKey = String.format("%s %s", item.getMethod().toUpperCase(), item.getApi());
-            this.redisTemplate4Acl.opsForValue().set(cacheKey, item.toString());
-            count++;
+        for (int from = 0; from < aclList.size(); from += aclWarmUpBatchSize) {
+            putAll(aclList.subList(from, Math.min(from + aclWarmUpBatchSize, aclList.size())));
         }
-        return count;
+        return aclList.size();
+    }
+
+    /**
+     * 以pipeline方式将一批acl信息写入缓存(HSET "{method} {api}" {appKey} {duration}),
+     * 整批只需要一次网络往返
+     * @param aclList acl信息列表
+     */
+    private void putAll(List<AclInfo> aclList) {
+        RedisSerializer<String> serializer = this.redisTemplate4Acl.getStringSerializer();
+        this.redisTemplate4Acl.executePipelined((RedisCallback<Object>) connection -> {
+            for (AclInfo item : aclList) {
+                String cacheKey = String.format("%s %s", item.getMethod().toUpperCase(), item.getApi());
+                connection.hSet(serializer.serialize(cacheKey),
+                        serializer.serialize(item.getAppKey()),
+                        serializer.serialize(item.getDuration()));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 启动预热:逐条读取数据库中所有acl记录,分批用pipeline写入缓存;
+     * 在服务开始接收请求(ApplicationReadyEvent)时执行
+     * <p>
+     *     预热完成(包括失败)之前,AuthorityFilter会等待(见{@link #awaitWarmUp(long, TimeUnit)}),
+     *     health中的aclCache状态为OUT_OF_SERVICE,以免部署时大量请求同时穿透到数据库;
+     *     预热失败只记录日志,之后按原来的方式逐条从数据库载入
+     * </p>
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!aclWarmUp) {
+            warmUpLatch.countDown();
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        List<AclInfo> batch = new ArrayList<>(aclWarmUpBatchSize);
+        try {
+            sysDBDao.streamAllAclInfo(aclInfo -> {
+                batch.add(aclInfo);
+                if (batch.size() >= aclWarmUpBatchSize) {
+                    putAll(batch);
+                    warmUpCount += batch.size();
+                    batch.clear();
+                }
+            });
+            if (!batch.isEmpty()) {
+                putAll(batch);
+                warmUpCount += batch.size();
+            }
+            logger.info(String.format("acl cache warmed up: %d entries in %d ms",
+                    warmUpCount, System.currentTimeMillis() - start));
+        }
+        catch (Exception ex) {
+            warmUpError = ex.getMessage();
+            logger.error("acl cache warm-up failed: " + ex.getMessage());
+        }
+        finally {
+            warmUpLatch.countDown();
+        }
+    }
+
+    /**
+     * 等待启动预热完成
+     * @param timeout 最长等待时间
+     * @param unit 时间单位
+     * @return 预热是否已经结束
+     * @throws InterruptedException 等待被中断
+     */
+    public boolean awaitWarmUp(long timeout, TimeUnit unit) throws InterruptedException {
+        return warmUpLatch.await(timeout, unit);
+    }
+
+    /**
+     * @return 启动预热是否已经结束(成功或失败)
+     */
+    public boolean isWarmedUp() {
+        return warmUpLatch.getCount() == 0;
+    }
+
+    /**
+     * @return 启动预热写入缓存的acl记录数
+     */
+    public int getWarmUpCount() {
+        return warmUpCount;
+    }
+
+    /**
+     * @return 启动预热失败的原因;没有失败则返回null
+     */
+    public String getWarmUpError() {
+        return warmUpError;
     }
 
     /**
@@ -115,7 +318,7 @@ public class AclCacheService {
      *     <li>用户首次访问某条api时，如果数据库中存在acl记录，就load到缓存</li>
      * </ul>
      * <p>
-     *     目前使用<strong>第二条</strong>策略
+     *     两者都在使用:启动时由{@link #warmUp()}预热,之后未命中的记录按第二条策略载入
      * </p>
      *
      * @param aclList 要设置的acl信息列表
@@ -132,15 +335,17 @@ public class AclCacheService {
     public void loadOneAcl(AclInfo aclInfo) {
         String cacheKey = String.format("%s %s", aclInfo.getMethod().toUpperCase(), aclInfo.getApi());
         this.redisTemplate4Acl.opsForHash().put(cacheKey, aclInfo.getAppKey(), aclInfo.getDuration());
+        localCache.put(localKey(cacheKey, aclInfo.getAppKey()), TimeWindow.parse(aclInfo.getDuration()));
     }
 
     /**
-     * 清除缓存中一条acl记录
+     * 清除缓存中一条acl记录,并通知所有节点清除本地缓存中的该记录
      * @param cacheKey cache key
      * @param appKey 客户端app key
      */
     public void removeOneAcl(String cacheKey, String appKey) {
         this.redisTemplate4Acl.opsForHash().delete(cacheKey, appKey);
+        invalidate(cacheKey, appKey);
     }
 
     /**
@@ -153,5 +358,59 @@ public class AclCacheService {
         catch (Exception ex) {
             System.out.println(ex.getMessage());
         }
+        localCache.clear();
+        deniedCache.clear();
+        publish(ALL);
+    }
+
+    /**
+     * 记录一次被拒绝的访问(缓存和数据库中都没有acl记录),TTL内相同的访问直接拒绝
+     * @param api api地址
+     * @param method 访问方法
+     * @param appKey client的appkey
+     */
+    public void markDenied(String api, String method, String appKey) {
+        deniedCache.put(localKey(String.format("%s %s", method.toUpperCase(), api), appKey), Boolean.TRUE);
+    }
+
+    /**
+     * 清除本节点本地缓存中的一条acl记录(包括拒绝记录),并通知其它节点
+     * @param cacheKey cache key
+     * @param appKey 客户端app key
+     */
+    public void invalidate(String cacheKey, String appKey) {
+        localCache.remove(localKey(cacheKey, appKey));
+        deniedCache.remove(localKey(cacheKey, appKey));
+        publish(cacheKey + "\n" + appKey);
+    }
+
+    private void publish(String message) {
+        try {
+            this.redisTemplate4Acl.convertAndSend(INVALIDATE_CHANNEL, message);
+        }
+        catch (Exception ex) {
+            // 通知失败时,其它节点的本地缓存最多在TTL后过期
+            logger.error("failed to publish acl invalidation: " + ex.getMessage());
+        }
+    }
+
+    private void onInvalidate(Message message) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (ALL.equals(body)) {
+            localCache.clear();
+            deniedCache.clear();
+            return;
+        }
+        int index = body.indexOf('\n');
+        if (index < 0) {
+            return;
+        }
+        String localKey = localKey(body.substring(0, index), body.substring(index + 1));
+        localCache.remove(localKey);
+        deniedCache.remove(localKey);
+    }
+
+    private static String localKey(String cacheKey, String appKey) {
+        return cacheKey + " " + appKey;
     }
 }
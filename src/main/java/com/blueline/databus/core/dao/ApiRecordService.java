@@ -1,45 +1,72 @@
 package com.blueline.databus.core.dao;
 
+import com.blueline.databus.core.helper.RedisScanHelper;
+import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Repository;
 
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 
 /**
  * 提供API访问统计功能的缓存服务
+ * <p>
+ *     访问计数先累加在本地(每个api键值一个LongAdder,多线程并发累加时竞争很小),
+ *     再由后台定时任务每隔apiRecordFlushInterval毫秒把累加的增量用一批pipeline的INCRBY写入redis;
+ *     请求线程不再访问redis,redis收到的命令数也只与api的数目有关,与请求数无关
+ * </p>
  */
 @Repository
 public class ApiRecordService {
 
+    private static final Logger logger = Logger.getLogger(ApiRecordService.class);
+
+    private static final int SCAN_BATCH_SIZE = 1000;
+
     @Autowired
     private StringRedisTemplate redisTemplate4Record;
 
     /**
-     * 给某个api访问计数加1
+     * 还没有写入redis的访问计数增量,键为api访问键值;
+     * 增量写入redis后条目被删除(api路径中可能带有参数值,不同的键值没有上限),下次访问时重新创建
+     */
+    private final ConcurrentHashMap<String, LongAdder> pending = new ConcurrentHashMap<>();
+
+    /**
+     * 上次刷新时从pending中删除的条目;
+     * 删除前已经取得该LongAdder的请求线程可能在删除后才累加,因此下次刷新时再读取一次增量,之后丢弃
+     */
+    private Map<String, LongAdder> retired = new HashMap<>();
+
+    /**
+     * 给某个api访问计数加1(只在本地累加,见{@link #flush()})
      * @param apiKey HTTP方法 + api路径(作为键值),如"GET /xxx/xxx"
      */
     public void recordAPICall(String apiKey) {
-        try {
-            this.redisTemplate4Record.opsForValue().increment(apiKey, 1);
-        }
-        catch (Exception ex) {
-            // eat it
-        }
+        pending.computeIfAbsent(apiKey, key -> new LongAdder()).increment();
     }
 
     /**
-     * 读取某api的访问计数
+     * 读取某api的访问计数,包括还没有写入redis的部分
      * @param apiKey api访问键值
      * @return 访问计数
      */
     public int getAPICallCount(String apiKey) {
         try {
-            return Integer.valueOf(this.redisTemplate4Record.opsForValue().get(apiKey));
+            String stored = this.redisTemplate4Record.opsForValue().get(apiKey);
+            LongAdder delta = pending.get(apiKey);
+            return (stored == null ? 0 : Integer.valueOf(stored)) + (delta == null ? 0 : delta.intValue());
         }
         catch (Exception ex) {
             // eat it
@@ -48,15 +75,67 @@ public class ApiRecordService {
     }
 
     /**
-     * 返回目前缓存中所有acl信息
-     * @return AclInfo实例列表
+     * 把本地累加的访问计数增量写入redis,所有INCRBY在一次pipeline中发出;
+     * 写入成功后删除已经写入的条目,写入失败时增量加回本地,下一次再写
+     */
+    @Scheduled(fixedDelayString = "${default.apiRecordFlushInterval:1000}")
+    @PreDestroy
+    public synchronized void flush() {
+        Map<String, Long> deltas = new HashMap<>();
+        Map<String, LongAdder> drained = new HashMap<>();
+        pending.forEach((apiKey, adder) -> {
+            drain(apiKey, adder, deltas);
+            drained.put(apiKey, adder);
+        });
+        retired.forEach((apiKey, adder) -> drain(apiKey, adder, deltas));
+        retired = new HashMap<>();
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        try {
+            RedisSerializer<String> serializer = this.redisTemplate4Record.getStringSerializer();
+            this.redisTemplate4Record.executePipelined((RedisCallback<Object>) connection -> {
+                deltas.forEach((apiKey, delta) -> connection.incrBy(serializer.serialize(apiKey), delta));
+                return null;
+            });
+        }
+        catch (Exception ex) {
+            deltas.forEach((apiKey, delta) -> pending.computeIfAbsent(apiKey, key -> new LongAdder()).add(delta));
+            logger.error("failed to flush api call records: " + ex.getMessage());
+            return;
+        }
+        drained.forEach((apiKey, adder) -> {
+            if (pending.remove(apiKey, adder)) {
+                retired.put(apiKey, adder);
+            }
+        });
+    }
+
+    /**
+     * 取出一个LongAdder中的增量
+     * @param apiKey api访问键值
+     * @param adder 累加的增量
+     * @param deltas 取出的增量累加到这里
+     */
+    private void drain(String apiKey, LongAdder adder, Map<String, Long> deltas) {
+        // 不使用sumThenReset:它与并发的累加之间不是原子的,可能丢失计数
+        long delta = adder.sum();
+        if (delta != 0) {
+            adder.add(-delta);
+            deltas.merge(apiKey, delta, Long::sum);
+        }
+    }
+
+    /**
+     * 返回目前缓存中所有api访问计数
+     * @return api访问键值 => 访问计数
+     * @see #dumpAllCallRecord(BiConsumer)
      */
     public Map<String, Integer> dumpAllCallRecord() {
         Map<String, Integer> result = new HashMap<>();
         try {
-            this.redisTemplate4Record.keys("*").forEach(key ->
-                result.put(key, Integer.valueOf(this.redisTemplate4Record.opsForValue().get(key)))
-            );
+            dumpAllCallRecord(result::put);
         }
         catch (Exception ex) {
             // eat it
@@ -65,10 +144,32 @@ public class ApiRecordService {
     }
 
     /**
-     * 清除本缓存所有数据
+     * 逐条读取目前缓存中所有api访问计数,交给consumer处理
+     * <p>
+     *     用SCAN分批遍历键(不使用会阻塞redis的KEYS *),每批键的值用一次MGET取回;
+     *     只包括已经写入redis的计数(最多落后apiRecordFlushInterval毫秒)
+     * </p>
+     * @param consumer 处理每条访问计数(api访问键值, 访问计数)
+     */
+    public void dumpAllCallRecord(BiConsumer<String, Integer> consumer) {
+        RedisScanHelper.scanKeys(this.redisTemplate4Record, SCAN_BATCH_SIZE, keys -> {
+            List<String> counts = this.redisTemplate4Record.opsForValue().multiGet(keys);
+            for (int i = 0; i < keys.size(); i++) {
+                // 遍历期间被删除的键值为null
+                if (counts.get(i) != null) {
+                    consumer.accept(keys.get(i), Integer.valueOf(counts.get(i)));
+                }
+            }
+        });
+    }
+
+    /**
+     * 清除本缓存所有数据(包括还没有写入redis的计数)
      * 主要用于测试目的
      */
-    public void flushDB() {
+    public synchronized void flushDB() {
+        pending.clear();
+        retired.clear();
         this.redisTemplate4Record.getConnectionFactory().getConnection().flushDb();
     }
 }
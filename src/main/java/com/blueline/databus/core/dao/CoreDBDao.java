@@ -1,28 +1,113 @@
 package com.blueline.databus.core.dao;
 
+import com.blueline.databus.core.datasource.ShardRouter;
 import com.blueline.databus.core.datatype.ColumnInfo;
+import com.blueline.databus.core.datatype.DataPage;
+import com.blueline.databus.core.datatype.ResultType;
 import com.blueline.databus.core.exception.InternalException;
+import com.blueline.databus.core.helper.BulkLoadInputStream;
+import com.blueline.databus.core.helper.BulkLoadReader;
+import com.blueline.databus.core.helper.JsonRowIterator;
+import com.blueline.databus.core.helper.LRUCache;
+import com.blueline.databus.core.helper.PageCursorHelper;
+import com.blueline.databus.core.helper.PreparedSQL;
+import com.blueline.databus.core.helper.RequestTimer;
 import com.blueline.databus.core.helper.SQLParser;
+import com.blueline.databus.core.helper.SQLTemplate;
+import com.blueline.databus.core.helper.SQLTemplateCache;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.support.JdbcUtils;
 import org.springframework.stereotype.Repository;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
 import java.util.*;
 
 @Repository
 public class CoreDBDao {
     private static final Logger logger = Logger.getLogger(CoreDBDao.class);
 
+    /**
+     * 按dbName找到所在分片的JdbcTemplate;
+     * 只读查询(queryData/streamData/getColumns)使用分片的只读副本(见CoreDataSourceConfig)
+     */
     @Autowired
-    private JdbcTemplate templateCore;
+    private ShardRouter shardRouter;
 
     @Autowired
     private SQLParser sqlParser;
 
+    @Autowired
+    private SQLTemplateCache sqlTemplateCache;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ObjectReader mapReader;
+
+    @Autowired
+    private ObjectWriter rowListWriter;
+
+    @Value("${default.insertBatchSize:1000}")
+    private int insertBatchSize;
+
+    @Value("${default.columnCacheSize:1024}")
+    private int columnCacheSize;
+
+    @Value("${default.columnCacheTTL:300}")
+    private long columnCacheTTL;
+
+    @Value("${db.replica.stickyWindow:5000}")
+    private long stickyWindow;
+
+    @Value("${db.replica.stickyClients:4096}")
+    private int stickyClients;
+
+    /**
+     * 各表的列信息缓存,键为<code>`db`.`table`</code>;
+     * 建表、删表时清除对应的条目,TTL(秒)只是防止在别处修改了表结构的保险
+     */
+    private LRUCache<String, List<ColumnInfo>> columnCache;
+
+    /**
+     * 最近写过数据的客户端(appkey);条目的TTL即db.replica.stickyWindow(毫秒),
+     * 在此期间该客户端的查询仍使用主库,以免读到副本上尚未同步的旧数据
+     */
+    private LRUCache<String, Boolean> recentWriters;
+
+    @PostConstruct
+    public void init() {
+        columnCache = new LRUCache<>(columnCacheSize, columnCacheTTL * 1000);
+        recentWriters = new LRUCache<>(stickyClients, stickyWindow);
+    }
+
     /**
      * 创建表
      * @param dbName 数据库名
@@ -37,11 +122,15 @@ public class CoreDBDao {
             sql = sqlParser.parseCreateTableSQL(dbName, tableName, columns);
             logger.debug("createTable:拼凑的SQL语句为: " + sql);
             System.out.println("sql => " + sql);
-            this.templateCore.execute(sql);
+            shardRouter.forDb(dbName).getTemplate().execute(sql);
         }
         catch (Exception ex) {
             throw new InternalException("sql:" + sql + "; " + ex.getMessage());
         }
+        finally {
+            evictColumns(dbName, tableName);
+            markWritten();
+        }
     }
 
     /**
@@ -57,11 +146,15 @@ public class CoreDBDao {
         try {
             sql = sqlParser.parseCreateTableSQL(dbName, tableName, columns, true);
             logger.debug("createTable:拼凑的SQL语句为: " + sql);
-            this.templateCore.execute(sql);
+            shardRouter.forDb(dbName).getTemplate().execute(sql);
         }
         catch (Exception ex) {
             throw new InternalException("sql:" + sql + "; " + ex.getMessage());
         }
+        finally {
+            evictColumns(dbName, tableName);
+            markWritten();
+        }
     }
 
     /**
@@ -73,7 +166,13 @@ public class CoreDBDao {
     public int dropTable(String dbName, String tableName) {
         String sql = sqlParser.parseDropTableSQL(dbName, tableName);
         logger.debug("dropTable:拼凑的SQL语句为: " + sql);
-        return this.templateCore.update(sql);
+        try {
+            return shardRouter.forDb(dbName).getTemplate().update(sql);
+        }
+        finally {
+            evictColumns(dbName, tableName);
+            markWritten();
+        }
     }
 
     /**
@@ -85,7 +184,13 @@ public class CoreDBDao {
     public int dropTableIfExist(String dbName, String tableName) {
         String sql = sqlParser.parseDropTableSQL(dbName, tableName, true);
         logger.debug("dropTable:拼凑的SQL语句为: " + sql);
-        return this.templateCore.update(sql);
+        try {
+            return shardRouter.forDb(dbName).getTemplate().update(sql);
+        }
+        finally {
+            evictColumns(dbName, tableName);
+            markWritten();
+        }
     }
 
     /**
@@ -100,12 +205,37 @@ public class CoreDBDao {
      */
     public String queryData(String dbName, String tableName, Map<String, String[]> parameterMap)
             throws InternalException, JsonProcessingException {
-        // 拼凑完整的SQL语句;目前SELECT只支持获取所有字段
-        String clauses = sqlParser.parseSQL4Select(parameterMap);
-        String sql = String.format("SELECT * FROM `%s`.`%s` %s", dbName, tableName, clauses);
+        return queryPage(dbName, tableName, parameterMap).getData();
+    }
+
+    /**
+     * 从总线数据库的表中读取一页数据,同时返回取下一页使用的游标
+     * <p>
+     *     取满_take行时,以最后一行的排序列(_by)的值生成游标;
+     *     不满_take行说明已经没有更多数据,游标为空字符串
+     * </p>
+     * @param dbName 数据库名
+     * @param tableName 表名
+     * @param parameterMap 请求的参数键值对列表
+     * @return 数据的JSON字符串和下一页的游标
+     * @throws InternalException 内部异常
+     * @throws JsonProcessingException Json处理异常
+     * @see PageCursorHelper
+     */
+    public DataPage queryPage(String dbName, String tableName, Map<String, String[]> parameterMap)
+            throws InternalException, JsonProcessingException {
+        long start = System.nanoTime();
+        // 取同一形状的请求缓存的SQL模板;目前SELECT只支持获取所有字段
+        SQLTemplate template = sqlTemplateCache.getSelect(dbName, tableName, parameterMap);
+        String sql = template.getSql();
+        Object[] args = template.bindArgs(parameterMap);
         logger.debug("queryData:拼凑的SQL语句为: " + sql);
+        RequestTimer.record(RequestTimer.Stage.SQL_BUILD, start);
 
-        List<Map<String, Object>> result = this.templateCore.queryForList(sql);
+        start = System.nanoTime();
+        String nextCursor = "";
+        List<Map<String, Object>> result = readTemplate(dbName).queryForList(sql, args);
+        RequestTimer.record(RequestTimer.Stage.DB_EXECUTE, start);
         if (result.size() < 1) {
             // build bare json structure and return
             List<ColumnInfo> cols = getColumns(dbName, tableName);
@@ -114,9 +244,100 @@ public class CoreDBDao {
             cols.forEach(col -> innerMap.put(col.getName(), "") );
             result.add(innerMap);
         }
+        else if (result.size() >= sqlParser.parseTakes(parameterMap)) {
+            Map<String, Object> lastRow = result.get(result.size() - 1);
+            String sortColumn = sqlParser.parseSortColumn(parameterMap);
+            nextCursor = nextCursor(sortColumn, lastRow.get(sortColumn), lastRow.get(SQLParser.ID_COLUMN));
+        }
+
+        start = System.nanoTime();
+        String data = rowListWriter.writeValueAsString(result);
+        RequestTimer.record(RequestTimer.Stage.SERIALIZATION, start);
+        return new DataPage(data, nextCursor);
+    }
+
+    /**
+     * 从总线数据库的表中读取数据,并以流的方式直接写入输出流;
+     * 查询参数与queryData相同
+     * <p>
+     *     结果集以只读、只进的游标逐行读取(MySQL驱动的流式结果集),
+     *     每读出一行即通过JsonGenerator写出,内存中不保留整个结果集;
+     *     输出格式为:
+     * </p>
+     * <pre>
+     *     <code>{"resultType":"OK","data":[{...},{...},...],"ext":"{下一页的游标}"}</code>
+     * </pre>
+     * <p>
+     *     与queryPage一样,只有取满_take行时才输出ext(游标);
+     *     查询结果为空时,与queryData一样返回只包含列名的空结构
+     * </p>
+     * <p>
+     *     只有成功读完结果集时才写出json的结尾并flush;出错时不补全json,也不关闭输出流,
+     *     还在JsonGenerator缓冲中的内容被丢弃:输出流还没有写出数据时(如SQL错误),调用者仍可以返回错误信息,
+     *     否则调用者应该中断响应(见FilterResponseRender#renderStreamError)
+     * </p>
+     * @param dbName 数据库名
+     * @param tableName 表名
+     * @param parameterMap 请求的参数键值对列表
+     * @param out 输出流(通常是servlet response的输出流)
+     * @return 写出的行数
+     * @throws InternalException 内部异常
+     * @throws IOException 写出数据时的异常
+     * @throws DataAccessException 查询或读取结果集时的异常
+     */
+    public int streamData(String dbName, String tableName, Map<String, String[]> parameterMap, OutputStream out)
+            throws InternalException, IOException {
+        long start = System.nanoTime();
+        SQLTemplate template = sqlTemplateCache.getSelect(dbName, tableName, parameterMap);
+        String sql = template.getSql();
+        Object[] args = template.bindArgs(parameterMap);
+        logger.debug("streamData:拼凑的SQL语句为: " + sql);
+        RequestTimer.record(RequestTimer.Stage.SQL_BUILD, start);
 
-        ObjectMapper om = new ObjectMapper();
-        return om.writeValueAsString(result);
+        // 出错时不能由close补全json或关闭输出流,见方法说明
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        JsonRowWriter rowWriter = new JsonRowWriter(generator, sqlParser.parseSortColumn(parameterMap));
+
+        start = System.nanoTime();
+        try {
+            readTemplate(dbName).query(
+                    con -> {
+                        PreparedStatement ps = con.prepareStatement(
+                                sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                        // MySQL驱动只有在fetchSize为Integer.MIN_VALUE时才逐行读取,否则会缓存整个结果集
+                        ps.setFetchSize(Integer.MIN_VALUE);
+                        new ArgumentPreparedStatementSetter(args).setValues(ps);
+                        return ps;
+                    },
+                    rowWriter);
+
+            if (rowWriter.getRowCount() < 1) {
+                // build bare json structure like queryData does
+                List<ColumnInfo> cols = getColumns(dbName, tableName);
+                rowWriter.writeHead();
+                generator.writeStartObject();
+                for (ColumnInfo col : cols) {
+                    generator.writeStringField(col.getName(), "");
+                }
+                generator.writeEndObject();
+            }
+
+            generator.writeEndArray();
+            if (rowWriter.getRowCount() >= sqlParser.parseTakes(parameterMap)) {
+                generator.writeStringField("ext", nextCursor(sqlParser.parseSortColumn(parameterMap),
+                        rowWriter.getLastSortValue(), rowWriter.getLastId()));
+            }
+            generator.writeEndObject();
+            // 写出缓冲中的内容并flush输出流,不关闭输出流
+            generator.close();
+        }
+        finally {
+            // 流式输出时,逐行读取和写出交替进行,都计入DB_EXECUTE
+            RequestTimer.record(RequestTimer.Stage.DB_EXECUTE, start);
+        }
+        return rowWriter.getRowCount();
     }
 
     /**
@@ -129,11 +350,253 @@ public class CoreDBDao {
      */
     public int insertData(String dbName, String tableName, String jsonBody)
             throws InternalException {
-        final List<ColumnInfo> columnsInfo = getColumns(dbName, tableName);
-        String sql_format = sqlParser.parseSQL4Insert(jsonBody, columnsInfo);
-        String sql = String.format(sql_format, dbName, tableName);
-        logger.debug("insertData:拼凑的SQL语句为: " + sql);
-        return this.templateCore.update(sql);
+        return insertData(dbName, tableName, jsonBody, false);
+    }
+
+    /**
+     * 插入数据
+     * @param dbName 数据库名
+     * @param tableName 数据表名
+     * @param jsonBody 请求body中的json
+     * @param atomic 是否所有批次在同一个事务中执行
+     * @return 影响的行数
+     * @throws InternalException 内部异常信息
+     * @see #insertRows(String, String, Iterator, boolean)
+     */
+    public int insertData(String dbName, String tableName, String jsonBody, boolean atomic)
+            throws InternalException {
+        List<Map<String, Object>> rows = sqlParser.parseJsonRows(jsonBody);
+        return Arrays.stream(insertRows(dbName, tableName, rows.iterator(), atomic)).sum();
+    }
+
+    /**
+     * 插入数据(流式读取)
+     * <p>
+     *     从输入流中逐个读取json数组中的对象并分批插入,不需要把整个请求体读入内存;
+     *     内存占用只与批次大小有关,与数据总量无关
+     * </p>
+     * @param dbName 数据库名
+     * @param tableName 数据表名
+     * @param in json数组的输入流(通常是servlet request的输入流)
+     * @param atomic 是否所有批次在同一个事务中执行
+     * @return 影响的行数
+     * @throws InternalException 内部异常信息
+     * @throws IOException 读取输入流或解析json出错
+     * @see JsonRowIterator
+     */
+    public int insertData(String dbName, String tableName, InputStream in, boolean atomic)
+            throws InternalException, IOException {
+        try (JsonRowIterator rows = new JsonRowIterator(mapReader, in)) {
+            return Arrays.stream(insertRows(dbName, tableName, rows, atomic)).sum();
+        }
+        catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * 批量插入数据
+     * <p>
+     *     每行数据绑定到PreparedStatement上并addBatch,每insertBatchSize行执行一次executeBatch(一个批次);
+     *     连接上开启了rewriteBatchedStatements,驱动仍然会以多值INSERT的形式发送一个批次;
+     *     这样不会拼出超过max_allowed_packet的巨大SQL,内存中也只保留一个批次的数据
+     * </p>
+     * <p>
+     *     缺少的列使用DEFAULT关键字,相邻的行缺少的列不同时,当前批次提前结束,换用新的SQL模板;
+     *     空行(空map)被忽略
+     * </p>
+     * <p>
+     *     atomic为true时,所有批次在同一个事务中执行,任何一个批次出错都会回滚全部;
+     *     否则每个批次单独提交,出错时之前的批次已经写入
+     * </p>
+     * @param dbName 数据库名
+     * @param tableName 数据表名
+     * @param rows 行数据(每个map是一行)
+     * @param atomic 是否所有批次在同一个事务中执行
+     * @return 每个批次插入的行数
+     * @throws InternalException 内部异常信息
+     */
+    public int[] insertRows(String dbName, String tableName, Iterator<Map<String, Object>> rows, boolean atomic)
+            throws InternalException {
+        final List<String> columnNames = sqlParser.parseInsertColumns(getColumns(dbName, tableName));
+        ConnectionCallback<int[]> action = con -> executeInsertBatches(con, dbName, tableName, columnNames, rows);
+        ShardRouter.Shard shard = shardRouter.forDb(dbName);
+        // 解析行数据、构建SQL与执行批次交替进行,都计入DB_EXECUTE
+        long start = System.nanoTime();
+        try {
+            if (atomic) {
+                return shard.getTxTemplate().execute(status -> shard.getTemplate().execute(action));
+            }
+            return shard.getTemplate().execute(action);
+        }
+        finally {
+            RequestTimer.record(RequestTimer.Stage.DB_EXECUTE, start);
+            markWritten();
+        }
+    }
+
+    private int[] executeInsertBatches(Connection con, String dbName, String tableName,
+                                       List<String> columnNames, Iterator<Map<String, Object>> rows)
+            throws SQLException {
+        List<Integer> chunkCounts = new ArrayList<>();
+        PreparedStatement ps = null;
+        BitSet currentDefaults = null;
+        int pending = 0;
+        try {
+            while (rows.hasNext()) {
+                Map<String, Object> row = rows.next();
+                if (row == null || row.size() < 1) {
+                    continue;
+                }
+
+                BitSet defaults = sqlParser.parseDefaults(row, columnNames);
+                if (!defaults.equals(currentDefaults)) {
+                    if (pending > 0) {
+                        chunkCounts.add(sumBatchCounts(ps.executeBatch()));
+                        pending = 0;
+                    }
+                    JdbcUtils.closeStatement(ps);
+                    String sql = String.format(sqlParser.parseSQL4InsertRow(columnNames, defaults),
+                            PreparedSQL.escape(dbName), PreparedSQL.escape(tableName));
+                    logger.debug("insertRows:拼凑的SQL语句为: " + sql);
+                    ps = con.prepareStatement(sql);
+                    currentDefaults = defaults;
+                }
+
+                int index = 1;
+                for (int i = 0; i < columnNames.size(); i++) {
+                    if (!defaults.get(i)) {
+                        ps.setObject(index++, sqlParser.parseInsertValue(row.get(columnNames.get(i))));
+                    }
+                }
+                ps.addBatch();
+
+                if (++pending >= insertBatchSize) {
+                    chunkCounts.add(sumBatchCounts(ps.executeBatch()));
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                chunkCounts.add(sumBatchCounts(ps.executeBatch()));
+            }
+        }
+        finally {
+            JdbcUtils.closeStatement(ps);
+        }
+
+        return chunkCounts.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * 统计一个批次插入的行数;
+     * 开启rewriteBatchedStatements时驱动对每条语句返回SUCCESS_NO_INFO,视为插入了一行
+     */
+    private int sumBatchCounts(int[] counts) {
+        int sum = 0;
+        for (int count : counts) {
+            sum += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+        }
+        return sum;
+    }
+
+    /**
+     * 批量导入数据
+     * <p>
+     *     数据(ndjson或csv)在被驱动读取时逐行检查并转换,
+     *     通过驱动的setLocalInfileInputStream直接以LOAD DATA LOCAL INFILE发送给MySQL,不需要临时文件;
+     *     要求MySQL服务端开启local_infile
+     * </p>
+     * <p>
+     *     整个导入在一个事务中执行,以下情况全部回滚:
+     *     <ul>
+     *         <li>数据检查失败(驱动已经发送的部分也会回滚)</li>
+     *         <li>MySQL对LOAD DATA LOCAL总是按IGNORE处理,即使在严格模式下,
+     *         类型转换失败、截断、列数不符等错误也只产生警告(值被改为0、空串或截断后仍然写入);
+     *         执行后检查语句的警告,有这类警告时回滚,并以前几条警告作为错误信息</li>
+     *     </ul>
+     *     主键或唯一键重复(警告1062)的行被忽略,不视为错误
+     * </p>
+     * @param dbName 数据库名
+     * @param tableName 数据表名
+     * @param reader 数据读取器
+     * @return 导入的行数
+     * @throws InternalException 数据检查失败或导入产生警告等内部异常信息
+     * @throws IOException 读取数据出错
+     * @see BulkLoadInputStream
+     */
+    public int bulkLoad(String dbName, String tableName, BulkLoadReader reader)
+            throws InternalException, IOException {
+        BulkLoadInputStream in = new BulkLoadInputStream(reader, getColumns(dbName, tableName));
+        String sql = String.format(sqlParser.parseSQL4LoadData(in.getColumnNames()),
+                PreparedSQL.escape(dbName), PreparedSQL.escape(tableName));
+        logger.debug("bulkLoad:拼凑的SQL语句为: " + sql);
+
+        ShardRouter.Shard shard = shardRouter.forDb(dbName);
+        String[] rejected = new String[1];
+        try {
+            int count = shard.getTxTemplate().execute(status -> shard.getTemplate().execute((ConnectionCallback<Integer>) con -> {
+                Statement stmt = con.createStatement();
+                try {
+                    // 驱动会读完并关闭这个输入流
+                    stmt.unwrap(com.mysql.jdbc.Statement.class).setLocalInfileInputStream(in);
+                    int loaded = stmt.executeUpdate(sql);
+                    rejected[0] = describeWarnings(stmt.getWarnings());
+                    if (rejected[0] != null) {
+                        status.setRollbackOnly();
+                    }
+                    return loaded;
+                }
+                finally {
+                    JdbcUtils.closeStatement(stmt);
+                }
+            }));
+            if (rejected[0] != null) {
+                throw new InternalException("bulk load rolled back: " + rejected[0]);
+            }
+            return count;
+        }
+        catch (DataAccessException ex) {
+            if (in.getError() != null) {
+                throw new InternalException(in.getError());
+            }
+            throw ex;
+        }
+        finally {
+            markWritten();
+        }
+    }
+
+    /**
+     * 批量导入产生的警告中,最多取这么多条作为错误信息
+     */
+    private static final int MAX_REPORTED_WARNINGS = 3;
+
+    /**
+     * MySQL的警告码:主键或唯一键重复
+     */
+    private static final int ER_DUP_ENTRY = 1062;
+
+    /**
+     * 汇总LOAD DATA产生的警告(忽略主键重复)
+     * @param warning 语句的第一条警告
+     * @return 前几条警告的内容;没有需要报告的警告则返回null
+     */
+    private String describeWarnings(SQLWarning warning) {
+        List<String> messages = new ArrayList<>();
+        int count = 0;
+        for (; warning != null; warning = warning.getNextWarning()) {
+            if (warning.getErrorCode() == ER_DUP_ENTRY) {
+                continue;
+            }
+            if (count++ < MAX_REPORTED_WARNINGS) {
+                messages.add(warning.getMessage());
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        return String.join("; ", messages) + (count > MAX_REPORTED_WARNINGS
+                ? String.format(" (%d warnings in total)", count) : "");
     }
 
     /**
@@ -148,11 +611,20 @@ public class CoreDBDao {
      */
     public int updateData(String dbName, String tableName, String colName, String colValue, String jsonBody)
             throws InternalException {
-        String sql_format = sqlParser.parseSQL4Update(colName, colValue, jsonBody);
-        String sql = String.format(sql_format, dbName, tableName);
-        System.out.println(sql);
+        long start = System.nanoTime();
+        PreparedSQL sql_format = sqlParser.parseSQL4Update(colName, colValue, jsonBody);
+        String sql = String.format(sql_format.getSql(), PreparedSQL.escape(dbName), PreparedSQL.escape(tableName));
         logger.debug("updateData:拼凑的SQL语句为: " + sql);
-        return this.templateCore.update(sql);
+        RequestTimer.record(RequestTimer.Stage.SQL_BUILD, start);
+
+        start = System.nanoTime();
+        try {
+            return shardRouter.forDb(dbName).getTemplate().update(sql, sql_format.getArgs());
+        }
+        finally {
+            RequestTimer.record(RequestTimer.Stage.DB_EXECUTE, start);
+            markWritten();
+        }
     }
 
     /**
@@ -165,23 +637,64 @@ public class CoreDBDao {
      */
     public int deleteData(String dbName, String tableName, Map<String, String[]> parameterMap)
             throws InternalException {
-        String clauses = sqlParser.parseSQL4Delete(parameterMap);
-        String sql = String.format("DELETE FROM `%s`.`%s` %s", dbName, tableName, clauses);
+        long start = System.nanoTime();
+        PreparedSQL clauses = sqlParser.parseSQL4Delete(parameterMap);
+        String sql = String.format("DELETE FROM `%s`.`%s` %s",
+                PreparedSQL.escape(dbName), PreparedSQL.escape(tableName), clauses.getSql());
         logger.debug("deleteData:拼凑的SQL语句为: " + sql);
-        return this.templateCore.update(sql);
+        RequestTimer.record(RequestTimer.Stage.SQL_BUILD, start);
+
+        start = System.nanoTime();
+        try {
+            return shardRouter.forDb(dbName).getTemplate().update(sql, clauses.getArgs());
+        }
+        finally {
+            RequestTimer.record(RequestTimer.Stage.DB_EXECUTE, start);
+            markWritten();
+        }
     }
 
     /**
      * 获取某表的所有列的名称、类型、位置
      * <strong>MySQL的实现</strong>
-     * dao内部使用,不抛出异常
+     * <p>
+     *     结果按表缓存(见columnCache),只有第一次或缓存过期后才查询information_schema;
+     *     返回的列表是只读的
+     * </p>
+     * <p>
+     *     查询使用只读副本;副本上查不到时(如刚建的表还没有同步过去)再查一次主库
+     * </p>
      * @param dbName 数据库名
      * @param tableName 表名
      * @return 列信息对象的列表
      */
     public List<ColumnInfo> getColumns(String dbName, String tableName)
             throws InternalException {
-        List<ColumnInfo> result = this.templateCore.query(
+        String key = columnCacheKey(dbName, tableName);
+        List<ColumnInfo> cached = columnCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        JdbcTemplate template = readTemplate(dbName);
+        JdbcTemplate primary = shardRouter.forDb(dbName).getTemplate();
+        List<ColumnInfo> result = queryColumns(template, dbName, tableName);
+        if ((result == null || result.isEmpty()) && template != primary) {
+            result = queryColumns(primary, dbName, tableName);
+        }
+
+        if (result == null || result.size() < 1) {
+            throw new InternalException(
+                String.format("Get column info from `%s`.`%s` failed", dbName, tableName));
+        }
+
+        result = Collections.unmodifiableList(result);
+        columnCache.put(key, result);
+        return result;
+    }
+
+    private List<ColumnInfo> queryColumns(JdbcTemplate template, String dbName, String tableName) {
+        return template.query(
                 "SELECT COLUMN_NAME, DATA_TYPE, CHARACTER_MAXIMUM_LENGTH, ORDINAL_POSITION, COLUMN_COMMENT, IS_NULLABLE, COLUMN_TYPE, COLUMN_KEY " +
                 "FROM information_schema.COLUMNS " +
                 "WHERE table_schema = ? AND table_name = ?",
@@ -197,11 +710,146 @@ public class CoreDBDao {
                         rs.getString("COLUMN_KEY").toUpperCase()
                 )
         );
+    }
 
-        if (result == null || result.size() < 1) {
-            throw new InternalException(
-                String.format("Get column info from `%s`.`%s` failed", dbName, tableName));
+    /**
+     * 清除某表的列信息缓存;表结构改变(建表、删表)后调用
+     * @param dbName 数据库名
+     * @param tableName 表名
+     */
+    public void evictColumns(String dbName, String tableName) {
+        columnCache.remove(columnCacheKey(dbName, tableName));
+    }
+
+    /**
+     * @param dbName 数据库名
+     * @return 当前客户端在db.replica.stickyWindow内写过数据时使用所在分片的主库,否则使用只读副本
+     */
+    private JdbcTemplate readTemplate(String dbName) {
+        ShardRouter.Shard shard = shardRouter.forDb(dbName);
+        String client = currentClient();
+        if (client != null && recentWriters.get(client) != null) {
+            return shard.getTemplate();
+        }
+        return shard.getReadTemplate();
+    }
+
+    /**
+     * 记录当前客户端刚写过数据;db.replica.stickyWindow不大于0时不记录
+     */
+    private void markWritten() {
+        if (stickyWindow <= 0) {
+            return;
+        }
+        String client = currentClient();
+        if (client != null) {
+            recentWriters.put(client, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * @return 当前请求的appkey(头部x-appkey);不在请求中时返回null
+     */
+    private static String currentClient() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes instanceof ServletRequestAttributes) {
+            return ((ServletRequestAttributes) attributes).getRequest().getHeader("x-appkey");
+        }
+        return null;
+    }
+
+    /**
+     * @param sortColumn 排序列名
+     * @param lastSortValue 最后一行的排序列的值
+     * @param lastId 最后一行的id;排序列是id时不使用
+     * @return 下一页的游标
+     * @see SQLParser#needsTieBreaker(String)
+     */
+    private String nextCursor(String sortColumn, Object lastSortValue, Object lastId) {
+        if (sqlParser.needsTieBreaker(sortColumn)) {
+            return PageCursorHelper.encode(lastSortValue, lastId);
+        }
+        return PageCursorHelper.encode(lastSortValue);
+    }
+
+    private String columnCacheKey(String dbName, String tableName) {
+        return String.format("`%s`.`%s`", PreparedSQL.escape(dbName), PreparedSQL.escape(tableName));
+    }
+
+    /**
+     * 将结果集逐行写成json对象的RowCallbackHandler;
+     * 列名在读到第一行时从ResultSetMetaData中读取一次并复用;
+     * 同时记录最后一行的排序列和id的值,用于生成下一页的游标
+     */
+    private static class JsonRowWriter implements RowCallbackHandler {
+        private final JsonGenerator generator;
+        private final String sortColumn;
+        private String[] labels;
+        private int sortIndex = -1;
+        private int idIndex = -1;
+        private Object lastSortValue;
+        private Object lastId;
+        private int rowCount = 0;
+
+        JsonRowWriter(JsonGenerator generator, String sortColumn) {
+            this.generator = generator;
+            this.sortColumn = sortColumn;
+        }
+
+        int getRowCount() {
+            return rowCount;
+        }
+
+        Object getLastSortValue() {
+            return lastSortValue;
+        }
+
+        Object getLastId() {
+            return lastId;
+        }
+
+        void writeHead() throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("resultType", ResultType.OK.toString());
+            generator.writeArrayFieldStart("data");
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            try {
+                if (labels == null) {
+                    ResultSetMetaData meta = rs.getMetaData();
+                    labels = new String[meta.getColumnCount()];
+                    for (int i = 0; i < labels.length; i++) {
+                        labels[i] = meta.getColumnLabel(i + 1);
+                        if (labels[i].equalsIgnoreCase(sortColumn)) {
+                            sortIndex = i;
+                        }
+                        if (labels[i].equalsIgnoreCase(SQLParser.ID_COLUMN)) {
+                            idIndex = i;
+                        }
+                    }
+                    writeHead();
+                }
+
+                generator.writeStartObject();
+                for (int i = 0; i < labels.length; i++) {
+                    generator.writeFieldName(labels[i]);
+                    generator.writeObject(rs.getObject(i + 1));
+                }
+                generator.writeEndObject();
+
+                if (sortIndex >= 0) {
+                    lastSortValue = rs.getObject(sortIndex + 1);
+                }
+                if (idIndex >= 0) {
+                    lastId = rs.getObject(idIndex + 1);
+                }
+                rowCount++;
+            }
+            catch (IOException ex) {
+                throw new SQLException("write row to output stream failed: " + ex.getMessage(), ex);
+            }
         }
-        return result;
     }
 }
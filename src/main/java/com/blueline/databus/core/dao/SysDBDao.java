@@ -1,16 +1,19 @@
 package com.blueline.databus.core.dao;
 
 import com.blueline.databus.core.datatype.AclInfo;
+import com.blueline.databus.core.datatype.ClientCredential;
 import com.blueline.databus.core.datatype.ClientInfo;
 import com.blueline.databus.core.datatype.InterfaceInfo;
 import com.blueline.databus.core.datatype.TableInfo;
 import com.blueline.databus.core.exception.InternalException;
+import com.blueline.databus.core.helper.LRUCache;
 import com.blueline.databus.core.helper.RandomStringHelper;
 import com.blueline.databus.core.helper.SQLParser;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
@@ -18,9 +21,11 @@ import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
 
+import javax.annotation.PostConstruct;
 import java.io.IOException;
 import java.sql.*;
 import java.util.*;
+import java.util.function.Consumer;
 
 @Repository
 public class SysDBDao {
@@ -30,6 +35,27 @@ public class SysDBDao {
     @Qualifier("templateSys")
     private JdbcTemplate templateSys;
 
+    @Autowired
+    @Qualifier("mapReader")
+    private ObjectReader mapReader;
+
+    @Value("${default.credentialCacheSize:1024}")
+    private int credentialCacheSize;
+
+    @Value("${default.credentialCacheTTL:60}")
+    private long credentialCacheTTL;
+
+    /**
+     * 认证信息缓存,键为appkey;
+     * 重置key、挂起/恢复、删除client时清除该client的条目,TTL(秒)只是防止在别处修改了clients表的保险
+     */
+    private LRUCache<String, ClientCredential> credentialCache;
+
+    @PostConstruct
+    public void init() {
+        credentialCache = new LRUCache<>(credentialCacheSize, credentialCacheTTL * 1000);
+    }
+
     /**
      * 根据client的id获取client信息
      * @param id client的id
@@ -114,6 +140,46 @@ public class SysDBDao {
         );
     }
 
+    /**
+     * 根据appkey获取认证client所需的信息(skey和状态)
+     * <p>
+     *     每个API请求都要认证,因此结果缓存在内存中(见credentialCache),通常只是一次哈希表查找;
+     *     只查询需要的列
+     * </p>
+     * @param appKey client的appkey
+     * @return 认证信息;appkey不存在则返回null(不缓存)
+     */
+    public ClientCredential getCredentialByAppKey(String appKey) {
+        ClientCredential cached = credentialCache.get(appKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        List<ClientCredential> result = this.templateSys.query(
+                "SELECT `name`,`appkey`,`skey`,`status` FROM `clients` WHERE `appkey` = ?",
+                new Object[]{appKey},
+                (ResultSet rs, int i) -> new ClientCredential(
+                        rs.getString("name"),
+                        rs.getString("appkey"),
+                        rs.getString("skey"),
+                        rs.getInt("status")
+                )
+        );
+        if (result.isEmpty()) {
+            return null;
+        }
+        credentialCache.put(appKey, result.get(0));
+        return result.get(0);
+    }
+
+    /**
+     * 清除某client的认证信息缓存;client的key或状态改变后调用
+     * @param name client名
+     */
+    public void evictCredential(String name) {
+        credentialCache.removeIf(credential -> credential.getName().equals(name));
+    }
+
     /**
      * 获取所有client信息
      * @return ClientInfo实例列表
@@ -190,10 +256,9 @@ public class SysDBDao {
      * @throws InternalException 内部异常
      */
     private ClientInfo parseCreateClientInfo(String jsonBody) throws InternalException {
-        ObjectMapper om = new ObjectMapper();
         Map<String, String> rawBody;
         try {
-            rawBody = om.readValue(jsonBody, Map.class);
+            rawBody = mapReader.readValue(jsonBody);
         }
         catch (IOException | ClassCastException ex) {
             throw new InternalException("parse json from request body failed: " + ex.getMessage());
@@ -227,7 +292,9 @@ public class SysDBDao {
      * @return 受影响行数
      */
     public int suspendClient(String name) {
-        return this.templateSys.update("UPDATE `clients` SET `status` = 1 WHERE `name` = ?", name);
+        int count = this.templateSys.update("UPDATE `clients` SET `status` = 1 WHERE `name` = ?", name);
+        evictCredential(name);
+        return count;
     }
 
     /**
@@ -236,7 +303,9 @@ public class SysDBDao {
      * @return 受影响行数
      */
     public int resumeClient(String name) {
-        return this.templateSys.update("UPDATE `clients` SET `status` = 0 WHERE `name` = ?", name);
+        int count = this.templateSys.update("UPDATE `clients` SET `status` = 0 WHERE `name` = ?", name);
+        evictCredential(name);
+        return count;
     }
 
     /**
@@ -245,7 +314,9 @@ public class SysDBDao {
      * @return 受影响行数
      */
     public int deleteClient(String name) {
-        return this.templateSys.update("DELETE FROM `clients` WHERE `name` = ?", name);
+        int count = this.templateSys.update("DELETE FROM `clients` WHERE `name` = ?", name);
+        evictCredential(name);
+        return count;
     }
 
     /**
@@ -256,31 +327,53 @@ public class SysDBDao {
     public int resetKeys(String name) {
         String newAppKey = RandomStringHelper.getRandomString(10);
         String newSKey = RandomStringHelper.hashKey(newAppKey);
-        return this.templateSys.update(
+        int count = this.templateSys.update(
                 "UPDATE `clients` SET `appkey` = ?, `skey` = ? WHERE `name` = ?",
                 newAppKey, newSKey, name);
+        evictCredential(name);
+        return count;
     }
 
+    private static final String SQL_ALL_ACL_INFO =
+            "SELECT `i`.`api` AS `api`, `i`.`method` AS `method`, " +
+                    "`c`.`appkey` AS `client_appkey`, `c`.`name` AS `client_name`, " +
+                    "`a`.`duration` AS `duration`,`a`.`created_at` AS `created_at` " +
+            "FROM `acl` AS `a` INNER JOIN `interfaces` AS `i` ON `a`.`interface_id` = `i`.`id` INNER JOIN `clients` AS `c` ON `a`.`client_id` = `c`.`id`";
+
+    private static final RowMapper<AclInfo> ACL_INFO_MAPPER = (ResultSet rs, int rowNum) -> new AclInfo(
+            rs.getString("api"),
+            rs.getString("method"),
+            rs.getString("client_appkey"),
+            rs.getString("client_name"),
+            rs.getString("duration"),
+            rs.getTimestamp("created_at")
+    );
+
     /**
      * 读取数据库acl表(记载interface和client的关系)所有记录
      * 将详细的acl信息填充到AclInfo实例列表
-     * 用于程序启动时载入acl信息到缓存
      * @return AclInfo实例列表
+     * @see #streamAllAclInfo(Consumer)
      */
     public List<AclInfo> getAllAclInfo() {
-        return this.templateSys.query(
-            "SELECT `i`.`api` AS `api`, `i`.`method` AS `method`, " +
-                    "`c`.`appkey` AS `client_appkey`, `c`.`name` AS `client_name`, " +
-                    "`a`.`duration` AS `duration`,`a`.`created_at` AS `created_at` " +
-            "FROM `acl` AS `a` INNER JOIN `interfaces` AS `i` ON `a`.`interface_id` = `i`.`id` INNER JOIN `clients` AS `c` ON `a`.`client_id` = `c`.`id`",
-            (ResultSet rs, int rowNum) -> new AclInfo(
-                    rs.getString("api"),
-                    rs.getString("method"),
-                    rs.getString("client_appkey"),
-                    rs.getString("client_name"),
-                    rs.getString("duration"),
-                    rs.getTimestamp("created_at")
-            )
+        return this.templateSys.query(SQL_ALL_ACL_INFO, ACL_INFO_MAPPER);
+    }
+
+    /**
+     * 逐条读取数据库acl表所有记录,交给consumer处理;
+     * 结果集不在内存中缓存,用于程序启动时载入acl信息到缓存
+     * @param consumer 处理每条acl信息
+     */
+    public void streamAllAclInfo(Consumer<AclInfo> consumer) {
+        this.templateSys.query(
+                con -> {
+                    PreparedStatement ps = con.prepareStatement(
+                            SQL_ALL_ACL_INFO, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                    // MySQL驱动只有在fetchSize为Integer.MIN_VALUE时才逐行读取,否则会缓存整个结果集
+                    ps.setFetchSize(Integer.MIN_VALUE);
+                    return ps;
+                },
+                (ResultSet rs) -> consumer.accept(ACL_INFO_MAPPER.mapRow(rs, 0))
         );
     }
 
@@ -609,12 +702,18 @@ public class SysDBDao {
 
 
     /**
-     * 建表成功之后,需要为表增加表数据、增删改查(DML)的接口(API)数据
+     * 建表成功之后,需要为表增加表数据、增删改查(DML)的接口(API)数据,并将这些接口授权给建表人
+     * <p>
+     *     在txManager的事务中执行,任何一步失败都会回滚;
+     *     四个接口(POST/DELETE/PUT/GET)的记录以一次batchUpdate插入
+     *     (sys库的url带有rewriteBatchedStatements,驱动会合并为一条多行INSERT)
+     * </p>
      * @param dbName 数据库名
      * @param tableName 表名
      * @param ownerId 建表人的id
      * @throws InternalException 内部异常
      */
+    @Transactional(value = "txManager", rollbackFor = InternalException.class)
     public void doAfterTableCreated(String dbName, String tableName, int ownerId, String description)
             throws InternalException {
 
@@ -631,89 +730,28 @@ public class SysDBDao {
                 "FROM `interfaces` " +
                 "WHERE `table_name` = ? AND `db_name` = ?";
 
-        Connection conn = null;
-        try {
-            conn = this.templateSys.getDataSource().getConnection();
-            conn.setAutoCommit(false);
+        String api = "/api/data/" + dbName + "/" + tableName;
+        List<Object[]> interfaces = Arrays.asList(
+                new Object[] {tableName, dbName, api, "POST",   String.format("向表{%s.%s}插入数据", dbName, tableName)},
+                new Object[] {tableName, dbName, api, "DELETE", String.format("删除表{%s.%s}数据", dbName, tableName)},
+                new Object[] {tableName, dbName, api, "PUT",    String.format("修改表{%s.%s}数据", dbName, tableName)},
+                new Object[] {tableName, dbName, api, "GET",    String.format("从表{%s.%s}查询数据", dbName, tableName)}
+        );
 
+        try {
             // add new entry to table `tables`
-            PreparedStatement ps = conn.prepareStatement(sql_add_table);
-            ps.setString(1, tableName);
-            ps.setString(2, dbName);
-            ps.setInt(3, ownerId);
-            ps.setString(4, description);
-            ps.executeUpdate();
-
-            // add 'insert' api to table `interfaces`
-            PreparedStatement ps1 = conn.prepareStatement(sql_add_interface);
-            ps1.setString(1, tableName);
-            ps1.setString(2, dbName);
-            ps1.setString(3, "/api/data/" + dbName + "/" + tableName);
-            ps1.setString(4, "POST");
-            ps1.setString(5, String.format("向表{%s.%s}插入数据",dbName,tableName));
-            ps1.executeUpdate();
-
-            // add 'delete' api to table `interfaces`
-            PreparedStatement ps2 = conn.prepareStatement(sql_add_interface);
-            ps2.setString(1, tableName);
-            ps2.setString(2, dbName);
-            ps2.setString(3, "/api/data/" + dbName + "/" + tableName);
-            ps2.setString(4, "DELETE");
-            ps2.setString(5, String.format("删除表{%s.%s}数据",dbName,tableName));
-            ps2.executeUpdate();
-
-            // add 'update' api to table `interfaces`
-            PreparedStatement ps3 = conn.prepareStatement(sql_add_interface);
-            ps3.setString(1, tableName);
-            ps3.setString(2, dbName);
-            ps3.setString(3, "/api/data/" + dbName + "/" + tableName);
-            ps3.setString(4, "PUT");
-            ps3.setString(5, String.format("修改表{%s.%s}数据",dbName,tableName));
-            ps3.executeUpdate();
-
-            // add 'select' api to table `interfaces`
-            PreparedStatement ps4 = conn.prepareStatement(sql_add_interface);
-            ps4.setString(1, tableName);
-            ps4.setString(2, dbName);
-            ps4.setString(3, "/api/data/" + dbName + "/" + tableName);
-            ps4.setString(4, "GET");
-            ps4.setString(5, String.format("从表{%s.%s}查询数据",dbName,tableName));
-            ps4.executeUpdate();
+            this.templateSys.update(sql_add_table, tableName, dbName, ownerId, description);
 
-            // grant table's interfaces to client (owner)
-            PreparedStatement ps5 = conn.prepareStatement(sql_grant);
-            ps5.setInt(1, ownerId);
-            ps5.setString(2, tableName);
-            ps5.setString(3, dbName);
-            ps5.executeUpdate();
+            // add 'insert', 'delete', 'update' and 'select' apis to table `interfaces`
+            this.templateSys.batchUpdate(sql_add_interface, interfaces);
 
-            conn.commit();
+            // grant table's interfaces to client (owner)
+            this.templateSys.update(sql_grant, ownerId, tableName, dbName);
         }
-        catch (SQLException ex) {
-            System.out.println("post-creation failed: going to rollback...: " + ex.getMessage());
-            logger.fatal("transaction failed. rollback. " + ex.getMessage());
-            try {
-                if (conn != null) {
-                    conn.rollback();
-                }
-                System.out.println("post-creation rollback done.");
-            }
-            catch (SQLException sql_ex) {
-                throw new InternalException("post-table-creation exception (roll-back failed):" + ex.getMessage());
-            }
+        catch (DataAccessException ex) {
+            logger.fatal("post-creation transaction failed. rollback. " + ex.getMessage());
             throw new InternalException("post-creation action exception (roll-back done): " + ex.getMessage());
         }
-        finally {
-            try {
-                if (conn != null) {
-                    conn.setAutoCommit(true);
-                }
-            }
-            catch (SQLException ex) {
-                // eat this
-                logger.info("reset auto-commit to true failed: " + ex.getMessage());
-            }
-        }
     }
 
     /**
@@ -724,6 +762,7 @@ public class SysDBDao {
      * @param description 表描述
      * @throws InternalException 内部异常
      */
+    @Transactional(value = "txManager", rollbackFor = InternalException.class)
     public void doAfterTableCreated(String dbName, String tableName, String ownerName, String description)
             throws InternalException {
         int owner_id = -1;
@@ -741,10 +780,14 @@ public class SysDBDao {
 
     /**
      * 删除表后,需要将该表数据、相关的接口数据清除
+     * <p>
+     *     在txManager的事务中执行,任何一步失败都会回滚
+     * </p>
      * @param dbName 数据库名
      * @param tableName 表名
      * @throws InternalException 内部异常
      */
+    @Transactional(value = "txManager", rollbackFor = InternalException.class)
     public void doAfterTableDropped(String dbName, String tableName)
             throws InternalException {
 
@@ -757,52 +800,15 @@ public class SysDBDao {
         String sql_delete_interface =
                 "DELETE FROM `interfaces` WHERE `db_name` = ? AND `table_name` = ?";
 
-        Connection conn = null;
         try {
-            conn = this.templateSys.getDataSource().getConnection();
-            conn.setAutoCommit(false);
-
-            PreparedStatement ps0 = conn.prepareStatement(sql_revoke);
-            ps0.setString(1, tableName);
-            ps0.setString(2, dbName);
-            ps0.executeUpdate();
-
-            PreparedStatement ps = conn.prepareStatement(sql_delete_table);
-            ps.setString(1, dbName);
-            ps.setString(2, tableName);
-            ps.executeUpdate();
-
-            PreparedStatement ps1 = conn.prepareStatement(sql_delete_interface);
-            ps1.setString(1, dbName);
-            ps1.setString(2, tableName);
-            ps1.executeUpdate();
-
-            conn.commit();
+            this.templateSys.update(sql_revoke, tableName, dbName);
+            this.templateSys.update(sql_delete_table, dbName, tableName);
+            this.templateSys.update(sql_delete_interface, dbName, tableName);
         }
-        catch (SQLException ex) {
-            logger.fatal("transaction failed. rollback.");
-            try {
-                if (conn != null) {
-                    conn.rollback();
-                }
-            }
-            catch (SQLException sql_ex) {
-                // eat it
-                logger.info("post-dropping: rollback transaction failed: " + ex.getMessage());
-            }
+        catch (DataAccessException ex) {
+            logger.fatal("post-dropping transaction failed. rollback. " + ex.getMessage());
             throw new InternalException("post-dropping action failed: " + ex.getMessage());
         }
-        finally {
-            try {
-                if (conn != null) {
-                    conn.setAutoCommit(true);
-                }
-            }
-            catch (SQLException ex) {
-                // eat this
-                logger.info("reset auto-commit to true failed: " + ex.getMessage());
-            }
-        }
     }
 
 
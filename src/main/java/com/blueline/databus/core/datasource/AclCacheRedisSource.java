@@ -5,6 +5,7 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import redis.clients.jedis.JedisPoolConfig;
 
 /**
@@ -36,4 +37,14 @@ public class AclCacheRedisSource {
     public StringRedisTemplate stringRedisTemplate(JedisConnectionFactory redis4Acl){
         return new StringRedisTemplate(redis4Acl);
     }
+
+    /**
+     * 订阅acl失效通知(见AclCacheService),用于清除各节点的本地acl缓存
+     */
+    @Bean(name = "aclListenerContainer")
+    public RedisMessageListenerContainer redisMessageListenerContainer(JedisConnectionFactory redis4Acl) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redis4Acl);
+        return container;
+    }
 }
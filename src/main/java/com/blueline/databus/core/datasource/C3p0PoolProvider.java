@@ -0,0 +1,96 @@
+package com.blueline.databus.core.datasource;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+import javax.sql.DataSource;
+import java.beans.PropertyVetoException;
+import java.sql.SQLException;
+
+/**
+ * c3p0连接池(默认)
+ * <ul>
+ *     <li>statementCacheSize对应maxStatementsPerConnection</li>
+ *     <li>leakDetectionThreshold对应unreturnedConnectionTimeout(向上取整为秒):
+ *     超时未归还的连接会被强制关闭,并记录借出时的调用栈</li>
+ *     <li>空闲连接每idleTestPeriod秒检测一次,归还时也检测</li>
+ * </ul>
+ * c3p0不提供获取连接的耗时,因此用TimedDataSource包装
+ */
+public class C3p0PoolProvider implements PoolProvider {
+
+    @Override
+    public String type() {
+        return "c3p0";
+    }
+
+    @Override
+    public DataSource create(String name, String driver, String url, String username, String password,
+                             PoolSettings settings, PoolMetrics metrics) {
+        ComboPooledDataSource ds = new ComboPooledDataSource();
+        try {
+            ds.setDriverClass(driver);
+        }
+        catch (PropertyVetoException ex) {
+            throw new IllegalArgumentException("invalid jdbc driver: " + driver, ex);
+        }
+        ds.setDataSourceName("databus-" + name);
+        ds.setJdbcUrl(url);
+        ds.setUser(username);
+        ds.setPassword(password);
+
+        ds.setInitialPoolSize(settings.getMinSize());
+        ds.setMinPoolSize(settings.getMinSize());
+        ds.setMaxPoolSize(settings.getMaxSize());
+        ds.setCheckoutTimeout((int) settings.getConnectionTimeout());
+        ds.setMaxStatementsPerConnection(settings.getStatementCacheSize());
+        ds.setIdleConnectionTestPeriod(settings.getIdleTestPeriod());
+        ds.setTestConnectionOnCheckin(true);
+        if (settings.getLeakDetectionThreshold() > 0) {
+            ds.setUnreturnedConnectionTimeout((int) ((settings.getLeakDetectionThreshold() + 999) / 1000));
+            ds.setDebugUnreturnedConnectionStackTraces(true);
+        }
+
+        metrics.setGauges(new PoolMetrics.Gauges() {
+            @Override
+            public int active() {
+                try {
+                    return ds.getNumBusyConnectionsDefaultUser();
+                }
+                catch (SQLException ex) {
+                    throw new IllegalStateException(ex.getMessage(), ex);
+                }
+            }
+
+            @Override
+            public int idle() {
+                try {
+                    return ds.getNumIdleConnectionsDefaultUser();
+                }
+                catch (SQLException ex) {
+                    throw new IllegalStateException(ex.getMessage(), ex);
+                }
+            }
+
+            @Override
+            public int total() {
+                try {
+                    return ds.getNumConnectionsDefaultUser();
+                }
+                catch (SQLException ex) {
+                    throw new IllegalStateException(ex.getMessage(), ex);
+                }
+            }
+
+            @Override
+            public int waiting() {
+                try {
+                    return ds.getNumThreadsAwaitingCheckoutDefaultUser();
+                }
+                catch (SQLException ex) {
+                    throw new IllegalStateException(ex.getMessage(), ex);
+                }
+            }
+        });
+        return new TimedDataSource(ds, metrics);
+    }
+}
@@ -1,17 +1,23 @@
 package com.blueline.databus.core.datasource;
 
-import com.mchange.v2.c3p0.ComboPooledDataSource;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.sql.DataSource;
 import java.beans.PropertyVetoException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * 使用JDBC(c3p0连接池)
- * 配置用于核心数据库(用户自由使用空间)的数据源
+ * 使用JDBC(连接池见DataSourcePoolFactory)
+ * 配置用于核心数据库(用户自由使用空间)的数据源;
+ * 这里配置的是分片core,其他分片见ShardRouter
  */
 @Configuration
 public class CoreDataSourceConfig {
@@ -28,18 +34,77 @@ public class CoreDataSourceConfig {
     @Value("${db.core.password}")
     private String corePassword;
 
+    @Value("${db.replica.urls:}")
+    private String[] replicaUrls;
+
+    @Value("${db.replica.username:${db.core.username}}")
+    private String replicaUsername;
+
+    @Value("${db.replica.password:${db.core.password}}")
+    private String replicaPassword;
+
+    @Value("${db.replica.balance:round-robin}")
+    private String replicaBalance;
+
+    @Value("${db.replica.connectionTimeout:1000}")
+    private long replicaConnectionTimeout;
+
+    @Value("${db.replica.backoff:5000}")
+    private long replicaBackoff;
+
+    @Autowired
+    private DataSourcePoolFactory poolFactory;
+
+    /**
+     * 连接池的实现和参数见DataSourcePoolFactory(application.yml中的db.pool)
+     */
     @Bean
-    public DataSource dsCore() throws PropertyVetoException {
-        ComboPooledDataSource coreDS = new ComboPooledDataSource();
-        coreDS.setDriverClass(coreDriverManager);
-        coreDS.setJdbcUrl(coreUrl);
-        coreDS.setUser(coreUsername);
-        coreDS.setPassword(corePassword);
-        return coreDS;
+    public DataSource dsCore() {
+        return poolFactory.create("core", coreDriverManager, coreUrl, coreUsername, corePassword);
     }
 
+    /**
+     * DmlExecutor任务中的语句以任务剩余的时间为查询超时,见DmlJdbcTemplate
+     */
     @Bean
     public JdbcTemplate templateCore(DataSource dsCore) throws PropertyVetoException {
-        return new JdbcTemplate(dsCore);
+        return new DmlJdbcTemplate(dsCore);
+    }
+
+    /**
+     * 只读查询使用的数据源,在db.replica.urls(逗号分隔)配置的只读副本之间按db.replica.balance分配;
+     * 每个副本的连接池名称为core-replica-{序号},参数与主库相同,
+     * 但获取连接的超时为db.replica.connectionTimeout:副本不可达时尽快改用主库,
+     * 之后db.replica.backoff毫秒内不再选择该副本;
+     * 没有配置副本时所有查询都使用主库
+     */
+    @Bean(destroyMethod = "close")
+    public ReplicaRoutingDataSource dsCoreRead(DataSource dsCore) {
+        List<DataSource> replicas = new ArrayList<>();
+        for (String url : replicaUrls) {
+            if (!url.trim().isEmpty()) {
+                replicas.add(poolFactory.create("core-replica-" + replicas.size(),
+                        coreDriverManager, url.trim(), replicaUsername, replicaPassword, replicaConnectionTimeout));
+            }
+        }
+        return new ReplicaRoutingDataSource(dsCore, replicas, replicaBalance, replicaBackoff);
+    }
+
+    @Bean
+    public JdbcTemplate templateCoreRead(ReplicaRoutingDataSource dsCoreRead) {
+        return new DmlJdbcTemplate(dsCoreRead);
+    }
+
+    @Bean
+    public PlatformTransactionManager txManagerCore() throws PropertyVetoException {
+        return new DataSourceTransactionManager(dsCore());
+    }
+
+    /**
+     * 核心数据库上的编程式事务(如批量插入时,所有批次在同一个事务中执行)
+     */
+    @Bean
+    public TransactionTemplate txTemplateCore() throws PropertyVetoException {
+        return new TransactionTemplate(txManagerCore());
     }
 }
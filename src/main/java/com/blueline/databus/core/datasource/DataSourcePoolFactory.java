@@ -0,0 +1,117 @@
+package com.blueline.databus.core.datasource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按application.yml中的db.pool创建各数据库的连接池
+ * <ul>
+ *     <li>db.pool.type:连接池实现,c3p0(默认)或hikari</li>
+ *     <li>db.pool.minSize/maxSize:最少保持/最多的连接数</li>
+ *     <li>db.pool.connectionTimeout:获取连接的最长等待时间(毫秒)</li>
+ *     <li>db.pool.statementCacheSize:每个连接缓存的PreparedStatement数量,0表示不缓存</li>
+ *     <li>db.pool.leakDetectionThreshold:连接借出超过此时间(毫秒)视为泄漏,0表示不检测</li>
+ *     <li>db.pool.idleTestPeriod:空闲连接的检测周期(秒)</li>
+ * </ul>
+ * 每个连接池的指标通过actuator端点<code>/pools</code>输出
+ * @see PoolMetricsEndpoint
+ */
+@Component
+public class DataSourcePoolFactory {
+
+    @Value("${db.pool.type:c3p0}")
+    private String type;
+
+    @Value("${db.pool.minSize:3}")
+    private int minSize;
+
+    @Value("${db.pool.maxSize:15}")
+    private int maxSize;
+
+    @Value("${db.pool.connectionTimeout:30000}")
+    private long connectionTimeout;
+
+    @Value("${db.pool.statementCacheSize:250}")
+    private int statementCacheSize;
+
+    @Value("${db.pool.leakDetectionThreshold:0}")
+    private long leakDetectionThreshold;
+
+    @Value("${db.pool.idleTestPeriod:60}")
+    private int idleTestPeriod;
+
+    private final Map<String, PoolProvider> providers = new LinkedHashMap<>();
+
+    private final Map<String, PoolMetrics> metrics = new ConcurrentHashMap<>();
+
+    private PoolProvider provider;
+
+    private PoolSettings settings;
+
+    public DataSourcePoolFactory() {
+        register(new C3p0PoolProvider());
+        register(new HikariPoolProvider());
+    }
+
+    private void register(PoolProvider poolProvider) {
+        providers.put(poolProvider.type(), poolProvider);
+    }
+
+    @PostConstruct
+    public void init() {
+        provider = providers.get(type.toLowerCase());
+        if (provider == null) {
+            throw new IllegalArgumentException(String.format(
+                    "unsupported db.pool.type: %s, expected one of %s", type, providers.keySet()));
+        }
+        settings = new PoolSettings(minSize, maxSize, connectionTimeout,
+                statementCacheSize, leakDetectionThreshold, idleTestPeriod);
+    }
+
+    /**
+     * 创建连接池
+     * @param name 数据源名称,如core、sys;用于连接池命名和指标输出
+     * @param driver JDBC驱动类名
+     * @param url JDBC url
+     * @param username 用户名
+     * @param password 密码
+     * @return 数据源
+     */
+    public DataSource create(String name, String driver, String url, String username, String password) {
+        return create(name, driver, url, username, password, settings);
+    }
+
+    /**
+     * 创建获取连接的超时与db.pool.connectionTimeout不同的连接池(如只读副本,见CoreDataSourceConfig)
+     * @param connectionTimeout 获取连接的最长等待时间(毫秒)
+     * @see #create(String, String, String, String, String)
+     */
+    public DataSource create(String name, String driver, String url, String username, String password,
+                             long connectionTimeout) {
+        return create(name, driver, url, username, password, new PoolSettings(minSize, maxSize, connectionTimeout,
+                statementCacheSize, leakDetectionThreshold, idleTestPeriod));
+    }
+
+    private DataSource create(String name, String driver, String url, String username, String password,
+                              PoolSettings poolSettings) {
+        PoolMetrics poolMetrics = new PoolMetrics(provider.type());
+        DataSource ds = provider.create(name, driver, url, username, password, poolSettings, poolMetrics);
+        metrics.put(name, poolMetrics);
+        return ds;
+    }
+
+    /**
+     * @return 数据源名称 -&gt; 连接池指标
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        metrics.forEach((name, poolMetrics) -> result.put(name, poolMetrics.snapshot()));
+        return result;
+    }
+}
@@ -0,0 +1,34 @@
+package com.blueline.databus.core.datasource;
+
+import com.blueline.databus.core.helper.DmlExecutor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 访问用户数据库(core及其他分片)使用的JdbcTemplate
+ * <p>
+ *     在DmlExecutor的任务中执行的语句(包括ConnectionCallback中创建的语句),
+ *     查询超时设为任务剩余的时间(default.dmlTimeout或default.dmlStreamTimeout);
+ *     中断无法结束阻塞在socket读取上的JDBC调用,超时后由MySQL驱动发送KILL QUERY结束语句,释放连接
+ * </p>
+ * 不在任务中执行的语句(如DDL)不设置超时
+ * @see DmlExecutor#queryTimeoutSeconds()
+ */
+public class DmlJdbcTemplate extends JdbcTemplate {
+
+    public DmlJdbcTemplate(DataSource dataSource) {
+        super(dataSource);
+    }
+
+    @Override
+    protected void applyStatementSettings(Statement stmt) throws SQLException {
+        super.applyStatementSettings(stmt);
+        int timeout = DmlExecutor.queryTimeoutSeconds();
+        if (timeout > 0) {
+            stmt.setQueryTimeout(timeout);
+        }
+    }
+}
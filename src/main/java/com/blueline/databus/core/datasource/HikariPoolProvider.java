@@ -0,0 +1,82 @@
+package com.blueline.databus.core.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.MetricsTracker;
+
+import javax.sql.DataSource;
+
+/**
+ * HikariCP连接池
+ * <ul>
+ *     <li>statementCacheSize对应MySQL驱动的cachePrepStmts/prepStmtCacheSize(Hikari本身不缓存statement)</li>
+ *     <li>leakDetectionThreshold对应leakDetectionThreshold:超时未归还只记录警告日志,不关闭连接</li>
+ *     <li>借出前检测空闲较久的连接,idleTestPeriod不使用</li>
+ * </ul>
+ * 获取连接的耗时和连接池状态通过Hikari的MetricsTrackerFactory得到
+ */
+public class HikariPoolProvider implements PoolProvider {
+
+    @Override
+    public String type() {
+        return "hikari";
+    }
+
+    @Override
+    public DataSource create(String name, String driver, String url, String username, String password,
+                             PoolSettings settings, PoolMetrics metrics) {
+        HikariDataSource ds = new HikariDataSource();
+        ds.setPoolName("databus-" + name);
+        ds.setDriverClassName(driver);
+        ds.setJdbcUrl(url);
+        ds.setUsername(username);
+        ds.setPassword(password);
+
+        ds.setMinimumIdle(settings.getMinSize());
+        ds.setMaximumPoolSize(settings.getMaxSize());
+        ds.setConnectionTimeout(settings.getConnectionTimeout());
+        ds.setLeakDetectionThreshold(settings.getLeakDetectionThreshold());
+        if (settings.getStatementCacheSize() > 0) {
+            ds.addDataSourceProperty("cachePrepStmts", "true");
+            ds.addDataSourceProperty("prepStmtCacheSize", String.valueOf(settings.getStatementCacheSize()));
+            ds.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        }
+        // 与c3p0一致:数据库暂时不可用时服务照常启动,连接在第一次使用时建立
+        ds.setInitializationFailFast(false);
+
+        ds.setMetricsTrackerFactory((poolName, poolStats) -> {
+            metrics.setGauges(new PoolMetrics.Gauges() {
+                @Override
+                public int active() {
+                    return poolStats.getActiveConnections();
+                }
+
+                @Override
+                public int idle() {
+                    return poolStats.getIdleConnections();
+                }
+
+                @Override
+                public int total() {
+                    return poolStats.getTotalConnections();
+                }
+
+                @Override
+                public int waiting() {
+                    return poolStats.getPendingThreads();
+                }
+            });
+            return new MetricsTracker() {
+                @Override
+                public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                    metrics.recordAcquire(elapsedAcquiredNanos);
+                }
+
+                @Override
+                public void recordConnectionTimeout() {
+                    metrics.recordAcquireFailure();
+                }
+            };
+        });
+        return ds;
+    }
+}
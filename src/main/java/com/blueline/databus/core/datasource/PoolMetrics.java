@@ -0,0 +1,72 @@
+package com.blueline.databus.core.datasource;
+
+import com.blueline.databus.core.helper.LatencyHistogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个连接池的指标:获取连接的等待时间、获取失败(超时)次数,
+ * 以及当前活动、空闲、总连接数和等待连接的线程数
+ * @see PoolMetricsEndpoint
+ */
+public class PoolMetrics {
+
+    /**
+     * 连接池当前状态,由各PoolProvider从连接池实现中读取
+     */
+    public interface Gauges {
+        int active();
+        int idle();
+        int total();
+        int waiting();
+    }
+
+    private final String type;
+
+    private final LatencyHistogram acquire = new LatencyHistogram();
+
+    private final LongAdder acquireFailures = new LongAdder();
+
+    private volatile Gauges gauges;
+
+    public PoolMetrics(String type) {
+        this.type = type;
+    }
+
+    public void recordAcquire(long nanos) {
+        acquire.record(nanos);
+    }
+
+    public void recordAcquireFailure() {
+        acquireFailures.increment();
+    }
+
+    public void setGauges(Gauges gauges) {
+        this.gauges = gauges;
+    }
+
+    /**
+     * @return type, active, idle, total, waiting, acquireFailures和acquire(毫秒)
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("type", type);
+        Gauges current = gauges;
+        if (current != null) {
+            try {
+                result.put("active", current.active());
+                result.put("idle", current.idle());
+                result.put("total", current.total());
+                result.put("waiting", current.waiting());
+            }
+            catch (RuntimeException ex) {
+                result.put("error", ex.getMessage());
+            }
+        }
+        result.put("acquireFailures", acquireFailures.sum());
+        result.put("acquire", acquire.snapshot());
+        return result;
+    }
+}
@@ -0,0 +1,32 @@
+package com.blueline.databus.core.datasource;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * actuator端点<code>/pools</code>:输出各数据库连接池的状态和获取连接的耗时(毫秒)
+ * <pre><code>
+ *     {"core": {"type":"hikari", "active":2, "idle":8, "total":10, "waiting":0,
+ *               "acquireFailures":0, "acquire": {"count":100, "mean":0.02, "p50":0.015, ...}},
+ *      "sys": {...}}
+ * </code></pre>
+ * @see DataSourcePoolFactory
+ */
+@Component
+public class PoolMetricsEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+    @Autowired
+    private DataSourcePoolFactory poolFactory;
+
+    public PoolMetricsEndpoint() {
+        super("pools");
+    }
+
+    @Override
+    public Map<String, Object> invoke() {
+        return poolFactory.snapshot();
+    }
+}
@@ -0,0 +1,34 @@
+package com.blueline.databus.core.datasource;
+
+import javax.sql.DataSource;
+
+/**
+ * 连接池的实现;由db.pool.type选择
+ * @see DataSourcePoolFactory
+ */
+public interface PoolProvider {
+
+    /**
+     * @return 实现名称,即db.pool.type的取值
+     */
+    String type();
+
+    /**
+     * 创建连接池
+     * <p>
+     *     返回的数据源在获取连接时向metrics记录等待时间和失败次数,
+     *     并通过PoolMetrics#setGauges提供活动/空闲/等待中的数量;
+     *     如果连接池需要关闭,返回的对象应实现AutoCloseable(Spring在关闭时调用close)
+     * </p>
+     * @param name 数据源名称,如core、sys
+     * @param driver JDBC驱动类名
+     * @param url JDBC url
+     * @param username 用户名
+     * @param password 密码
+     * @param settings 连接池参数
+     * @param metrics 连接池指标
+     * @return 数据源
+     */
+    DataSource create(String name, String driver, String url, String username, String password,
+                      PoolSettings settings, PoolMetrics metrics);
+}
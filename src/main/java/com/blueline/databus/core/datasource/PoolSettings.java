@@ -0,0 +1,62 @@
+package com.blueline.databus.core.datasource;
+
+/**
+ * 连接池参数(application.yml中的db.pool),对所有数据源相同
+ * @see DataSourcePoolFactory
+ */
+public class PoolSettings {
+
+    private final int minSize;
+
+    private final int maxSize;
+
+    private final long connectionTimeout;
+
+    private final int statementCacheSize;
+
+    private final long leakDetectionThreshold;
+
+    private final int idleTestPeriod;
+
+    /**
+     * @param minSize 最少保持的连接数
+     * @param maxSize 最大连接数
+     * @param connectionTimeout 获取连接的最长等待时间(毫秒),超时抛出SQLException
+     * @param statementCacheSize 每个连接缓存的PreparedStatement数量;0表示不缓存
+     * @param leakDetectionThreshold 连接被借出超过此时间(毫秒)视为泄漏;0表示不检测
+     * @param idleTestPeriod 空闲连接的检测周期(秒)
+     */
+    public PoolSettings(int minSize, int maxSize, long connectionTimeout,
+                        int statementCacheSize, long leakDetectionThreshold, int idleTestPeriod) {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.connectionTimeout = connectionTimeout;
+        this.statementCacheSize = statementCacheSize;
+        this.leakDetectionThreshold = leakDetectionThreshold;
+        this.idleTestPeriod = idleTestPeriod;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    public long getLeakDetectionThreshold() {
+        return leakDetectionThreshold;
+    }
+
+    public int getIdleTestPeriod() {
+        return idleTestPeriod;
+    }
+}
@@ -0,0 +1,260 @@
+package com.blueline.databus.core.datasource;
+
+import org.apache.log4j.Logger;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 只读查询使用的数据源:在多个只读副本(replica)之间分配连接
+ * <ul>
+ *     <li>round-robin:依次使用各副本</li>
+ *     <li>least-connections:使用当前借出连接最少的副本(相同时依次轮换)</li>
+ * </ul>
+ * <p>
+ *     没有配置副本时所有连接都来自主库;
+ *     从副本获取连接失败时(如副本不可用、连接池等待超时),本次改为从主库获取,
+ *     并且在backoff时间内不再选择该副本;之后由一个请求重新尝试,成功则恢复使用,失败则继续退避。
+ *     所有副本都在退避中时使用主库
+ * </p>
+ * <p>
+ *     副本不可达时获取连接会一直等到连接池的超时,
+ *     因此副本的连接池应该使用较短的超时(db.replica.connectionTimeout),见CoreDataSourceConfig
+ * </p>
+ * <p>
+ *     close时只关闭各副本的连接池,主库的连接池由它自己的bean管理
+ * </p>
+ * @see CoreDataSourceConfig
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements Closeable {
+    private static final Logger logger = Logger.getLogger(ReplicaRoutingDataSource.class);
+
+    public static final String ROUND_ROBIN = "round-robin";
+
+    public static final String LEAST_CONNECTIONS = "least-connections";
+
+    private static final String PRIMARY = "primary";
+
+    private final DataSource primary;
+
+    private final List<Replica> replicas = new ArrayList<>();
+
+    private final boolean leastConnections;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final long backoffNanos;
+
+    /**
+     * @param primary 主库的数据源
+     * @param replicas 各副本的数据源
+     * @param balance round-robin或least-connections(不区分大小写)
+     * @param backoffMillis 副本获取连接失败后,多长时间(毫秒)内不再选择它
+     * @throws IllegalArgumentException 不支持的balance
+     */
+    public ReplicaRoutingDataSource(DataSource primary, List<DataSource> replicas, String balance, long backoffMillis) {
+        if (ROUND_ROBIN.equalsIgnoreCase(balance)) {
+            this.leastConnections = false;
+        }
+        else if (LEAST_CONNECTIONS.equalsIgnoreCase(balance)) {
+            this.leastConnections = true;
+        }
+        else {
+            throw new IllegalArgumentException(String.format(
+                    "unsupported db.replica.balance: %s, expected %s or %s", balance, ROUND_ROBIN, LEAST_CONNECTIONS));
+        }
+
+        this.primary = primary;
+        this.backoffNanos = TimeUnit.MILLISECONDS.toNanos(backoffMillis);
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = new Replica(i, replicas.get(i));
+            this.replicas.add(replica);
+            targets.put(i, replica);
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        setLenientFallback(false);
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        int count = replicas.size();
+        if (count == 0) {
+            return PRIMARY;
+        }
+        int start = Math.floorMod(next.getAndIncrement(), count);
+        long now = System.nanoTime();
+        Object chosen = PRIMARY;
+        int fewest = Integer.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            int index = (start + i) % count;
+            Replica replica = replicas.get(index);
+            if (!replica.isAvailable()) {
+                // 退避结束的副本优先用来探测,否则它不会被重新选中
+                if (replica.claimProbe(now)) {
+                    return index;
+                }
+                continue;
+            }
+            if (!leastConnections) {
+                return index;
+            }
+            int leased = replica.leased.get();
+            if (leased < fewest) {
+                fewest = leased;
+                chosen = index;
+            }
+        }
+        return chosen;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        try {
+            return super.getConnection();
+        }
+        catch (SQLException ex) {
+            if (replicas.isEmpty()) {
+                throw ex;
+            }
+            logger.warn("get connection from replica failed, use primary: " + ex.getMessage());
+            return primary.getConnection();
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        try {
+            return super.getConnection(username, password);
+        }
+        catch (SQLException ex) {
+            if (replicas.isEmpty()) {
+                throw ex;
+            }
+            logger.warn("get connection from replica failed, use primary: " + ex.getMessage());
+            return primary.getConnection(username, password);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Replica replica : replicas) {
+            if (replica.getTargetDataSource() instanceof Closeable) {
+                ((Closeable) replica.getTargetDataSource()).close();
+            }
+        }
+    }
+
+    /**
+     * 一个副本:记录借出(尚未close)的连接数,用于least-connections;
+     * 以及获取连接失败后的退避
+     */
+    private class Replica extends DelegatingDataSource {
+
+        private final int index;
+
+        private final AtomicInteger leased = new AtomicInteger();
+
+        /**
+         * 0表示可用;否则在此时间(System.nanoTime)之前不选择该副本
+         */
+        private final AtomicLong retryAt = new AtomicLong();
+
+        Replica(int index, DataSource target) {
+            super(target);
+            this.index = index;
+        }
+
+        boolean isAvailable() {
+            return retryAt.get() == 0L;
+        }
+
+        /**
+         * 退避已经结束时,只让一个请求重新尝试该副本;尝试结束之前其他请求仍然跳过它
+         * @return 当前请求是否应该尝试该副本
+         */
+        boolean claimProbe(long now) {
+            long at = retryAt.get();
+            return at != 0L && now - at >= 0 && retryAt.compareAndSet(at, (now + backoffNanos) | 1L);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            try {
+                return lease(super.getConnection());
+            }
+            catch (SQLException ex) {
+                backoff();
+                throw ex;
+            }
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            try {
+                return lease(super.getConnection(username, password));
+            }
+            catch (SQLException ex) {
+                backoff();
+                throw ex;
+            }
+        }
+
+        private void backoff() {
+            // 避免与System.nanoTime()相加后恰好为0,被当作可用
+            long at = (System.nanoTime() + backoffNanos) | 1L;
+            retryAt.set(at);
+            logger.warn(String.format("replica %d unavailable, skipped for %d ms",
+                    index, TimeUnit.NANOSECONDS.toMillis(backoffNanos)));
+        }
+
+        /**
+         * 包装连接,在第一次close时归还计数
+         */
+        private Connection lease(Connection con) {
+            retryAt.set(0L);
+            leased.incrementAndGet();
+            AtomicBoolean closed = new AtomicBoolean();
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[] {Connection.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "close":
+                                if (closed.compareAndSet(false, true)) {
+                                    leased.decrementAndGet();
+                                }
+                                break;
+                        }
+                        try {
+                            return method.invoke(con, args);
+                        }
+                        catch (InvocationTargetException ex) {
+                            throw ex.getTargetException();
+                        }
+                    });
+        }
+    }
+}
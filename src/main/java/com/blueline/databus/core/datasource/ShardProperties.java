@@ -0,0 +1,91 @@
+package com.blueline.databus.core.datasource;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 核心数据库的分片配置(application.yml中的db.shards)
+ * <pre>
+ *     <code>
+ *     db:
+ *         shards:
+ *             servers:
+ *                 s1:
+ *                     url: jdbc:mysql://db1:3306/?useSSL=false&amp;...
+ *                     username: dave
+ *                     password: 123123
+ *             databases:
+ *                 tenant_a: s1
+ *     </code>
+ * </pre>
+ * <ul>
+ *     <li>servers:分片名称 -&gt; 连接信息;username/password缺省时与db.core相同,
+ *     url的参数应与db.core.url相同(如批量导入需要的allowLoadLocalInfile)</li>
+ *     <li>databases:dbName -&gt; 分片名称;没有列出的dbName都在db.core上</li>
+ * </ul>
+ * 分片名称core保留给db.core
+ * @see ShardRouter
+ */
+@Component
+@ConfigurationProperties(prefix = "db.shards")
+public class ShardProperties {
+
+    private Map<String, Server> servers = new LinkedHashMap<>();
+
+    private Map<String, String> databases = new LinkedHashMap<>();
+
+    public Map<String, Server> getServers() {
+        return servers;
+    }
+
+    public void setServers(Map<String, Server> servers) {
+        this.servers = servers;
+    }
+
+    public Map<String, String> getDatabases() {
+        return databases;
+    }
+
+    public void setDatabases(Map<String, String> databases) {
+        this.databases = databases;
+    }
+
+    /**
+     * 一个分片的连接信息
+     */
+    public static class Server {
+
+        private String url;
+
+        private String username;
+
+        private String password;
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public void setUsername(String username) {
+            this.username = username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public void setPassword(String password) {
+            this.password = password;
+        }
+    }
+}
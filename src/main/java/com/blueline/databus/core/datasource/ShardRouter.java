@@ -0,0 +1,165 @@
+package com.blueline.databus.core.datasource;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按dbName找到用户数据库所在的分片(见ShardProperties)
+ * <p>
+ *     分片core即db.core(包括它的只读副本,见CoreDataSourceConfig),没有列出的dbName都在core上;
+ *     其他分片各有自己的连接池(名称为shard-{分片名称},参数见db.pool),查询和写入都使用该连接池
+ * </p>
+ * <p>
+ *     配置中引用了不存在的分片时启动失败
+ * </p>
+ */
+@Component
+public class ShardRouter {
+    private static final Logger logger = Logger.getLogger(ShardRouter.class);
+
+    public static final String CORE = "core";
+
+    @Value("${db.core.driverManager}")
+    private String coreDriverManager;
+
+    @Value("${db.core.username}")
+    private String coreUsername;
+
+    @Value("${db.core.password}")
+    private String corePassword;
+
+    @Autowired
+    private JdbcTemplate templateCore;
+
+    @Autowired
+    private JdbcTemplate templateCoreRead;
+
+    @Autowired
+    private TransactionTemplate txTemplateCore;
+
+    @Autowired
+    private ShardProperties shardProperties;
+
+    @Autowired
+    private DataSourcePoolFactory poolFactory;
+
+    private Shard core;
+
+    private final Map<String, Shard> shards = new HashMap<>();
+
+    private final Map<String, Shard> databases = new HashMap<>();
+
+    private final List<DataSource> pools = new ArrayList<>();
+
+    @PostConstruct
+    public void init() {
+        core = new Shard(CORE, templateCore, templateCoreRead, txTemplateCore);
+        shards.put(CORE, core);
+
+        shardProperties.getServers().forEach((name, server) -> {
+            if (CORE.equals(name)) {
+                throw new IllegalArgumentException("db.shards.servers: shard name 'core' is reserved for db.core");
+            }
+            if (server.getUrl() == null || server.getUrl().isEmpty()) {
+                throw new IllegalArgumentException("db.shards.servers." + name + ".url missed");
+            }
+            DataSource ds = poolFactory.create("shard-" + name, coreDriverManager, server.getUrl(),
+                    server.getUsername() != null ? server.getUsername() : coreUsername,
+                    server.getPassword() != null ? server.getPassword() : corePassword);
+            pools.add(ds);
+            JdbcTemplate template = new DmlJdbcTemplate(ds);
+            shards.put(name, new Shard(name, template, template,
+                    new TransactionTemplate(new DataSourceTransactionManager(ds))));
+        });
+
+        shardProperties.getDatabases().forEach((dbName, shardName) -> {
+            Shard shard = shards.get(shardName);
+            if (shard == null) {
+                throw new IllegalArgumentException(String.format(
+                        "db.shards.databases.%s: unknown shard %s, expected one of %s",
+                        dbName, shardName, shards.keySet()));
+            }
+            databases.put(dbName, shard);
+        });
+        logger.info(String.format("core shards: %s, databases mapped: %d", shards.keySet(), databases.size()));
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        for (DataSource ds : pools) {
+            if (ds instanceof Closeable) {
+                ((Closeable) ds).close();
+            }
+        }
+    }
+
+    /**
+     * @param dbName 用户数据库名
+     * @return 该数据库所在的分片;没有配置的数据库在core上
+     */
+    public Shard forDb(String dbName) {
+        Shard shard = databases.get(dbName);
+        return shard != null ? shard : core;
+    }
+
+    /**
+     * 一个分片上访问数据库使用的JdbcTemplate和事务
+     */
+    public static class Shard {
+
+        private final String name;
+
+        private final JdbcTemplate template;
+
+        private final JdbcTemplate readTemplate;
+
+        private final TransactionTemplate txTemplate;
+
+        public Shard(String name, JdbcTemplate template, JdbcTemplate readTemplate, TransactionTemplate txTemplate) {
+            this.name = name;
+            this.template = template;
+            this.readTemplate = readTemplate;
+            this.txTemplate = txTemplate;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return 写入和DDL使用的JdbcTemplate
+         */
+        public JdbcTemplate getTemplate() {
+            return template;
+        }
+
+        /**
+         * @return 只读查询使用的JdbcTemplate;core以外的分片与getTemplate相同
+         */
+        public JdbcTemplate getReadTemplate() {
+            return readTemplate;
+        }
+
+        /**
+         * @return 该分片上的编程式事务
+         */
+        public TransactionTemplate getTxTemplate() {
+            return txTemplate;
+        }
+    }
+}
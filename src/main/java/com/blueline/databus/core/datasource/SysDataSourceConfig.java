@@ -1,7 +1,6 @@
 package com.blueline.databus.core.datasource;
 
-import com.mchange.v2.c3p0.ComboPooledDataSource;
-import com.mchange.v2.c3p0.DriverManagerDataSource;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -15,7 +14,7 @@ import javax.sql.DataSource;
 import java.beans.PropertyVetoException;
 
 /**
- * 使用JDBC(c3p0连接池)
+ * 使用JDBC(连接池见DataSourcePoolFactory)
  * 配置用于系统数据库(数据总线的系统数据定义)的数据源
  */
 @Configuration
@@ -34,14 +33,15 @@ public class SysDataSourceConfig {
     @Value("${db.sys.password}")
     private String sysPassword;
 
+    @Autowired
+    private DataSourcePoolFactory poolFactory;
+
+    /**
+     * 连接池的实现和参数见DataSourcePoolFactory(application.yml中的db.pool)
+     */
     @Bean
-    public DataSource dsSys() throws PropertyVetoException {
-        ComboPooledDataSource sysDS = new ComboPooledDataSource();
-        sysDS.setDriverClass(sysDriverManager);
-        sysDS.setJdbcUrl(sysUrl);
-        sysDS.setUser(sysUsername);
-        sysDS.setPassword(sysPassword);
-        return sysDS;
+    public DataSource dsSys() {
+        return poolFactory.create("sys", sysDriverManager, sysUrl, sysUsername, sysPassword);
     }
 
     @Bean
@@ -0,0 +1,66 @@
+package com.blueline.databus.core.datasource;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * 包装连接池,记录每次获取连接的等待时间和失败次数;
+ * 用于本身不提供这些指标的连接池实现(如c3p0)
+ * <p>
+ *     close时关闭被包装的连接池
+ * </p>
+ */
+public class TimedDataSource extends DelegatingDataSource implements Closeable {
+
+    private final PoolMetrics metrics;
+
+    public TimedDataSource(DataSource target, PoolMetrics metrics) {
+        super(target);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Connection con = super.getConnection();
+            metrics.recordAcquire(System.nanoTime() - start);
+            return con;
+        }
+        catch (SQLException ex) {
+            metrics.recordAcquireFailure();
+            throw ex;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Connection con = super.getConnection(username, password);
+            metrics.recordAcquire(System.nanoTime() - start);
+            return con;
+        }
+        catch (SQLException ex) {
+            metrics.recordAcquireFailure();
+            throw ex;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (getTargetDataSource() instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) getTargetDataSource()).close();
+            }
+            catch (Exception ex) {
+                throw new IOException(ex.getMessage(), ex);
+            }
+        }
+    }
+}
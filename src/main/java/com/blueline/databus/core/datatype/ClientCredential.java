@@ -0,0 +1,48 @@
+package com.blueline.databus.core.datatype;
+
+/**
+ * 认证client时需要的信息(缓存在内存中,不对外输出):
+ * <ul>
+ *     <li>name - client名</li>
+ *     <li>appKey</li>
+ *     <li>sKey - 计算MAC使用的密钥</li>
+ *     <li>status - 状态;0为正常,1为挂起</li>
+ * </ul>
+ */
+public class ClientCredential {
+
+    private final String name;
+
+    private final String appKey;
+
+    private final String sKey;
+
+    private final int status;
+
+    public ClientCredential(String name, String appKey, String sKey, int status) {
+        this.name = name;
+        this.appKey = appKey;
+        this.sKey = sKey;
+        this.status = status;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getAppKey() {
+        return appKey;
+    }
+
+    public String getSKey() {
+        return sKey;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public boolean isSuspended() {
+        return status == 1;
+    }
+}
@@ -0,0 +1,28 @@
+package com.blueline.databus.core.datatype;
+
+/**
+ * 一页数据查询的结果:
+ * <ul>
+ *     <li>data - 数据的json字符串</li>
+ *     <li>nextCursor - 取下一页时使用的游标(作为_after参数的值);没有更多数据时为空字符串</li>
+ * </ul>
+ */
+public class DataPage {
+
+    private String data;
+
+    private String nextCursor;
+
+    public DataPage(String data, String nextCursor) {
+        this.data = data;
+        this.nextCursor = nextCursor;
+    }
+
+    public String getData() {
+        return data;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
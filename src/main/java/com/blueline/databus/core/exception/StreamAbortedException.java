@@ -0,0 +1,11 @@
+package com.blueline.databus.core.exception;
+
+/**
+ * 流式输出的响应已经提交(部分数据已发出)之后出错,无法再返回错误信息;
+ * 抛出到servlet容器,由容器中断连接,客户端得到不完整的响应,而不是看似正常结束的json
+ */
+public class StreamAbortedException extends RuntimeException {
+    public StreamAbortedException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+}
@@ -0,0 +1,90 @@
+package com.blueline.databus.core.filter;
+
+import com.blueline.databus.core.helper.ApiMetrics;
+import com.blueline.databus.core.helper.RequestTimer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * 本filter处于所有api filter的最外层,
+ * 为每个请求开始计时,请求结束后将各阶段耗时和结果记入ApiMetrics
+ * <p>
+ *     统计按controller匹配的路径模式(请求处理后由HandlerMapping设置在请求属性中)区分,
+ *     而不是请求的路径,避免路径中的参数值使统计的条目无限增长
+ * </p>
+ * <p>
+ *     异步执行的请求(见DmlExecutor)在filter返回时还没有结束,
+ *     此时改为在请求完成(AsyncListener#onComplete)时记录fork出的RequestTimer;
+ *     所有请求共用同一个AsyncListener,method、路径模式和timer都在完成时从请求中读取
+ * </p>
+ * @see RequestTimer
+ */
+public class ApiMetricsFilter implements Filter {
+
+    @Autowired
+    private ApiMetrics apiMetrics;
+
+    private final AsyncListener asyncCompletion = new AsyncListener() {
+        @Override
+        public void onComplete(AsyncEvent event) {
+            ServletRequest req = event.getSuppliedRequest() != null
+                    ? event.getSuppliedRequest() : event.getAsyncContext().getRequest();
+            ServletResponse resp = event.getSuppliedResponse() != null
+                    ? event.getSuppliedResponse() : event.getAsyncContext().getResponse();
+            HttpServletRequest request = (HttpServletRequest)req;
+            RequestTimer timer = (RequestTimer) request.getAttribute(RequestTimer.ASYNC_ATTRIBUTE);
+            if (timer != null) {
+                timer.end();
+                apiMetrics.record(request.getMethod(), route(request), timer, ((HttpServletResponse)resp).getStatus());
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {}
+
+        @Override
+        public void onError(AsyncEvent event) {}
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {}
+    };
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain)
+            throws IOException, ServletException {
+
+        RequestTimer timer = RequestTimer.begin();
+        try {
+            chain.doFilter(req, resp);
+        }
+        finally {
+            timer.end();
+            HttpServletRequest request = (HttpServletRequest)req;
+            if (request.isAsyncStarted() && request.getAttribute(RequestTimer.ASYNC_ATTRIBUTE) != null) {
+                request.getAsyncContext().addListener(asyncCompletion);
+            }
+            else {
+                apiMetrics.record(request.getMethod(), route(request), timer, ((HttpServletResponse)resp).getStatus());
+            }
+        }
+    }
+
+    /**
+     * @return controller匹配的路径模式;没有匹配到controller时为ApiMetrics.UNMATCHED
+     */
+    private static String route(HttpServletRequest request) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        return pattern != null ? pattern.toString() : ApiMetrics.UNMATCHED;
+    }
+
+    @Override
+    public void init(FilterConfig arg0) throws ServletException {}
+
+    @Override
+    public void destroy() {}
+}
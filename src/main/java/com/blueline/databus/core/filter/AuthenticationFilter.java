@@ -4,6 +4,7 @@ import com.blueline.databus.core.dao.ApiRecordService;
 import com.blueline.databus.core.datatype.*;
 
 import java.io.IOException;
+import javax.annotation.PostConstruct;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -15,7 +16,8 @@ import javax.servlet.http.HttpServletResponse;
 
 import com.blueline.databus.core.helper.FilterResponseRender;
 import com.blueline.databus.core.dao.SysDBDao;
-import com.blueline.databus.core.helper.MACHelper;
+import com.blueline.databus.core.helper.MACEngine;
+import com.blueline.databus.core.helper.RequestTimer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.util.StringUtils;
@@ -32,12 +34,22 @@ public class AuthenticationFilter implements Filter {
     @Value("${admin.skey}")
     private String adminSKey;
 
+    @Value("${default.macAlgorithm:md5}")
+    private String macAlgorithm;
+
+    private MACEngine macEngine;
+
     @Autowired
     private ApiRecordService apiRecordService;
 
     @Autowired
     private SysDBDao sysDBDao;
 
+    @PostConstruct
+    public void initMACEngine() {
+        macEngine = MACEngine.forName(macAlgorithm);
+    }
+
     /**
      * 从请求中获取的数据:
      * <ul>
@@ -49,9 +61,11 @@ public class AuthenticationFilter implements Filter {
      *
      * <ol>
      *     <li>首先判断必要的请求头部是否存在</li>
-     *     <li>使用头部的提供的appkey在数据库中查询对应的skey</li>
-     *     <li>计算MAC值:将{appkey}_{HTTP方法}_{url}作为payload,和查询出的skey组合,并计算MAC</li>
+     *     <li>使用头部的提供的appkey在缓存(没有则在数据库)中查询对应的skey</li>
+     *     <li>计算MAC值:将{appkey}_{HTTP方法}_{url}作为payload,和查询出的skey组合,
+     *     以配置的算法(default.macAlgorithm,默认md5)计算MAC</li>
      *     <li>比较计算出的MAC和请求头部x-mac获取的值进行比较</li>
+     *     <li>拒绝已挂起的client</li>
      * </ol>
      *
      * @param req Servlet请求
@@ -59,12 +73,13 @@ public class AuthenticationFilter implements Filter {
      * @param chain Filter链
      * @throws IOException 可能抛出IOException
      * @throws ServletException 可能抛出ServletException
-     * @see MACHelper#calculateMAC(String, String)
+     * @see MACEngine
      */
     @Override
     public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain)
             throws IOException, ServletException {
 
+        long start = System.nanoTime();
         HttpServletRequest request = (HttpServletRequest)req;
         HttpServletResponse response = (HttpServletResponse)resp;
 
@@ -89,12 +104,15 @@ public class AuthenticationFilter implements Filter {
             return;
         }
 
+        // 普通client的skey和状态取自内存中的缓存,通常不需要查询数据库
         String skey;
+        ClientCredential credential = null;
         if (appKey.equals(adminAppKey)) {
             skey = adminSKey;
         }
         else {
-            skey = sysDBDao.getClientByAppKey(appKey).getSKey();
+            credential = sysDBDao.getCredentialByAppKey(appKey);
+            skey = credential == null ? null : credential.getSKey();
         }
 
         if (StringUtils.isEmpty(skey)) {
@@ -103,21 +121,29 @@ public class AuthenticationFilter implements Filter {
             return;
         }
 
-        // 计算MAC
-        // payload是 {app key}+{method}+{uri(?query string)}
-        String payload = String.format("%s_%s_%s",
-                appKey,
-                request.getMethod().toUpperCase(),
-                request.getRequestURI() +
-                (request.getQueryString() != null ? "?" + request.getQueryString() : ""));
-
-        String calculatedMAC = MACHelper.calculateMAC(skey, payload);
-        if (!mac.equals(calculatedMAC)) {
-            RestResult result = new RestResult(ResultType.FAIL,
-                    String.format("MAC not match. Expect: %s, actual: %s", calculatedMAC, mac));
+        // 计算并校验MAC
+        // payload是 {app key}+{method}+{uri(?query string)};分段写入摘要,不拼接字符串
+        String query = request.getQueryString();
+        MACEngine.Computation computation = macEngine.begin(skey)
+                .update(appKey).update('_')
+                .update(request.getMethod().toUpperCase()).update('_')
+                .update(request.getRequestURI());
+        if (query != null) {
+            computation.update('?').update(query);
+        }
+        // 不在响应中给出正确的MAC,否则常数时间的比较就失去了意义
+        if (!computation.matches(mac)) {
+            RestResult result = new RestResult(ResultType.FAIL, "MAC not match");
+            FilterResponseRender.render(response, result);
+            return;
+        }
+
+        if (credential != null && credential.isSuspended()) {
+            RestResult result = new RestResult(ResultType.FAIL, "client suspended: " + appKey);
             FilterResponseRender.render(response, result);
             return;
         }
+        RequestTimer.record(RequestTimer.Stage.AUTHENTICATION, start);
         chain.doFilter(req, resp);
     }
 
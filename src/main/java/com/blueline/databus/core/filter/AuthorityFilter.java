@@ -6,6 +6,8 @@ import com.blueline.databus.core.datatype.AclInfo;
 import com.blueline.databus.core.datatype.ClientInfo;
 import com.blueline.databus.core.datatype.RestResult;
 import com.blueline.databus.core.helper.FilterResponseRender;
+import com.blueline.databus.core.helper.RequestTimer;
+import com.blueline.databus.core.helper.SingleFlight;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 
@@ -13,6 +15,7 @@ import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static com.blueline.databus.core.datatype.ResultType.*;
 
@@ -31,6 +34,14 @@ public class AuthorityFilter implements Filter {
     @Autowired
     private SysDBDao sysDBDao;
 
+    @Value("${default.aclWarmUpWait:10}")
+    private long aclWarmUpWait;
+
+    /**
+     * 缓存未命中时,对同一 "{method} {api} {appKey}" 的并发数据库查询只执行一次
+     */
+    private final SingleFlight<String, Boolean> aclLookup = new SingleFlight<>();
+
     /**
      * 从HTTP请求中获取:
      * <ul>
@@ -50,7 +61,8 @@ public class AuthorityFilter implements Filter {
      * </p>
      *
      * <p>
-     * 如果缓存中没有acl记录,但是通过查询数据库发现,将加载这条acl记录到缓存
+     * 如果缓存中没有acl记录,但是通过查询数据库发现,将加载这条acl记录到缓存;
+     * 数据库中也没有的,记录到拒绝缓存中,短时间内相同的请求不再查询数据库
      * </p>
      *
      * @param req servlet请求
@@ -65,6 +77,10 @@ public class AuthorityFilter implements Filter {
 
         HttpServletRequest request = (HttpServletRequest)req;
         String api    = request.getRequestURI();
+        // 批量导入与插入数据使用同一个权限: POST /api/data/{db}/{table}/_bulk => POST /api/data/{db}/{table}
+        if (api.startsWith("/api/data") && api.endsWith("/_bulk")) {
+            api = api.substring(0, api.length() - "/_bulk".length());
+        }
         String method = request.getMethod();
         String appKey = request.getHeader("x-appkey");
 
@@ -83,27 +99,45 @@ public class AuthorityFilter implements Filter {
                 return;
             }
 
+            long start = System.nanoTime();
+
+            // 启动预热完成前先等待(最多aclWarmUpWait秒),超时后按未预热处理
+            if (!aclCacheService.isWarmedUp()) {
+                aclCacheService.awaitWarmUp(aclWarmUpWait, TimeUnit.SECONDS);
+            }
+
             // first use this app key to check cache
             int redisCheckState = aclCacheService.checkAccess(api, method, appKey);
             if (redisCheckState == 1) {
                 // acl exists in cache, good
+                RequestTimer.record(RequestTimer.Stage.ACL, start);
                 chain.doFilter(req, resp);
                 return;
             }
             else if (redisCheckState == 0 || redisCheckState == -2) {
                 // if acl doesn't exist in cache or error happened while search cache
                 // search the acl in database
-                List<AclInfo> aclInfoList = sysDBDao.checkAclInfoByAppKey(api, method, appKey);
-
-                // if acl exists in database, good. then load it to cache
-                if (aclInfoList != null && aclInfoList.size() > 0) {
-                    // 理论上只有一个满足条件的acl被找到，这里如果找到多个，只取第一条load至缓存
-                    aclCacheService.loadOneAcl(aclInfoList.get(0));
+                final String aclApi = api;
+                boolean granted = aclLookup.execute(method + " " + api + " " + appKey, () -> {
+                    List<AclInfo> aclInfoList = sysDBDao.checkAclInfoByAppKey(aclApi, method, appKey);
+
+                    // if acl exists in database, good. then load it to cache
+                    if (aclInfoList != null && aclInfoList.size() > 0) {
+                        // 理论上只有一个满足条件的acl被找到，这里如果找到多个，只取第一条load至缓存
+                        aclCacheService.loadOneAcl(aclInfoList.get(0));
+                        return true;
+                    }
+                    aclCacheService.markDenied(aclApi, method, appKey);
+                    return false;
+                });
+                if (granted) {
+                    RequestTimer.record(RequestTimer.Stage.ACL, start);
                     chain.doFilter(req, resp);
                     return;
                 }
             }
 
+            RequestTimer.record(RequestTimer.Stage.ACL, start);
             RestResult result = new RestResult(FAIL, "No Access");
             FilterResponseRender.render(resp, result);
         }
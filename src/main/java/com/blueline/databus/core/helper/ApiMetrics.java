@@ -0,0 +1,129 @@
+package com.blueline.databus.core.helper;
+
+import com.blueline.databus.core.datatype.ResultType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按api(HTTP方法 + 路由)统计各阶段耗时分布和各结果类型的计数
+ * <p>
+ *     路由是controller中匹配的路径模式(如/api/data/{dbName}/{tableName}),
+ *     同一个接口不同参数值的请求计入同一条统计;没有匹配到controller的请求(如被filter拒绝)都计入{@link #UNMATCHED}
+ * </p>
+ * <p>
+ *     以方法和路径两级map保存,查找时不需要拼接键值字符串;
+ *     已有api的记录只是直方图和计数器的累加,不创建对象;
+ *     统计的api数目超过apiMetricsMaxApis后,新的api都计入"OTHER"
+ * </p>
+ * @see RequestTimer
+ * @see ApiMetricsEndpoint
+ */
+@Component
+public class ApiMetrics {
+
+    private static final ResultType[] RESULT_TYPES = ResultType.values();
+
+    /**
+     * 没有匹配到路由的请求使用的路由名称
+     */
+    public static final String UNMATCHED = "UNMATCHED";
+
+    @Value("${default.apiMetricsMaxApis:1024}")
+    private int maxApis;
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, ApiStats>> stats = new ConcurrentHashMap<>();
+
+    private final AtomicInteger apiCount = new AtomicInteger();
+
+    private final ApiStats other = new ApiStats();
+
+    /**
+     * 记录一次请求
+     * @param method HTTP方法
+     * @param route 匹配的路径模式,见HandlerMapping#BEST_MATCHING_PATTERN_ATTRIBUTE;没有匹配时为{@link #UNMATCHED}
+     * @param timer 已经结束的请求计时
+     * @param status HTTP状态码,用于没有记录结果类型的请求(如流式输出)
+     */
+    public void record(String method, String route, RequestTimer timer, int status) {
+        ApiStats api = lookup(method, route);
+        for (RequestTimer.Stage stage : RequestTimer.STAGES) {
+            long nanos = timer.getNanos(stage);
+            if (nanos > 0) {
+                api.latency[stage.ordinal()].record(nanos);
+            }
+        }
+        ResultType resultType = timer.getResultType();
+        if (resultType == null) {
+            resultType = status < 400 ? ResultType.OK : ResultType.ERROR;
+        }
+        api.results[resultType.ordinal()].increment();
+    }
+
+    /**
+     * @return 各api的统计快照:{"GET /api/...": {"latency": {"TOTAL": {...}, ...}, "results": {"OK": n, ...}}}
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new TreeMap<>();
+        stats.forEach((method, apis) -> apis.forEach((route, api) -> result.put(method + " " + route, api.snapshot())));
+        if (other.latency[RequestTimer.Stage.TOTAL.ordinal()].getCount() > 0) {
+            result.put("OTHER", other.snapshot());
+        }
+        return result;
+    }
+
+    private ApiStats lookup(String method, String route) {
+        ConcurrentHashMap<String, ApiStats> apis = stats.get(method);
+        if (apis == null) {
+            apis = stats.computeIfAbsent(method, key -> new ConcurrentHashMap<>());
+        }
+        ApiStats api = apis.get(route);
+        if (api != null) {
+            return api;
+        }
+        if (apiCount.get() >= maxApis) {
+            return other;
+        }
+        return apis.computeIfAbsent(route, key -> {
+            apiCount.incrementAndGet();
+            return new ApiStats();
+        });
+    }
+
+    private static class ApiStats {
+        private final LatencyHistogram[] latency = new LatencyHistogram[RequestTimer.STAGES.length];
+        private final LongAdder[] results = new LongAdder[RESULT_TYPES.length];
+
+        ApiStats() {
+            for (int i = 0; i < latency.length; i++) {
+                latency[i] = new LatencyHistogram();
+            }
+            for (int i = 0; i < results.length; i++) {
+                results[i] = new LongAdder();
+            }
+        }
+
+        Map<String, Object> snapshot() {
+            Map<String, Object> latencies = new LinkedHashMap<>();
+            for (RequestTimer.Stage stage : RequestTimer.STAGES) {
+                if (latency[stage.ordinal()].getCount() > 0) {
+                    latencies.put(stage.name(), latency[stage.ordinal()].snapshot());
+                }
+            }
+            Map<String, Object> counts = new LinkedHashMap<>();
+            for (ResultType type : RESULT_TYPES) {
+                counts.put(type.toString(), results[type.ordinal()].sum());
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("latency", latencies);
+            result.put("results", counts);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.blueline.databus.core.helper;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * actuator端点<code>/apimetrics</code>:输出各api的分阶段耗时百分位数(毫秒)和各结果类型的计数
+ * <pre><code>
+ *     {"GET /api/data/db/t": {
+ *         "latency": {"ACL": {"count":10, "mean":0.02, "p50":0.015, ...}, "TOTAL": {...}},
+ *         "results": {"OK":9, "FAIL":1, "ERROR":0, "UNKNOWN":0}}}
+ * </code></pre>
+ * @see ApiMetrics
+ */
+@Component
+public class ApiMetricsEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+    @Autowired
+    private ApiMetrics apiMetrics;
+
+    public ApiMetricsEndpoint() {
+        super("apimetrics");
+    }
+
+    @Override
+    public Map<String, Object> invoke() {
+        return apiMetrics.snapshot();
+    }
+}
@@ -0,0 +1,178 @@
+package com.blueline.databus.core.helper;
+
+import com.blueline.databus.core.datatype.ColumnInfo;
+import com.blueline.databus.core.exception.InternalException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 将BulkLoadReader读出的数据转换为LOAD DATA INFILE的默认格式(制表符分隔、反斜杠转义、换行结束、\N表示NULL)的输入流;
+ * 供MySQL驱动的LOAD DATA LOCAL INFILE直接读取,不需要临时文件
+ * <p>
+ *     数据是在驱动读取时逐行转换的,内存中只保留一行;
+ *     列名在构造时检查,每行的值在转换时按列信息检查(字符类型的长度);
+ *     检查失败时read抛出IOException,同时记录错误信息(见getError),
+ *     因为驱动会把IOException包装成一个含义不明确的SQLException
+ * </p>
+ */
+public class BulkLoadInputStream extends InputStream {
+
+    private final BulkLoadReader reader;
+
+    private final List<String> columnNames;
+
+    private final ColumnInfo[] columns;
+
+    private byte[] bytes = new byte[0];
+
+    private int position = 0;
+
+    private long rowCount = 0;
+
+    private boolean finished = false;
+
+    private String error;
+
+    /**
+     * @param reader 数据读取器
+     * @param columnInfoList 目标表的列信息
+     * @throws IOException 读取列名出错
+     * @throws InternalException 数据中有表中不存在的列或重复的列
+     */
+    public BulkLoadInputStream(BulkLoadReader reader, final List<ColumnInfo> columnInfoList)
+            throws IOException, InternalException {
+        this.reader = reader;
+        this.columnNames = reader.readHeader();
+
+        Map<String, ColumnInfo> columnMap = new HashMap<>();
+        columnInfoList.forEach(col -> columnMap.put(col.getName().toLowerCase(), col));
+
+        this.columns = new ColumnInfo[columnNames.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = columnMap.get(columnNames.get(i).toLowerCase());
+            if (columns[i] == null) {
+                throw new InternalException("unknown column: " + columnNames.get(i));
+            }
+            if (columnNames.subList(0, i).contains(columnNames.get(i))) {
+                throw new InternalException("duplicate column: " + columnNames.get(i));
+            }
+        }
+    }
+
+    /**
+     * @return 数据中的列名(LOAD DATA语句的列列表)
+     */
+    public List<String> getColumnNames() {
+        return columnNames;
+    }
+
+    /**
+     * @return 已经转换的行数
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return 检查或读取数据时的错误信息;没有错误为null
+     */
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return bytes[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, bytes.length - position);
+        System.arraycopy(bytes, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * 当前行读完时转换下一行
+     * @return 是否还有数据
+     */
+    private boolean fill() throws IOException {
+        while (position >= bytes.length) {
+            if (finished) {
+                return false;
+            }
+            try {
+                String[] row = reader.readRow();
+                if (row == null) {
+                    finished = true;
+                    return false;
+                }
+                encode(row);
+            }
+            catch (IOException ex) {
+                error = ex.getMessage();
+                finished = true;
+                throw ex;
+            }
+        }
+        return true;
+    }
+
+    private void encode(String[] row) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+                line.append('\t');
+            }
+            String value = row[i];
+            if (value == null) {
+                line.append("\\N");
+                continue;
+            }
+
+            int maxLength = columns[i].getDataLength();
+            String type = columns[i].getDataType();
+            if (maxLength > 0 && (type.equals("CHAR") || type.equals("VARCHAR"))
+                    && value.codePointCount(0, value.length()) > maxLength) {
+                throw reader.error(String.format("value of column %s is longer than %d", columnNames.get(i), maxLength));
+            }
+
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                switch (c) {
+                    case '\\': line.append("\\\\"); break;
+                    case '\t': line.append("\\t"); break;
+                    case '\n': line.append("\\n"); break;
+                    case '\r': line.append("\\r"); break;
+                    case '\0': line.append("\\0"); break;
+                    default: line.append(c);
+                }
+            }
+        }
+        line.append('\n');
+
+        bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        position = 0;
+        rowCount++;
+    }
+}
@@ -0,0 +1,271 @@
+package com.blueline.databus.core.helper;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 批量导入数据的读取器:从输入流中逐行读取数据,每次只保留一行
+ * <ul>
+ *     <li>readHeader - 读取列名(只调用一次)</li>
+ *     <li>readRow - 按列名的顺序读取一行的值(null表示NULL);读完返回null</li>
+ * </ul>
+ * 支持两种格式:
+ * <ul>
+ *     <li>
+ *         <strong>ndjson</strong>:每行一个json对象;第一行的键作为列名,之后每行的键必须与第一行相同;
+ *         <pre><code>{"name":"dave","age":18}
+ * {"name":"mike","age":null}</code></pre>
+ *     </li>
+ *     <li>
+ *         <strong>csv</strong>:第一行是列名;值可以用双引号括起(其中的双引号写作两个双引号,可以包含逗号和换行);
+ *         不带引号的<code>\N</code>表示NULL
+ *         <pre><code>name,age
+ * dave,18
+ * "mike, jr.",\N</code></pre>
+ *     </li>
+ * </ul>
+ */
+public abstract class BulkLoadReader implements Closeable {
+
+    protected final BufferedReader reader;
+
+    protected long lineNumber = 0;
+
+    protected BulkLoadReader(InputStream in) {
+        this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 读取列名
+     * @return 列名的列表
+     * @throws IOException 读取出错或没有数据
+     */
+    public abstract List<String> readHeader() throws IOException;
+
+    /**
+     * 读取一行数据
+     * @return 按列名顺序排列的值;读完返回null
+     * @throws IOException 读取出错或格式错误
+     */
+    public abstract String[] readRow() throws IOException;
+
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * 按格式名创建读取器
+     * @param format 格式名:"ndjson"或"csv"(不区分大小写)
+     * @param in 输入流
+     * @param mapReader 读取json对象的ObjectReader(ndjson使用)
+     * @return 读取器
+     * @throws IllegalArgumentException 不支持的格式
+     */
+    public static BulkLoadReader of(String format, InputStream in, ObjectReader mapReader) {
+        if ("csv".equalsIgnoreCase(format)) {
+            return new CsvReader(in);
+        }
+        else if ("ndjson".equalsIgnoreCase(format)) {
+            return new NdjsonReader(in, mapReader);
+        }
+        throw new IllegalArgumentException("unsupported bulk format: " + format);
+    }
+
+    protected IOException error(String message) {
+        return new IOException(String.format("line %d: %s", lineNumber, message));
+    }
+
+    /**
+     * 每行一个json对象
+     */
+    static class NdjsonReader extends BulkLoadReader {
+        private final ObjectReader mapReader;
+        private List<String> header;
+        private Map<String, Object> firstRow;
+
+        NdjsonReader(InputStream in, ObjectReader mapReader) {
+            super(in);
+            this.mapReader = mapReader;
+        }
+
+        @Override
+        public List<String> readHeader() throws IOException {
+            firstRow = readObject();
+            if (firstRow == null) {
+                throw error("no data found");
+            }
+            header = new ArrayList<>(firstRow.keySet());
+            return header;
+        }
+
+        @Override
+        public String[] readRow() throws IOException {
+            Map<String, Object> row;
+            if (firstRow != null) {
+                row = firstRow;
+                firstRow = null;
+            }
+            else {
+                row = readObject();
+            }
+            if (row == null) {
+                return null;
+            }
+
+            if (row.size() != header.size() || !row.keySet().containsAll(header)) {
+                throw error("keys should be the same as the first line: " + header);
+            }
+            String[] values = new String[header.size()];
+            for (int i = 0; i < values.length; i++) {
+                Object value = row.get(header.get(i));
+                if (value instanceof Map || value instanceof List) {
+                    throw error("nested value is not supported: " + header.get(i));
+                }
+                else if (value instanceof Boolean) {
+                    values[i] = (Boolean) value ? "1" : "0";
+                }
+                else {
+                    values[i] = value == null ? null : value.toString();
+                }
+            }
+            return values;
+        }
+
+        private Map<String, Object> readObject() throws IOException {
+            String line;
+            do {
+                line = reader.readLine();
+                lineNumber++;
+                if (line == null) {
+                    return null;
+                }
+            } while (line.trim().isEmpty());
+
+            try {
+                return mapReader.readValue(line);
+            }
+            catch (JsonProcessingException ex) {
+                throw error("bad json: " + ex.getOriginalMessage());
+            }
+        }
+    }
+
+    /**
+     * 逗号分隔,第一行是列名
+     */
+    static class CsvReader extends BulkLoadReader {
+        private int columnCount;
+
+        CsvReader(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public List<String> readHeader() throws IOException {
+            List<String> header = readRecord();
+            if (header == null) {
+                throw error("no data found");
+            }
+            columnCount = header.size();
+            return header;
+        }
+
+        @Override
+        public String[] readRow() throws IOException {
+            List<String> record;
+            do {
+                record = readRecord();
+                if (record == null) {
+                    return null;
+                }
+                // 跳过空行
+            } while (record.size() == 1 && "".equals(record.get(0)));
+
+            if (record.size() != columnCount) {
+                throw error(String.format("expect %d fields, actual %d", columnCount, record.size()));
+            }
+            return record.toArray(new String[columnCount]);
+        }
+
+        /**
+         * 读取一条记录(带引号的值可以跨行)
+         */
+        private List<String> readRecord() throws IOException {
+            String line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+            lineNumber++;
+
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            boolean wasQuoted = false;
+            int i = 0;
+            while (true) {
+                if (i >= line.length()) {
+                    if (!quoted) {
+                        break;
+                    }
+                    // 引号中的换行
+                    line = reader.readLine();
+                    if (line == null) {
+                        throw error("unclosed quote");
+                    }
+                    lineNumber++;
+                    field.append('\n');
+                    i = 0;
+                    continue;
+                }
+
+                char c = line.charAt(i++);
+                if (quoted) {
+                    if (c == '"') {
+                        if (i < line.length() && line.charAt(i) == '"') {
+                            field.append('"');
+                            i++;
+                        }
+                        else {
+                            quoted = false;
+                        }
+                    }
+                    else {
+                        field.append(c);
+                    }
+                }
+                else if (c == ',') {
+                    fields.add(toValue(field, wasQuoted));
+                    field.setLength(0);
+                    wasQuoted = false;
+                }
+                else if (c == '"' && field.length() == 0 && !wasQuoted) {
+                    quoted = true;
+                    wasQuoted = true;
+                }
+                else {
+                    field.append(c);
+                }
+            }
+            fields.add(toValue(field, wasQuoted));
+            return fields;
+        }
+
+        private String toValue(StringBuilder field, boolean wasQuoted) {
+            String value = field.toString();
+            return (!wasQuoted && value.equals("\\N")) ? null : value;
+        }
+    }
+}
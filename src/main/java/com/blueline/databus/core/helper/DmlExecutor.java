@@ -0,0 +1,242 @@
+package com.blueline.databus.core.helper;
+
+import com.blueline.databus.core.datatype.RestResult;
+import com.blueline.databus.core.exception.StreamAbortedException;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletResponse;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 执行DML请求中访问数据库的部分
+ * <p>
+ *     开启异步执行(default.dmlAsync)时,任务在固定大小(default.dmlPoolSize)的线程池中执行,
+ *     controller返回DeferredResult,Jetty的请求线程不再等待数据库;
+ *     等待执行的任务最多default.dmlQueueCapacity个,队列已满时submit抛出RejectedExecutionException,
+ *     由controller返回503,而不是让请求无限排队
+ * </p>
+ * <p>
+ *     从提交起超过default.dmlTimeout毫秒(流式读写请求体/响应体的接口为default.dmlStreamTimeout)没有结果时,
+ *     请求以TimeoutException结束(由controller返回504):还在队列中的任务不再执行,正在执行的任务被中断,
+ *     之后产生的结果被丢弃;超时为0表示不超时
+ * </p>
+ * <p>
+ *     中断无法结束阻塞在socket读取上的JDBC调用,因此任务中执行的语句以剩余的时间为查询超时
+ *     (见queryTimeoutSeconds和DmlJdbcTemplate),由数据库结束超时的语句;
+ *     被中断的任务仍可能使用request/response,直到数据库调用返回;
+ *     超时时响应已经提交(流式输出已经开始)则不再返回504,而是以StreamAbortedException中断响应
+ * </p>
+ * <p>
+ *     超时应该明显长于正常的排队和执行时间,只用于结束异常的请求
+ * </p>
+ * <p>
+ *     任务在执行的线程上可以照常使用注入的HttpServletRequest/HttpServletResponse(传递了RequestContextHolder),
+ *     各阶段耗时记入该请求fork出的RequestTimer
+ * </p>
+ * <p>
+ *     关闭异步执行时任务在请求线程上直接执行,不排队也不拒绝
+ * </p>
+ * 线程池的状态和排队时间通过actuator端点<code>/executors</code>输出
+ * @see ExecutorMetricsEndpoint
+ */
+@Component
+public class DmlExecutor {
+    private static final Logger logger = Logger.getLogger(DmlExecutor.class);
+
+    @Value("${default.dmlAsync:true}")
+    private boolean async;
+
+    @Value("${default.dmlPoolSize:32}")
+    private int poolSize;
+
+    @Value("${default.dmlQueueCapacity:256}")
+    private int queueCapacity;
+
+    @Value("${default.dmlTimeout:30000}")
+    private long timeout;
+
+    @Value("${default.dmlStreamTimeout:600000}")
+    private long streamTimeout;
+
+    private ThreadPoolExecutor pool;
+
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder timedOut = new LongAdder();
+
+    /**
+     * 当前线程上执行的任务的截止时间(System.nanoTime);0表示不在任务中或任务不超时
+     */
+    private static final ThreadLocal<long[]> DEADLINE = ThreadLocal.withInitial(() -> new long[1]);
+
+    @PostConstruct
+    public void init() {
+        if (async) {
+            AtomicInteger threadCount = new AtomicInteger();
+            pool = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "dml-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    new ThreadPoolExecutor.AbortPolicy());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (pool != null) {
+            pool.shutdown();
+            if (!pool.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warn("dml executor: tasks still running at shutdown");
+            }
+        }
+    }
+
+    /**
+     * 提交任务;需要在请求线程上调用
+     * @param task 访问数据库并生成结果的任务
+     * @return 任务的结果;超过default.dmlTimeout时为TimeoutException
+     * @throws RejectedExecutionException 等待的任务已达上限
+     */
+    public DeferredResult<RestResult> submit(Supplier<RestResult> task) {
+        return submit(task, timeout);
+    }
+
+    /**
+     * 提交流式读取请求体或输出响应体的任务(如流式查询、批量导入),超时为default.dmlStreamTimeout
+     * @param task 访问数据库并生成结果的任务
+     * @return 任务的结果;超过default.dmlStreamTimeout时为TimeoutException
+     * @throws RejectedExecutionException 等待的任务已达上限
+     * @see #submit(Supplier)
+     */
+    public DeferredResult<RestResult> submitStream(Supplier<RestResult> task) {
+        return submit(task, streamTimeout);
+    }
+
+    private DeferredResult<RestResult> submit(Supplier<RestResult> task, long timeoutMillis) {
+        // AsyncContext的超时时间为0表示不超时
+        DeferredResult<RestResult> deferred = new DeferredResult<>(Math.max(timeoutMillis, 0L));
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        RequestTimer timer = RequestTimer.fork();
+        if (attributes != null && timer != null) {
+            attributes.setAttribute(RequestTimer.ASYNC_ATTRIBUTE, timer, RequestAttributes.SCOPE_REQUEST);
+        }
+        long submittedAt = System.nanoTime();
+        long deadline = timeoutMillis > 0 ? submittedAt + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0L;
+
+        Runnable runnable = () -> {
+            queueWait.record(System.nanoTime() - submittedAt);
+            RequestAttributes previousAttributes = RequestContextHolder.getRequestAttributes();
+            RequestTimer previousTimer = RequestTimer.attach(timer);
+            RequestContextHolder.setRequestAttributes(attributes);
+            long[] currentDeadline = DEADLINE.get();
+            long previousDeadline = currentDeadline[0];
+            currentDeadline[0] = deadline;
+            try {
+                RestResult result = task.get();
+                if (result != null) {
+                    RequestTimer.result(result.getResultType());
+                }
+                // 从这里到请求完成(切回servlet容器线程、输出结果)都记为SERIALIZATION
+                RequestTimer.serializing();
+                deferred.setResult(result);
+            }
+            catch (Throwable ex) {
+                deferred.setErrorResult(ex);
+            }
+            finally {
+                currentDeadline[0] = previousDeadline;
+                RequestContextHolder.setRequestAttributes(previousAttributes);
+                RequestTimer.attach(previousTimer);
+            }
+        };
+
+        FutureTask<Void> future = new FutureTask<>(runnable, null);
+        deferred.onTimeout(() -> {
+            timedOut.increment();
+            String message = String.format("dml request timed out after %d ms", timeoutMillis);
+            // 先设置结果再中断,被中断的任务返回的结果不会覆盖超时;
+            // 响应已经提交时无法再输出504,任务也可能还在写出数据,只能中断响应
+            deferred.setErrorResult(isCommitted(attributes)
+                    ? new StreamAbortedException(message, new TimeoutException(message))
+                    : new TimeoutException(message));
+            future.cancel(true);
+        });
+
+        Executor executor = pool != null ? pool : Runnable::run;
+        try {
+            executor.execute(future);
+        }
+        catch (RejectedExecutionException ex) {
+            rejected.increment();
+            if (attributes != null) {
+                attributes.removeAttribute(RequestTimer.ASYNC_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+            }
+            throw ex;
+        }
+        return deferred;
+    }
+
+    /**
+     * 在任务中执行的JDBC语句使用的查询超时
+     * @return 当前线程上执行的任务距离超时剩余的秒数(向上取整,至少为1);不在任务中或任务不超时时返回0
+     */
+    public static int queryTimeoutSeconds() {
+        long deadline = DEADLINE.get()[0];
+        if (deadline == 0L) {
+            return 0;
+        }
+        long remaining = deadline - System.nanoTime();
+        return (int) Math.max(1L, (remaining + 999_999_999L) / 1_000_000_000L);
+    }
+
+    private static boolean isCommitted(RequestAttributes attributes) {
+        if (!(attributes instanceof ServletRequestAttributes)) {
+            return false;
+        }
+        HttpServletResponse response = ((ServletRequestAttributes) attributes).getResponse();
+        return response != null && response.isCommitted();
+    }
+
+    /**
+     * @return 线程池状态:async, poolSize, active, queued, queueCapacity, completed, rejected, timedOut和queueWait(毫秒)
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("async", pool != null);
+        if (pool != null) {
+            result.put("poolSize", pool.getMaximumPoolSize());
+            result.put("active", pool.getActiveCount());
+            result.put("queued", pool.getQueue().size());
+            result.put("queueCapacity", queueCapacity);
+            result.put("completed", pool.getCompletedTaskCount());
+        }
+        result.put("rejected", rejected.sum());
+        result.put("timedOut", timedOut.sum());
+        result.put("queueWait", queueWait.snapshot());
+        return result;
+    }
+}
@@ -0,0 +1,34 @@
+package com.blueline.databus.core.helper;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * actuator端点<code>/executors</code>:输出执行请求的线程池的饱和程度和任务排队时间(毫秒)
+ * <pre><code>
+ *     {"dml": {"async":true, "poolSize":32, "active":5, "queued":0, "queueCapacity":256,
+ *              "completed":1000, "rejected":0, "queueWait": {"count":1000, "mean":0.02, ...}}}
+ * </code></pre>
+ * @see DmlExecutor
+ */
+@Component
+public class ExecutorMetricsEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+    @Autowired
+    private DmlExecutor dmlExecutor;
+
+    public ExecutorMetricsEndpoint() {
+        super("executors");
+    }
+
+    @Override
+    public Map<String, Object> invoke() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("dml", dmlExecutor.snapshot());
+        return result;
+    }
+}
@@ -1,6 +1,8 @@
 package com.blueline.databus.core.helper;
 
 import com.blueline.databus.core.datatype.RestResult;
+import com.blueline.databus.core.datatype.ResultType;
+import com.blueline.databus.core.exception.StreamAbortedException;
 
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -12,6 +14,7 @@ import javax.servlet.ServletResponse;
  */
 public class FilterResponseRender {
     public static void render(ServletResponse resp, RestResult result) {
+        RequestTimer.result(result.getResultType());
         PrintWriter writer = null;
         try {
             writer = new PrintWriter(resp.getOutputStream());
@@ -29,4 +32,19 @@ public class FilterResponseRender {
             }
         }
     }
+
+    /**
+     * 流式输出出错时使用:响应还没有提交时丢弃已缓冲的部分并返回错误信息;
+     * 已经提交时不能再补全json(否则客户端会收到截断但格式完整的OK结果),改为中断响应
+     * @param resp 响应
+     * @param ex 出错的原因
+     * @throws StreamAbortedException 响应已经提交
+     */
+    public static void renderStreamError(ServletResponse resp, Exception ex) {
+        if (resp.isCommitted()) {
+            throw new StreamAbortedException("stream aborted: " + ex.getMessage(), ex);
+        }
+        resp.resetBuffer();
+        render(resp, new RestResult(ResultType.ERROR, ex.getMessage()));
+    }
 }
@@ -0,0 +1,86 @@
+package com.blueline.databus.core.helper;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * 以流的方式逐个读取json数组中的对象,每个对象代表一行数据:
+ * <pre>
+ *     <code>[{"name":"dave", "age":"18"}, {"name":"mike"}, ...]</code>
+ * </pre>
+ * <p>
+ *     使用Jackson的JsonParser,每次只解码一个对象;
+ *     内存中不保留整个数组,因此可以处理任意大小的输入
+ * </p>
+ * <p>
+ *     读取中出现的IO错误或json格式错误以UncheckedIOException抛出
+ * </p>
+ */
+public class JsonRowIterator implements Iterator<Map<String, Object>>, Closeable {
+
+    private final ObjectReader mapReader;
+
+    private final JsonParser parser;
+
+    private JsonToken next;
+
+    /**
+     * @param mapReader 读取json对象的ObjectReader
+     * @param in json数组的输入流
+     * @throws IOException 输入流不是以json数组开始
+     */
+    public JsonRowIterator(ObjectReader mapReader, InputStream in) throws IOException {
+        this.mapReader = mapReader;
+        this.parser = mapReader.getFactory().createParser(in);
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            parser.close();
+            throw new IOException("request body should be a json array");
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = parser.nextToken();
+            }
+            catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            if (next != JsonToken.START_OBJECT && next != JsonToken.END_ARRAY) {
+                throw new UncheckedIOException(new IOException(
+                        "json array should contain only objects, but found: " + next));
+            }
+        }
+        return next == JsonToken.START_OBJECT;
+    }
+
+    @Override
+    public Map<String, Object> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            Map<String, Object> row = mapReader.readValue(parser);
+            next = null;
+            return row;
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+}
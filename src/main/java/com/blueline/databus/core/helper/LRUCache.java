@@ -0,0 +1,201 @@
+package com.blueline.databus.core.helper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * 容量有上限的近似LRU缓存(线程安全)
+ * <p>
+ *     读写基于ConcurrentHashMap,get不加锁,只记录条目最后一次被访问的时间;
+ *     put后超出容量时,由一个线程扫描整个缓存,按访问时间淘汰最久没有被访问的一批条目(约容量的1/10),
+ *     扫描的开销由多次put分摊;淘汰进行中其他线程的put不等待,缓存可能短暂超出容量
+ * </p>
+ * <p>
+ *     可以设置存活时间(TTL),条目放入缓存超过存活时间后视为不存在;
+ *     同时记录命中(hits)和未命中(misses)的次数,用于监控
+ * </p>
+ * @param <K> 键类型
+ * @param <V> 值类型
+ */
+public class LRUCache<K, V> {
+
+    private final int maxSize;
+
+    private final long ttlMillis;
+
+    /**
+     * 一次淘汰后的目标条目数
+     */
+    private final int evictTo;
+
+    private final ConcurrentHashMap<K, Entry<V>> map;
+
+    private final ReentrantLock evictLock = new ReentrantLock();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    public LRUCache(final int maxSize) {
+        this(maxSize, 0);
+    }
+
+    /**
+     * @param maxSize 最大条目数
+     * @param ttlMillis 条目的存活时间(毫秒);不大于0则永不过期
+     */
+    public LRUCache(final int maxSize, final long ttlMillis) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("cache size should be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.evictTo = maxSize - maxSize / 10;
+        this.map = new ConcurrentHashMap<>(Math.min(maxSize, 1024));
+    }
+
+    /**
+     * 取缓存的值
+     * @param key 键
+     * @return 缓存的值;没有则返回null
+     */
+    public V get(K key) {
+        Entry<V> entry = map.get(key);
+        if (entry != null) {
+            if (entry.isExpired()) {
+                map.remove(key, entry);
+            }
+            else {
+                entry.accessedAt = System.nanoTime();
+                hits.increment();
+                return entry.value;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * 取缓存的值,没有则用loader生成并放入缓存
+     * <p>
+     *     loader在锁外执行;并发的未命中可能重复执行loader,以最后放入的值为准,
+     *     因此loader应该是没有副作用的
+     * </p>
+     * @param key 键
+     * @param loader 生成值的函数;返回null则不缓存
+     * @return 缓存的值或新生成的值
+     */
+    public V get(K key, Function<K, V> loader) {
+        V value = get(key);
+        if (value == null) {
+            value = loader.apply(key);
+            if (value != null) {
+                put(key, value);
+            }
+        }
+        return value;
+    }
+
+    public void put(K key, V value) {
+        map.put(key, new Entry<>(value, ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : Long.MAX_VALUE));
+        if (map.size() > maxSize) {
+            evict();
+        }
+    }
+
+    public void remove(K key) {
+        map.remove(key);
+    }
+
+    /**
+     * 删除值满足条件的所有条目(需要遍历整个缓存)
+     * @param filter 条件
+     */
+    public void removeIf(Predicate<V> filter) {
+        map.values().removeIf(entry -> filter.test(entry.value));
+    }
+
+    public void clear() {
+        map.clear();
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * 先删除过期的条目,仍超出容量时按访问时间删除最旧的条目,直到不超过evictTo;
+     * 已有线程在淘汰时直接返回
+     */
+    private void evict() {
+        if (!evictLock.tryLock()) {
+            return;
+        }
+        try {
+            List<Map.Entry<K, Entry<V>>> entries = new ArrayList<>(map.size());
+            for (Map.Entry<K, Entry<V>> e : map.entrySet()) {
+                if (e.getValue().isExpired()) {
+                    map.remove(e.getKey(), e.getValue());
+                }
+                else {
+                    entries.add(e);
+                }
+            }
+            int excess = map.size() - evictTo;
+            if (excess <= 0 || map.size() <= maxSize || entries.isEmpty()) {
+                return;
+            }
+            // 先取出访问时间,避免并发的get改变比较结果;排序找到第excess旧的访问时间,不晚于它的条目被删除
+            long[] accessed = new long[entries.size()];
+            for (int i = 0; i < accessed.length; i++) {
+                accessed[i] = entries.get(i).getValue().accessedAt;
+            }
+            long[] sorted = accessed.clone();
+            Arrays.sort(sorted);
+            long threshold = sorted[Math.min(excess, sorted.length) - 1];
+            for (int i = 0; i < accessed.length && excess > 0; i++) {
+                Map.Entry<K, Entry<V>> e = entries.get(i);
+                if (accessed[i] <= threshold && map.remove(e.getKey(), e.getValue())) {
+                    excess--;
+                }
+            }
+        }
+        finally {
+            evictLock.unlock();
+        }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+        private volatile long accessedAt = System.nanoTime();
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+    }
+}
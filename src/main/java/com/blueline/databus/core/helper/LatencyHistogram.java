@@ -0,0 +1,129 @@
+package com.blueline.databus.core.helper;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 记录耗时分布的直方图(线程安全)
+ * <p>
+ *     与HdrHistogram相同的对数-线性分桶:64微秒以下每微秒一个桶,之上每个2的幂区间再均分为32个桶,
+ *     相对误差不超过1/32(约3%),最大可以记录约2^40微秒;
+ *     桶的数目是固定的,记录一次只是对数组元素和计数器的原子累加,不创建任何对象
+ * </p>
+ * <p>
+ *     百分位数在读取快照时从各桶的计数计算,取桶的上界
+ * </p>
+ */
+public class LatencyHistogram {
+
+    private static final int LINEAR_BUCKETS = 64;
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * 64 = 2^6,对数区间从2^6开始
+     */
+    private static final int FIRST_EXPONENT = 6;
+
+    private static final int MAX_EXPONENT = 40;
+
+    private static final int BUCKETS = LINEAR_BUCKETS + (MAX_EXPONENT - FIRST_EXPONENT + 1) * SUB_BUCKETS;
+
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 记录一次耗时
+     * @param nanos 耗时(纳秒)
+     */
+    public void record(long nanos) {
+        long micros = Math.min(Math.max(nanos / 1000, 0), MAX_VALUE);
+        counts.incrementAndGet(bucketOf(micros));
+        count.increment();
+        sum.add(micros);
+        long current;
+        while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+            // retry
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * 生成快照,数值单位为毫秒
+     * @return count, mean, p50, p90, p99, p999, max
+     */
+    public Map<String, Object> snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", total);
+        if (total == 0) {
+            return result;
+        }
+        result.put("mean", millis(sum.sum() / Math.max(count.sum(), 1)));
+        result.put("p50", millis(percentile(snapshot, total, 0.5)));
+        result.put("p90", millis(percentile(snapshot, total, 0.9)));
+        result.put("p99", millis(percentile(snapshot, total, 0.99)));
+        result.put("p999", millis(percentile(snapshot, total, 0.999)));
+        result.put("max", millis(max.get()));
+        return result;
+    }
+
+    /**
+     * @return 百分位数(微秒)
+     */
+    static long percentile(long[] snapshot, long total, double quantile) {
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && snapshot[i] > 0) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(snapshot.length - 1);
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + FIRST_EXPONENT;
+        int sub = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
@@ -0,0 +1,337 @@
+package com.blueline.databus.core.helper;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+/**
+ * 计算和校验MAC值
+ * <p>
+ *     每个线程持有自己的Computation:其中的MessageDigest/Mac实例、UTF-8编码缓冲区、
+ *     摘要结果和十六进制字符数组都是复用的;payload可以分段写入(不必先拼接成字符串),
+ *     校验时直接与请求头部的值逐字符比较,整个过程不分配对象
+ * </p>
+ * <p>
+ *     比较是常数时间的:结果不取决于第几个字符不同,避免通过响应时间逐位猜出MAC
+ * </p>
+ * <p>
+ *     目前支持两种算法(见forName):
+ * </p>
+ * <ul>
+ *     <li><code>md5</code>:<code>toHexString(MD5.hash("{skey}#{payload}"))</code>,与MACHelper相同,是默认算法</li>
+ *     <li><code>hmac-sha256</code>:<code>toHexString(HMAC-SHA256(key = skey, message = payload))</code></li>
+ * </ul>
+ * <pre>
+ *     <code>
+ *         MACEngine.Computation c = engine.begin(skey);
+ *         c.update(appKey).update('_').update(method).update('_').update(uri);
+ *         boolean ok = c.matches(macFromHeader);
+ *     </code>
+ * </pre>
+ */
+public abstract class MACEngine {
+
+    public static final String MD5 = "md5";
+
+    public static final String HMAC_SHA256 = "hmac-sha256";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final MACEngine md5Engine = new Md5Engine();
+
+    private static final MACEngine hmacSha256Engine = new HmacSha256Engine();
+
+    private final ThreadLocal<Computation> computations = ThreadLocal.withInitial(this::newComputation);
+
+    /**
+     * @param name 算法名称:md5或hmac-sha256(不区分大小写)
+     * @return 对应的共享实例
+     * @throws IllegalArgumentException 不支持的算法
+     */
+    public static MACEngine forName(String name) {
+        if (MD5.equalsIgnoreCase(name)) {
+            return md5Engine;
+        }
+        if (HMAC_SHA256.equalsIgnoreCase(name)) {
+            return hmacSha256Engine;
+        }
+        throw new IllegalArgumentException("unsupported MAC algorithm: " + name);
+    }
+
+    /**
+     * @return 算法名称
+     */
+    public abstract String name();
+
+    protected abstract Computation newComputation();
+
+    /**
+     * 开始一次计算;返回的是当前线程复用的实例,只能在当前线程中使用,
+     * 并且在下一次begin之前用完
+     * @param skey 客户端的secure key
+     * @return 当前线程的Computation
+     */
+    public Computation begin(String skey) {
+        Computation computation = computations.get();
+        computation.reset(skey);
+        return computation;
+    }
+
+    /**
+     * @param skey 客户端的secure key
+     * @param payload 需要计算的信息实体
+     * @return MAC字符(小写十六进制)
+     */
+    public String calculate(String skey, String payload) {
+        return begin(skey).update(payload).toHex();
+    }
+
+    /**
+     * @param skey 客户端的secure key
+     * @param payload 需要计算的信息实体
+     * @param mac 待校验的MAC
+     * @return MAC是否正确
+     */
+    public boolean verify(String skey, String payload, CharSequence mac) {
+        return begin(skey).update(payload).matches(mac);
+    }
+
+    /**
+     * 一次MAC计算;payload以UTF-8编码,分段写入摘要
+     */
+    public static abstract class Computation {
+
+        private final byte[] buffer = new byte[256];
+
+        private int position;
+
+        private final byte[] digest;
+
+        private final char[] hex;
+
+        protected Computation(int digestLength) {
+            this.digest = new byte[digestLength];
+            this.hex = new char[digestLength * 2];
+        }
+
+        /**
+         * 清除上一次的状态,并以新的skey开始
+         */
+        protected abstract void reset(String skey);
+
+        protected abstract void engineUpdate(byte[] input, int offset, int length);
+
+        /**
+         * 将摘要写入output(长度即摘要长度)
+         */
+        protected abstract void engineDigest(byte[] output);
+
+        /**
+         * 以UTF-8编码写入字符;不成对的代理字符按String.getBytes的方式写为'?'
+         * @param s 字符序列
+         * @return this
+         */
+        public Computation update(CharSequence s) {
+            int length = s.length();
+            for (int i = 0; i < length; i++) {
+                if (position > buffer.length - 4) {
+                    flush();
+                }
+                char ch = s.charAt(i);
+                if (ch < 0x80) {
+                    buffer[position++] = (byte) ch;
+                }
+                else if (ch < 0x800) {
+                    buffer[position++] = (byte) (0xC0 | (ch >> 6));
+                    buffer[position++] = (byte) (0x80 | (ch & 0x3F));
+                }
+                else if (Character.isSurrogate(ch)) {
+                    if (Character.isHighSurrogate(ch) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                        int cp = Character.toCodePoint(ch, s.charAt(++i));
+                        buffer[position++] = (byte) (0xF0 | (cp >> 18));
+                        buffer[position++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                        buffer[position++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                        buffer[position++] = (byte) (0x80 | (cp & 0x3F));
+                    }
+                    else {
+                        buffer[position++] = '?';
+                    }
+                }
+                else {
+                    buffer[position++] = (byte) (0xE0 | (ch >> 12));
+                    buffer[position++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (ch & 0x3F));
+                }
+            }
+            return this;
+        }
+
+        /**
+         * 写入一个ASCII字符(如分隔符)
+         * @param ch ASCII字符
+         * @return this
+         */
+        public Computation update(char ch) {
+            if (ch >= 0x80) {
+                return update(String.valueOf(ch));
+            }
+            if (position == buffer.length) {
+                flush();
+            }
+            buffer[position++] = (byte) ch;
+            return this;
+        }
+
+        /**
+         * 结束计算
+         * @return MAC字符(小写十六进制)
+         */
+        public String toHex() {
+            finish();
+            return new String(hex);
+        }
+
+        /**
+         * 结束计算,并以常数时间与mac比较(区分大小写,与原来的String.equals一致)
+         * @param mac 待校验的MAC,如请求头部x-mac的值
+         * @return 是否相同
+         */
+        public boolean matches(CharSequence mac) {
+            finish();
+            if (mac == null || mac.length() != hex.length) {
+                return false;
+            }
+            int diff = 0;
+            for (int i = 0; i < hex.length; i++) {
+                diff |= hex[i] ^ mac.charAt(i);
+            }
+            return diff == 0;
+        }
+
+        protected void clear() {
+            position = 0;
+        }
+
+        private void flush() {
+            engineUpdate(buffer, 0, position);
+            position = 0;
+        }
+
+        private void finish() {
+            flush();
+            engineDigest(digest);
+            for (int i = 0, j = 0; i < digest.length; i++) {
+                hex[j++] = HEX[(digest[i] >> 4) & 0x0F];
+                hex[j++] = HEX[digest[i] & 0x0F];
+            }
+        }
+    }
+
+    private static class Md5Engine extends MACEngine {
+
+        @Override
+        public String name() {
+            return MD5;
+        }
+
+        @Override
+        protected Computation newComputation() {
+            final MessageDigest md;
+            try {
+                md = MessageDigest.getInstance("MD5");
+            }
+            catch (GeneralSecurityException ex) {
+                throw new IllegalStateException(ex);
+            }
+
+            return new Computation(md.getDigestLength()) {
+                @Override
+                protected void reset(String skey) {
+                    md.reset();
+                    clear();
+                    update(skey).update('#');
+                }
+
+                @Override
+                protected void engineUpdate(byte[] input, int offset, int length) {
+                    md.update(input, offset, length);
+                }
+
+                @Override
+                protected void engineDigest(byte[] output) {
+                    try {
+                        md.digest(output, 0, output.length);
+                    }
+                    catch (DigestException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * 每个线程记住上一次的skey,相同时只reset而不重新初始化密钥
+     * (同一线程上连续的请求常常来自同一个客户端)
+     */
+    private static class HmacSha256Engine extends MACEngine {
+
+        @Override
+        public String name() {
+            return HMAC_SHA256;
+        }
+
+        @Override
+        protected Computation newComputation() {
+            final Mac mac;
+            try {
+                mac = Mac.getInstance("HmacSHA256");
+            }
+            catch (GeneralSecurityException ex) {
+                throw new IllegalStateException(ex);
+            }
+
+            return new Computation(mac.getMacLength()) {
+                private String currentKey;
+
+                @Override
+                protected void reset(String skey) {
+                    clear();
+                    if (skey.equals(currentKey)) {
+                        mac.reset();
+                        return;
+                    }
+                    currentKey = null;
+                    try {
+                        byte[] key = skey.getBytes(StandardCharsets.UTF_8);
+                        // HMAC不允许空密钥,与其他实现一样以一个0字节代替(两者的HMAC结果相同)
+                        mac.init(new SecretKeySpec(key.length == 0 ? new byte[1] : key, "HmacSHA256"));
+                        currentKey = skey;
+                    }
+                    catch (GeneralSecurityException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                }
+
+                @Override
+                protected void engineUpdate(byte[] input, int offset, int length) {
+                    mac.update(input, offset, length);
+                }
+
+                @Override
+                protected void engineDigest(byte[] output) {
+                    try {
+                        mac.doFinal(output, 0);
+                    }
+                    catch (ShortBufferException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.blueline.databus.core.helper;
+
+import java.util.TimeZone;
+import java.util.function.LongSupplier;
+
+/**
+ * 提供当前时间在一天中的分钟数(本地时区,0-1439)
+ * <p>
+ *     结果按分钟缓存:同一分钟内的调用只读取一次系统时间并比较,不创建对象,也不需要格式化;
+ *     跨过分钟边界(或时钟被调回)时才重新计算,包括时区偏移(夏令时)
+ * </p>
+ * <p>
+ *     线程安全:状态保存在不可变对象中,通过volatile引用整体替换
+ * </p>
+ */
+public class MinuteClock {
+
+    private static final long MINUTE = 60 * 1000L;
+
+    /**
+     * 使用系统时间和默认时区
+     */
+    public static final MinuteClock SYSTEM = new MinuteClock(System::currentTimeMillis, TimeZone.getDefault());
+
+    private final LongSupplier millis;
+
+    private final TimeZone timeZone;
+
+    private volatile State state = new State(0, Long.MIN_VALUE, Long.MIN_VALUE);
+
+    /**
+     * @param millis 当前时间(毫秒)
+     * @param timeZone 时区
+     */
+    public MinuteClock(LongSupplier millis, TimeZone timeZone) {
+        this.millis = millis;
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * @return 当前时间在一天中的分钟数(0-1439)
+     */
+    public int minuteOfDay() {
+        long now = millis.getAsLong();
+        State current = state;
+        if (now >= current.from && now < current.until) {
+            return current.minute;
+        }
+        long local = now + timeZone.getOffset(now);
+        long from = now - Math.floorMod(local, MINUTE);
+        current = new State((int) Math.floorMod(Math.floorDiv(local, MINUTE), 24 * 60L), from, from + MINUTE);
+        state = current;
+        return current.minute;
+    }
+
+    private static final class State {
+        private final int minute;
+        private final long from;
+        private final long until;
+
+        State(int minute, long from, long until) {
+            this.minute = minute;
+            this.from = from;
+            this.until = until;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.blueline.databus.core.helper;
+
+import org.springframework.util.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * keyset(seek)分页使用的游标编码;
+ * 游标对客户端是不透明的字符串,内部是上一页最后一行的排序列(_by)的值,
+ * 排序列不是id时还有该行id的值(见SQLParser#needsTieBreaker);
+ * 每个值分别以Base64(URL安全)编码,以'.'分隔
+ */
+public class PageCursorHelper {
+
+    private static final String SEPARATOR = ".";
+
+    /**
+     * 将排序列的值编码为游标
+     * @param lastValue 上一页最后一行的排序列的值
+     * @return 游标字符串(URL安全);值为null时返回空字符串
+     */
+    public static String encode(Object lastValue) {
+        if (lastValue == null) {
+            return "";
+        }
+        return encodeValue(lastValue);
+    }
+
+    /**
+     * 将排序列和id列的值编码为游标
+     * @param lastValue 上一页最后一行的排序列的值
+     * @param lastId 上一页最后一行的id
+     * @return 游标字符串(URL安全);任一值为null时返回空字符串
+     */
+    public static String encode(Object lastValue, Object lastId) {
+        if (lastValue == null || lastId == null) {
+            return "";
+        }
+        return encodeValue(lastValue) + SEPARATOR + encodeValue(lastId);
+    }
+
+    /**
+     * 将游标解码为排序列的值
+     * @param cursor 游标字符串
+     * @return 排序列的值
+     * @throws IllegalArgumentException 游标格式不正确
+     */
+    public static String decode(String cursor) {
+        return decode(cursor, 1)[0];
+    }
+
+    /**
+     * 将游标解码为其中的各个值
+     * @param cursor 游标字符串
+     * @param count 游标中应有的值的个数
+     * @return 各个值
+     * @throws IllegalArgumentException 游标格式不正确或值的个数不符
+     */
+    public static String[] decode(String cursor, int count) {
+        if (StringUtils.isEmpty(cursor)) {
+            throw new IllegalArgumentException("blank page cursor");
+        }
+        String[] parts = cursor.split("\\" + SEPARATOR, -1);
+        if (parts.length != count) {
+            throw new IllegalArgumentException("bad page cursor: " + cursor);
+        }
+        try {
+            String[] values = new String[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = new String(Base64.getUrlDecoder().decode(parts[i]), StandardCharsets.UTF_8);
+            }
+            return values;
+        }
+        catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("bad page cursor: " + cursor);
+        }
+    }
+
+    private static String encodeValue(Object value) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(value.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
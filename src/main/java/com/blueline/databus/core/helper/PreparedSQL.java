@@ -0,0 +1,91 @@
+package com.blueline.databus.core.helper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 参数化的SQL语句:
+ * <ul>
+ *     <li>sql - SQL模板,所有的值都以'?'占位</li>
+ *     <li>args - 按占位符顺序排列的绑定值</li>
+ * </ul>
+ * <p>
+ *     值不再拼接进SQL文本,因此只有值不同的请求会得到相同的SQL模板,
+ *     可以共享数据库端缓存的预编译语句,同时也避免了SQL注入
+ * </p>
+ * <p>
+ *     SQL模板中可以保留<code>`%s`.`%s`</code>形式的库名、表名占位,由dao层用String.format填充
+ * </p>
+ */
+public class PreparedSQL {
+
+    private final StringBuilder sql;
+
+    private final List<Object> args = new ArrayList<>();
+
+    public PreparedSQL() {
+        this.sql = new StringBuilder();
+    }
+
+    public PreparedSQL(String head) {
+        this.sql = new StringBuilder(head);
+    }
+
+    /**
+     * 追加一段SQL文本,并按顺序追加该段文本中'?'对应的绑定值
+     * @param fragment SQL文本片段
+     * @param values 绑定值
+     * @return 本实例
+     */
+    public PreparedSQL append(String fragment, Object... values) {
+        this.sql.append(fragment);
+        Collections.addAll(this.args, values);
+        return this;
+    }
+
+    /**
+     * 去掉SQL文本尾部的某个字符串(如拼接列表时遗留的逗号),并替换为其他字符串
+     * @param tail 尾部字符串
+     * @param replacement 替换字符串
+     * @return 本实例
+     */
+    public PreparedSQL replaceTail(String tail, String replacement) {
+        int length = this.sql.length();
+        if (length >= tail.length() && this.sql.lastIndexOf(tail) == length - tail.length()) {
+            this.sql.replace(length - tail.length(), length, replacement);
+        }
+        return this;
+    }
+
+    public String getSql() {
+        return sql.toString();
+    }
+
+    public Object[] getArgs() {
+        return args.toArray();
+    }
+
+    /**
+     * 给标识符(库名、表名、列名)加上反引号,并转义其中的反引号
+     * @param identifier 标识符
+     * @return 加上反引号的标识符
+     */
+    public static String quote(String identifier) {
+        return "`" + escape(identifier) + "`";
+    }
+
+    /**
+     * 转义标识符中的反引号,用于填充<code>`%s`</code>形式的占位
+     * @param identifier 标识符
+     * @return 转义后的标识符
+     */
+    public static String escape(String identifier) {
+        return identifier.replace("`", "``");
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s; args: %s", this.sql, this.args);
+    }
+}
@@ -0,0 +1,53 @@
+package com.blueline.databus.core.helper;
+
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 用SCAN命令遍历redis库中的所有键
+ * <p>
+ *     与KEYS *不同,SCAN每次只返回一小部分键,不会长时间阻塞redis服务;
+ *     键按批交给consumer处理,consumer可以用pipeline一次取回整批键的值,
+ *     避免每个键一次网络往返
+ * </p>
+ * <p>
+ *     SCAN遍历期间被修改的键可能被漏掉或重复返回,只适合用于dump等诊断用途
+ * </p>
+ */
+public class RedisScanHelper {
+
+    /**
+     * @param template redis操作模板
+     * @param batchSize 每批键的数目(同时作为SCAN的COUNT参数)
+     * @param consumer 处理每批键
+     */
+    public static void scanKeys(StringRedisTemplate template, int batchSize, Consumer<List<String>> consumer) {
+        template.execute((RedisCallback<Object>) connection -> {
+            List<String> batch = new ArrayList<>(batchSize);
+            try (Cursor<byte[]> cursor = connection.scan(ScanOptions.scanOptions().count(batchSize).build())) {
+                while (cursor.hasNext()) {
+                    batch.add(template.getStringSerializer().deserialize(cursor.next()));
+                    if (batch.size() >= batchSize) {
+                        consumer.accept(batch);
+                        batch = new ArrayList<>(batchSize);
+                    }
+                }
+            }
+            catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            if (!batch.isEmpty()) {
+                consumer.accept(batch);
+            }
+            return null;
+        });
+    }
+}
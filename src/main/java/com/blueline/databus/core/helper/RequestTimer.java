@@ -0,0 +1,186 @@
+package com.blueline.databus.core.helper;
+
+import com.blueline.databus.core.datatype.ResultType;
+
+/**
+ * 记录当前请求(当前线程)各阶段的耗时和结果
+ * <p>
+ *     每个线程复用同一个实例,请求开始时({@link #begin()})清零;
+ *     各处在阶段结束时调用{@link #record(Stage, long)}累加该阶段耗时;
+ *     不在请求中(没有调用begin)时的记录被忽略,因此可以在任何地方调用;
+ *     在请求线程上完成的请求,记录的过程不创建对象
+ * </p>
+ * <p>
+ *     请求交给其他线程异步执行时(见DmlExecutor),用{@link #fork()}复制一份当前的记录(每个请求创建一个实例),
+ *     在执行的线程上{@link #attach(RequestTimer)},请求完成时再由ApiMetricsFilter结束并记录
+ * </p>
+ * <pre><code>
+ *     long start = System.nanoTime();
+ *     ... // 构建SQL
+ *     RequestTimer.record(RequestTimer.Stage.SQL_BUILD, start);
+ * </code></pre>
+ * @see ApiMetrics
+ */
+public final class RequestTimer {
+
+    /**
+     * 请求处理的阶段
+     */
+    public enum Stage {
+        /**
+         * 认证(AuthenticationFilter)
+         */
+        AUTHENTICATION,
+        /**
+         * 权限检查(AuthorityFilter)
+         */
+        ACL,
+        /**
+         * 解析参数,构建SQL
+         */
+        SQL_BUILD,
+        /**
+         * 执行SQL(流式输出时包括写出结果)
+         */
+        DB_EXECUTE,
+        /**
+         * 输出返回值(RestResult)
+         */
+        SERIALIZATION,
+        /**
+         * 整个请求
+         */
+        TOTAL
+    }
+
+    static final Stage[] STAGES = Stage.values();
+
+    /**
+     * 异步执行的请求中,fork出的实例保存在这个request attribute中
+     */
+    public static final String ASYNC_ATTRIBUTE = RequestTimer.class.getName() + ".ASYNC";
+
+    private static final ThreadLocal<RequestTimer> CURRENT = ThreadLocal.withInitial(RequestTimer::new);
+
+    /**
+     * 从不begin的实例,attach(null)时使用
+     */
+    private static final RequestTimer INACTIVE = new RequestTimer();
+
+    private final long[] stageNanos = new long[STAGES.length];
+
+    private boolean active;
+
+    private long startedAt;
+
+    private long serializingAt;
+
+    private ResultType resultType;
+
+    private RequestTimer() {}
+
+    /**
+     * 开始记录当前线程的请求
+     * @return 当前线程的实例
+     */
+    public static RequestTimer begin() {
+        RequestTimer timer = CURRENT.get();
+        for (int i = 0; i < timer.stageNanos.length; i++) {
+            timer.stageNanos[i] = 0;
+        }
+        timer.serializingAt = 0;
+        timer.resultType = null;
+        timer.startedAt = System.nanoTime();
+        timer.active = true;
+        return timer;
+    }
+
+    /**
+     * 复制当前线程的请求记录,用于在其他线程上继续记录同一个请求
+     * @return 新的实例;当前线程不在请求中时返回null
+     */
+    public static RequestTimer fork() {
+        RequestTimer timer = CURRENT.get();
+        if (!timer.active) {
+            return null;
+        }
+        RequestTimer forked = new RequestTimer();
+        System.arraycopy(timer.stageNanos, 0, forked.stageNanos, 0, timer.stageNanos.length);
+        forked.startedAt = timer.startedAt;
+        forked.serializingAt = timer.serializingAt;
+        forked.resultType = timer.resultType;
+        forked.active = true;
+        return forked;
+    }
+
+    /**
+     * 将timer设为当前线程的实例;用完后以返回值再调用一次以恢复
+     * @param timer fork出的实例;为null时当前线程的记录被忽略
+     * @return 当前线程原来的实例
+     */
+    public static RequestTimer attach(RequestTimer timer) {
+        RequestTimer previous = CURRENT.get();
+        CURRENT.set(timer != null ? timer : INACTIVE);
+        return previous;
+    }
+
+    /**
+     * 累加当前请求某个阶段的耗时
+     * @param stage 阶段
+     * @param startNanos 阶段开始时的System.nanoTime()
+     */
+    public static void record(Stage stage, long startNanos) {
+        RequestTimer timer = CURRENT.get();
+        if (timer.active) {
+            timer.stageNanos[stage.ordinal()] += System.nanoTime() - startNanos;
+        }
+    }
+
+    /**
+     * 记录当前请求的结果类型
+     * @param resultType 返回的RestResult的结果类型
+     */
+    public static void result(ResultType resultType) {
+        RequestTimer timer = CURRENT.get();
+        if (timer.active) {
+            timer.resultType = resultType;
+        }
+    }
+
+    /**
+     * 标记当前请求开始输出返回值,到请求结束为止的时间记为SERIALIZATION
+     */
+    public static void serializing() {
+        RequestTimer timer = CURRENT.get();
+        if (timer.active) {
+            timer.serializingAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * 结束记录当前请求
+     */
+    public void end() {
+        long now = System.nanoTime();
+        if (serializingAt != 0) {
+            stageNanos[Stage.SERIALIZATION.ordinal()] += now - serializingAt;
+        }
+        stageNanos[Stage.TOTAL.ordinal()] = now - startedAt;
+        active = false;
+    }
+
+    /**
+     * @param stage 阶段
+     * @return 该阶段的耗时(纳秒);0表示请求没有经过该阶段
+     */
+    public long getNanos(Stage stage) {
+        return stageNanos[stage.ordinal()];
+    }
+
+    /**
+     * @return 结果类型;没有记录时返回null
+     */
+    public ResultType getResultType() {
+        return resultType;
+    }
+}
@@ -1,13 +1,12 @@
 package com.blueline.databus.core.helper;
 
 import java.io.IOException;
-import java.lang.reflect.Array;
 import java.util.*;
 
-import com.blueline.databus.core.datatype.ClientInfo;
 import com.blueline.databus.core.datatype.ColumnInfo;
 import com.blueline.databus.core.exception.InternalException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
@@ -19,171 +18,256 @@ import org.springframework.util.StringUtils;
 @Component
 public class SQLParser {
 
+    /**
+     * 默认的排序列,也是其他排序列值相同时的第二排序列
+     */
+    public static final String ID_COLUMN = "id";
+
     @Value("${default.defaultTakes}")
     private String defaultTakes;
 
+    @Autowired
+    private ObjectReader rowListReader;
+
     /**
      * 分析Query String,将其转化为Select-SQL语句的条件clause
+     * <p>
+     *     如果带有meta参数<strong>_after</strong>(上一页返回的游标),则使用keyset分页:
+     *     以<code>`_by`&gt;?</code>(降序时为&lt;)作为条件,并忽略_skip;
+     *     这样每一页的查询代价都是相同的,不需要扫描并丢弃前面_skip行
+     * </p>
+     * <p>
+     *     _by不是id时,以id作为第二排序列(<code>ORDER BY `_by`, `id`</code>),
+     *     条件为<code>(`_by`,`id`)&gt;(?,?)</code>:_by的值相同的行跨越两页时不会被跳过
+     * </p>
+     * <p>
+     *     所有的值(包括_skip和_take)都作为绑定参数,不拼接进SQL文本
+     * </p>
      * @param paramMap request获取的parameter Map
-     * @return SQL查询clause
+     * @return 参数化的SQL查询clause,如<code>WHERE `name`=? AND 1=1 ORDER BY `id` ASC LIMIT ?,?</code>
+     * @see PageCursorHelper
+     * @see #compileSQL4Select(Map)
      */
-    public String parseSQL4Select(final Map<String, String[]> paramMap) {
+    public PreparedSQL parseSQL4Select(final Map<String, String[]> paramMap) {
+        return compileSQL4Select(paramMap).bind(paramMap);
+    }
 
-        // copy param map
-        Map<String, String[]> p2 = new HashMap<>();
-        paramMap.forEach((k, v) -> p2.put(k, v));
+    /**
+     * 将Query String编译为Select-SQL语句条件clause的模板和绑定计划;
+     * 模板只取决于请求的形状(见selectShape),同一形状的请求可以复用
+     * @param paramMap request获取的parameter Map
+     * @return SQL模板,如<code>WHERE `name`=? AND 1=1 ORDER BY `id` ASC LIMIT ?,?</code>
+     * @see #selectShape(Map)
+     */
+    public SQLTemplate compileSQL4Select(final Map<String, String[]> paramMap) {
+        SQLTemplate sqlQuery = new SQLTemplate("WHERE ");
+
+        // 先拼接非meta参数
+        appendConditions(sqlQuery, paramMap);
+
+        // 默认排序字段是id,这要求表应该含有字段id;默认升序
+        // 排序方向只能是ASC或DESC,不能直接拼接用户的输入
+        String sortColumnName = parseSortColumn(paramMap);
+        String sortColumn = PreparedSQL.quote(sortColumnName);
+        boolean tieBreak = needsTieBreaker(sortColumnName);
+        boolean desc = isDescending(paramMap);
+        String direction = desc ? "DESC" : "ASC";
+
+        // keyset分页:从上一页最后的值之后开始取
+        boolean seek = paramMap.containsKey("_after");
+        if (seek && tieBreak) {
+            sqlQuery.append(String.format("(%s,`%s`)%s(?,?) AND ", sortColumn, ID_COLUMN, desc ? "<" : ">"),
+                    m -> PageCursorHelper.decode(m.get("_after")[0], 2)[0],
+                    m -> PageCursorHelper.decode(m.get("_after")[0], 2)[1]);
+        }
+        else if (seek) {
+            sqlQuery.append(sortColumn + (desc ? "<? AND " : ">? AND "),
+                    m -> PageCursorHelper.decode(m.get("_after")[0]));
+        }
+
+        // 在条件clause最后加上1=1,有助于去掉上面拼接时遗留的尾部的AND的功能
+        // 并且,在没有条件clause的时候,1=1也可以去掉WHERE的功能
+        sqlQuery.append("1=1 ");
 
-        // 预处理map,确保包含必须的meta参数
-        if (!p2.containsKey("_by")) {
-            // 默认排序字段是id,这要求表应该含有字段id
-            p2.put("_by", new String[] {"id"});
+        // 最后拼接meta参数;LIMIT的参数必须以数字绑定
+        // 第一页也要带上第二排序列,否则与之后各页的顺序不一致
+        if (tieBreak) {
+            sqlQuery.append(String.format("ORDER BY %s %s, `%s` %s ", sortColumn, direction, ID_COLUMN, direction));
         }
-        if (!p2.containsKey("_order")) {
-            // 默认升序
-            p2.put("_order", new String[] {"asc"});
+        else {
+            sqlQuery.append(String.format("ORDER BY %s %s ", sortColumn, direction));
         }
-        if (!p2.containsKey("_skip")) {
-            p2.put("_skip", new String[] {"0"});
+        if (seek) {
+            sqlQuery.append("LIMIT ?", this::parseTakes);
         }
-        if (!p2.containsKey("_take")) {
-            p2.put("_take", new String[] {
-                StringUtils.isEmpty(defaultTakes) ? "10" : defaultTakes
-            });
+        else {
+            sqlQuery.append("LIMIT ?,?", this::parseSkips, this::parseTakes);
         }
 
-        StringBuilder sqlQuery = new StringBuilder("WHERE ");
+        return sqlQuery;
+	}
 
-        // 先拼接非meta参数
-        p2.entrySet()
-            .stream()
-            .filter(entry -> !entry.getKey().startsWith("_"))
-            .forEach(entry -> {
-                String k = entry.getKey();
-                String[] v = entry.getValue();
-
-                // 对所有 *_start或*_stop 参数,如若同名多值,只支持其第一个值,即取v[0]
-                if (k.endsWith("_start") || k.endsWith("_begin") || k.endsWith("_gt")) {
-                    String columnName = k.substring(0, k.lastIndexOf("_"));
-                    sqlQuery.append(String.format("`%s`>='%s' AND ", columnName, v[0]));
-                }
-                else if (k.endsWith("_stop") || k.endsWith("_end") || k.endsWith("_lt")) {
-                    String columnName = k.substring(0, k.lastIndexOf("_"));
-                    sqlQuery.append(String.format("`%s`<='%s' AND ", columnName, v[0]));
-                }
+    /**
+     * 计算查询请求的形状,作为SQL模板缓存的键;
+     * 形状相同的请求编译出的SQL模板相同,只是绑定值不同
+     * <p>
+     *     形状包括:非meta参数的名称和值的个数(与参数顺序无关)、_by、_order以及是否带有_after;
+     *     _skip、_take和条件的值是绑定参数,不属于形状
+     * </p>
+     * @param paramMap request获取的parameter Map
+     * @return 形状的字符串表示(各部分都带有长度前缀,不会因为参数名中的特殊字符而混淆)
+     */
+    public String selectShape(final Map<String, String[]> paramMap) {
+        String[] keys = paramMap.keySet().toArray(new String[paramMap.size()]);
+        Arrays.sort(keys);
+
+        StringBuilder shape = new StringBuilder();
+        for (String k : keys) {
+            if (!k.startsWith("_")) {
+                shape.append(k.length()).append(':').append(k).append('#').append(paramMap.get(k).length).append(';');
+            }
+        }
 
-                // 对于 *_not;多值可重复拼接
-                else if (k.endsWith("_not")) {
-                    String columnName = k.substring(0, k.lastIndexOf("_"));
-                    if (v.length > 1) {
-                        sqlQuery.append("(");
-                        for (String value : v) {
-                            sqlQuery.append(String.format("`%s`<>'%s' AND ", columnName, value));
-                        }
-                        // 用1=1消除遗留的AND
-                        sqlQuery.append("1=1) AND ");
-                    }
-                    else if (v.length == 1) {
-                        sqlQuery.append(String.format("`%s`<>'%s' AND ", columnName, v[0]));
-                    }
-                }
+        String sortColumn = parseSortColumn(paramMap);
+        shape.append(sortColumn.length()).append(':').append(sortColumn);
+        shape.append(isDescending(paramMap) ? ";desc" : ";asc");
+        if (paramMap.containsKey("_after")) {
+            shape.append(";after");
+        }
+        return shape.toString();
+    }
 
-                // 对于其他普通参数值对;如遇同名多值则重复用OR拼接
-                else {
-                    if (v.length > 1) {
-                        sqlQuery.append("(");
-                        for (String value : v) {
-                            sqlQuery.append(String.format("`%s`='%s' OR ", k, value));
-                        }
-                        // 用1=0消除遗留的OR
-                        sqlQuery.append("1=0) AND ");
-                    }
-                    else if (v.length == 1) {
-                        sqlQuery.append(String.format("`%s`='%s' AND ", k, v[0]));
-                    }
-                }
-            });
+    /**
+     * 获取查询的排序列名(meta参数_by),默认是id
+     * @param paramMap request获取的parameter Map
+     * @return 排序列名
+     */
+    public String parseSortColumn(final Map<String, String[]> paramMap) {
+        String[] by = paramMap.get("_by");
+        return (by == null || by.length < 1) ? ID_COLUMN : by[0];
+    }
 
-        // 在条件clause最后加上1=1,有助于去掉上面拼接时遗留的尾部的AND的功能
-        // 并且,在没有条件clause的时候,1=1也可以去掉WHERE的功能
-        sqlQuery.append("1=1 ");
+    /**
+     * 排序列不是id时,以id作为第二排序列,游标中同时带有id的值
+     * @param sortColumn 排序列名
+     * @return 是否需要第二排序列
+     */
+    public boolean needsTieBreaker(String sortColumn) {
+        return !ID_COLUMN.equalsIgnoreCase(sortColumn);
+    }
 
-        // 最后拼接meta参数
-        sqlQuery.append(String.format("ORDER BY `%s` %s ",
-                p2.get("_by")[0], p2.get("_order")[0].toUpperCase()));
-        sqlQuery.append(String.format("LIMIT %s,%s",
-                p2.get("_skip")[0], p2.get("_take")[0]));
+    /**
+     * 获取查询的取值条目数(meta参数_take),默认是配置的defaultTakes
+     * @param paramMap request获取的parameter Map
+     * @return 取值条目数
+     */
+    public int parseTakes(final Map<String, String[]> paramMap) {
+        String[] take = paramMap.get("_take");
+        if (take == null || take.length < 1) {
+            return Integer.valueOf(StringUtils.isEmpty(defaultTakes) ? "10" : defaultTakes);
+        }
+        return Integer.valueOf(take[0]);
+    }
 
-        return sqlQuery.toString();
-	}
+    /**
+     * 获取查询的跳过条目数(meta参数_skip),默认是0
+     * @param paramMap request获取的parameter Map
+     * @return 跳过条目数
+     */
+    private int parseSkips(final Map<String, String[]> paramMap) {
+        String[] skip = paramMap.get("_skip");
+        return (skip == null || skip.length < 1) ? 0 : Integer.valueOf(skip[0]);
+    }
+
+    /**
+     * 排序方向(meta参数_order)是否为降序,默认是升序
+     * @param paramMap request获取的parameter Map
+     * @return 是否降序
+     */
+    private boolean isDescending(final Map<String, String[]> paramMap) {
+        String[] order = paramMap.get("_order");
+        return order != null && order.length > 0 && order[0].equalsIgnoreCase("desc");
+    }
 
     /**
      * 分析Query String,将其转化为Delete-SQL语句的条件clause
      * @param paramMap 从request调用getParamsterMap获取的map(为空则返回"WHERE 1=0",确保数据安全)
-     * @return sql clauses
+     * @return 参数化的sql clauses
      */
-    public String parseSQL4Delete(final Map<String, String[]> paramMap) {
+    public PreparedSQL parseSQL4Delete(final Map<String, String[]> paramMap) {
 
         if (paramMap.size() < 1) {
-            return "WHERE 1=0"; // 不附加参数的情况非常危险,这里做不删除处理
+            return new PreparedSQL("WHERE 1=0"); // 不附加参数的情况非常危险,这里做不删除处理
         }
 
-        StringBuilder sqlQuery = new StringBuilder("WHERE ");
+        SQLTemplate sqlQuery = new SQLTemplate("WHERE ");
 
         // 本操作忽略meta参数
-        paramMap.entrySet()
-                .stream()
-                .filter(entry -> !entry.getKey().startsWith("_"))
-                .forEach(entry -> {
-                    String k = entry.getKey();
-                    String[] v = entry.getValue();
-
-                    // 对所有 *_start或*_stop 参数,如若同名多值,只支持其第一个值,即取v[0]
-                    if (k.endsWith("_start") || k.endsWith("_begin") || k.endsWith("_gt")) {
-                        String columnName = k.substring(0, k.lastIndexOf("_"));
-                        sqlQuery.append(String.format("`%s`>='%s' AND ", columnName, v[0]));
-                    }
-                    else if (k.endsWith("_stop") || k.endsWith("_end") || k.endsWith("_lt")) {
-                        String columnName = k.substring(0, k.lastIndexOf("_"));
-                        sqlQuery.append(String.format("`%s`<='%s' AND ", columnName, v[0]));
-                    }
-
-                    // 对于 *_not;多值可重复拼接
-                    else if (k.endsWith("_not")) {
-                        String columnName = k.substring(0, k.lastIndexOf("_"));
-                        if (v.length > 1) {
-                            sqlQuery.append("(");
-                            for (String value : v) {
-                                sqlQuery.append(String.format("`%s`<>'%s' AND ", columnName, value));
-                            }
-                            // 用1=1消除遗留的AND
-                            sqlQuery.append("1=1) AND ");
-                        }
-                        else if (v.length == 1) {
-                            sqlQuery.append(String.format("`%s`<>'%s' AND ", columnName, v[0]));
-                        }
-                    }
-
-                    // 对于其他普通参数值对;如遇同名多值则重复用OR拼接
-                    else {
-                        if (v.length > 1) {
-                            sqlQuery.append("(");
-                            for (String value : v) {
-                                sqlQuery.append(String.format("`%s`='%s' OR ", k, value));
-                            }
-                            // 用1=0消除遗留的OR
-                            sqlQuery.append("1=0) AND ");
-                        }
-                        else if (v.length == 1) {
-                            sqlQuery.append(String.format("`%s`='%s' AND ", k, v[0]));
-                        }
-                    }
-                });
+        appendConditions(sqlQuery, paramMap);
 
         // 在条件clause最后加上1=1,有助于去掉上面拼接时遗留的尾部的AND的功能
         // 并且,在没有条件clause的时候,1=1也可以去掉WHERE的功能
         sqlQuery.append("1=1");
 
-        return sqlQuery.toString();
+        return sqlQuery.bind(paramMap);
+    }
+
+    /**
+     * 将非meta参数(不以下划线开头)解析为条件,每个条件以" AND "结尾;
+     * 值不拼接进SQL,而是按参数名和值的下标绑定,因此模板只取决于参数名和值的个数
+     * @param sqlQuery 拼接中的SQL模板
+     * @param paramMap 参数map
+     */
+    private void appendConditions(SQLTemplate sqlQuery, final Map<String, String[]> paramMap) {
+        paramMap.forEach((k, v) -> {
+            if (k.startsWith("_")) {
+                return;
+            }
+
+            // 对所有 *_start或*_stop 参数,如若同名多值,只支持其第一个值,即取v[0]
+            if (k.endsWith("_start") || k.endsWith("_begin") || k.endsWith("_gt")) {
+                String columnName = PreparedSQL.quote(k.substring(0, k.lastIndexOf("_")));
+                sqlQuery.append(columnName + ">=? AND ", m -> m.get(k)[0]);
+            }
+            else if (k.endsWith("_stop") || k.endsWith("_end") || k.endsWith("_lt")) {
+                String columnName = PreparedSQL.quote(k.substring(0, k.lastIndexOf("_")));
+                sqlQuery.append(columnName + "<=? AND ", m -> m.get(k)[0]);
+            }
+
+            // 对于 *_not;多值可重复拼接
+            else if (k.endsWith("_not")) {
+                String columnName = PreparedSQL.quote(k.substring(0, k.lastIndexOf("_")));
+                if (v.length > 1) {
+                    sqlQuery.append("(");
+                    for (int i = 0; i < v.length; i++) {
+                        final int index = i;
+                        sqlQuery.append(columnName + "<>? AND ", m -> m.get(k)[index]);
+                    }
+                    // 用1=1消除遗留的AND
+                    sqlQuery.append("1=1) AND ");
+                }
+                else if (v.length == 1) {
+                    sqlQuery.append(columnName + "<>? AND ", m -> m.get(k)[0]);
+                }
+            }
+
+            // 对于其他普通参数值对;如遇同名多值则重复用OR拼接
+            else {
+                String columnName = PreparedSQL.quote(k);
+                if (v.length > 1) {
+                    sqlQuery.append("(");
+                    for (int i = 0; i < v.length; i++) {
+                        final int index = i;
+                        sqlQuery.append(columnName + "=? OR ", m -> m.get(k)[index]);
+                    }
+                    // 用1=0消除遗留的OR
+                    sqlQuery.append("1=0) AND ");
+                }
+                else if (v.length == 1) {
+                    sqlQuery.append(columnName + "=? AND ", m -> m.get(k)[0]);
+                }
+            }
+        });
     }
 
     /**
@@ -204,87 +288,146 @@ public class SQLParser {
      *                 </pre>
      *
      * @param columnInfoList 列信息
-     * @return sql整句 <code>INSERT INTO `%s`.`%s` (... ) VALUES (...), (...), ...</code>
+     * @return 参数化的sql整句 <code>INSERT INTO `%s`.`%s` (... ) VALUES (?,...), (?,DEFAULT,...), ...</code>
      * @throws InternalException 内部异常
+     * @see #parseSQL4InsertRow(List, BitSet)
      */
-    public String parseSQL4Insert(String jsonBody, final List<ColumnInfo> columnInfoList)
+    public PreparedSQL parseSQL4Insert(String jsonBody, final List<ColumnInfo> columnInfoList)
             throws InternalException {
 
-        // 转换HTTP body传来的JSON数组,结构出错则报IOException
-        ObjectMapper om = new ObjectMapper();
-        List<Map<String, Object>> inputData = null;
-        try {
-            inputData = om.readValue(jsonBody, LinkedList.class);
-        }
-        catch (IOException ex) {
-            System.err.println("fuck cannot wrap request data into json!");
-            throw new InternalException("cannot wrap request body into json");
-        }
+        List<Map<String, Object>> inputData = parseJsonRows(jsonBody);
 
-        // 从JSON中收集数据,等待解析成sql的list of maps
-        List<Map<String, String>> data_to_be_trans = new LinkedList<>();
+        // 插入的列(不含id那一列)
+        List<String> columnNames = parseInsertColumns(columnInfoList);
 
-        // 每次先用columnInfo列表初始化好一个map的模板
-        // 填入key(不含id那一列),value先用DEFAULT填充
-        Map<String, String> one_row_template = new HashMap<>();
-        columnInfoList.stream()
-                .filter(col -> !col.getName().equalsIgnoreCase("id"))
-                .forEachOrdered(col -> one_row_template.put(col.getName(), "DEFAULT"));
+        PreparedSQL sql = new PreparedSQL("INSERT INTO `%s`.`%s` (");
+        columnNames.forEach(name -> sql.append(PreparedSQL.quote(name).replace("%", "%%") + ","));
+        sql.replaceTail(",", ") VALUES ");
 
         // 将从JSON解析来的数据作为数据源(map的列表,过滤其中的空map)
-        // 用列表每个元素(map)的值,根据key值填充到初始化过的map中
-        // 最后将map加到data_to_be_trans这个集合
+        // 每个map代表一行数据;缺少的列(或值为"default")使用DEFAULT关键字,其他值作为绑定参数
         inputData.stream()
                 .filter(row -> row.size() > 0)
-                .forEach(row_map -> {
-                    // 从模板复制一份map表示一行数据
-                    Map<String, String> one_row = new HashMap<>(one_row_template);
-                    row_map.forEach((key, value) -> {
-                        // 忽略输入值中不存在的键(列名)
-                        if (one_row.keySet().contains(key)) {
-                            one_row.put(key, value.toString());
+                .forEachOrdered(row -> {
+                    BitSet defaults = parseDefaults(row, columnNames);
+                    sql.append("(");
+                    for (int i = 0; i < columnNames.size(); i++) {
+                        if (defaults.get(i)) {
+                            // DEFAULT作为mysql关键字不能作为参数绑定
+                            sql.append("DEFAULT,");
+                        }
+                        else {
+                            sql.append("?,", parseInsertValue(row.get(columnNames.get(i))));
                         }
-                    });
-                    // 填充好一个map后,加入data这个map的集合
-                    data_to_be_trans.add(one_row);
+                    }
+                    sql.replaceTail(",", "),");
                 });
 
-        // 将data(map的列表,一个map代表一行数据)解析成sql语句
-        StringBuilder sb = new StringBuilder("INSERT INTO `%s`.`%s` (");
+        sql.replaceTail(",", "");
+        return sql;
+    }
 
+    /**
+     * 生成插入单行数据的SQL模板,用于PreparedStatement的批量执行(addBatch/executeBatch);
+     * 缺少值的列使用DEFAULT关键字,因此缺少的列不同的行需要使用不同的模板
+     * @param columnNames 插入的列名(见parseInsertColumns)
+     * @param defaults 使用DEFAULT的列的下标(见parseDefaults)
+     * @return sql模板 <code>INSERT INTO `%s`.`%s` (`name`,`age`) VALUES (?,DEFAULT)</code>
+     */
+    public String parseSQL4InsertRow(final List<String> columnNames, final BitSet defaults) {
+        StringBuilder sql = new StringBuilder("INSERT INTO `%s`.`%s` (");
+        StringBuilder values = new StringBuilder(") VALUES (");
+        for (int i = 0; i < columnNames.size(); i++) {
+            if (i > 0) {
+                sql.append(",");
+                values.append(",");
+            }
+            sql.append(PreparedSQL.quote(columnNames.get(i)).replace("%", "%%"));
+            values.append(defaults.get(i) ? "DEFAULT" : "?");
+        }
+        return sql.append(values).append(")").toString();
+    }
+
+    /**
+     * 插入数据时使用的列:忽略id列(由数据库自增)
+     * @param columnInfoList 列信息
+     * @return 插入的列名
+     */
+    public List<String> parseInsertColumns(final List<ColumnInfo> columnInfoList) {
+        List<String> columnNames = new ArrayList<>();
         columnInfoList.stream()
                 .filter(col -> !col.getName().equalsIgnoreCase("id"))
-                .forEachOrdered(col -> sb.append(String.format("`%s`,", col.getName())));
-
-        // 去掉最后一个逗号,替换成右括号
-        removeLastComma(sb, ")");
-        sb.append(" VALUES ");
-
-        data_to_be_trans.forEach(row -> {
-            sb.append("(");
-            columnInfoList.stream()
-                    .filter(col -> !col.getName().equalsIgnoreCase("id"))
-                    .forEachOrdered(col -> {
-                        String value = row.get(col.getName());
-                        if (value.equalsIgnoreCase("default")) {
-                            // DEFAULT作为mysql关键字不用加引号
-                            sb.append(String.format("%s,", value));
-                        }
-                        else {
-                            // 只要值能被mysql解析成相应类型,都可以用单引号包裹
-                            sb.append(String.format("'%s',", value));
-                        }
-                    });
-            removeLastComma(sb, "),");
-        });
+                .forEachOrdered(col -> columnNames.add(col.getName()));
+        return columnNames;
+    }
 
-        removeLastComma(sb);
-        return sb.toString();
+    /**
+     * 一行数据中需要使用DEFAULT关键字的列:缺少的列,或者值为"default"(不区分大小写)的列
+     * @param row 一行数据
+     * @param columnNames 插入的列名
+     * @return 需要使用DEFAULT的列的下标
+     */
+    public BitSet parseDefaults(final Map<String, Object> row, final List<String> columnNames) {
+        BitSet defaults = new BitSet(columnNames.size());
+        for (int i = 0; i < columnNames.size(); i++) {
+            String name = columnNames.get(i);
+            Object value = row.get(name);
+            if (!row.containsKey(name) || (value != null && value.toString().equalsIgnoreCase("default"))) {
+                defaults.set(i);
+            }
+        }
+        return defaults;
+    }
+
+    /**
+     * 生成批量导入数据(LOAD DATA LOCAL INFILE)的SQL模板;
+     * 数据使用LOAD DATA的默认格式:制表符分隔、反斜杠转义、换行结束,\N表示NULL;
+     * 文件名没有意义,数据由驱动从setLocalInfileInputStream设置的输入流中读取
+     * @param columnNames 数据中的列名
+     * @return sql模板 <code>LOAD DATA LOCAL INFILE 'bulk' INTO TABLE `%s`.`%s` ... (`name`,`age`)</code>
+     * @see BulkLoadInputStream
+     */
+    public String parseSQL4LoadData(final List<String> columnNames) {
+        StringBuilder sql = new StringBuilder("LOAD DATA LOCAL INFILE 'bulk' INTO TABLE `%s`.`%s` CHARACTER SET utf8mb4 " +
+                "FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n' (");
+        for (int i = 0; i < columnNames.size(); i++) {
+            if (i > 0) {
+                sql.append(",");
+            }
+            sql.append(PreparedSQL.quote(columnNames.get(i)).replace("%", "%%"));
+        }
+        return sql.append(")").toString();
+    }
+
+    /**
+     * 插入数据的绑定值:只要值能被mysql解析成相应类型,都可以用字符串绑定
+     * @param value json中的值
+     * @return 绑定值
+     */
+    public Object parseInsertValue(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * 将body中的json数组解析为map的列表,每个map代表一行数据
+     * @param jsonBody json数组
+     * @return 行数据的列表
+     * @throws InternalException json格式不正确
+     */
+    public List<Map<String, Object>> parseJsonRows(String jsonBody) throws InternalException {
+        // 转换HTTP body传来的JSON数组,结构出错则报IOException
+        try {
+            return rowListReader.readValue(jsonBody);
+        }
+        catch (IOException ex) {
+            System.err.println("fuck cannot wrap request data into json!");
+            throw new InternalException("cannot wrap request body into json");
+        }
     }
 
     /**
      * update符合条件的表的数据。条件就是后两个路径参数colName和colValue
-     * 这两个参数组成UPDATE语句中的 <code>"WHERE `colName` = 'colValue'"</code> 条件句
+     * 这两个参数组成UPDATE语句中的 <code>"WHERE `colName` = ?"</code> 条件句
      * 修改信息是在body中的json字符串,形式大概像insert所需类似:
      *
      * <pre>
@@ -292,49 +435,33 @@ public class SQLParser {
      * </pre>
      *
      * 只不过,只有第一个json元素值会拿来使用
-     * 它组成UPDATE语句中的 "SET `xxx` = 'yyy' " 部分
+     * 它组成UPDATE语句中的 "SET `xxx` = ? " 部分
      * 记住,目前不过滤不存在的字段。如果条件和修改信息中有不存在的字段,都会导致最终的错误返回。
      *
      * @param colName 列名
      * @param colValue 列值(作为修改条件)
      * @param jsonBody 请求提内的修改信息的json
-     * @return SQL命令
+     * @return 参数化的SQL命令
      * @throws InternalException 内部异常
      */
-    public String parseSQL4Update(String colName, String colValue, String jsonBody)
+    public PreparedSQL parseSQL4Update(String colName, String colValue, String jsonBody)
             throws InternalException {
 
-        // 转换HTTP body传来的JSON数组,结构出错则报IOException
-        ObjectMapper om = new ObjectMapper();
-        List<Map<String, Object>> inputData;
-        try {
-            inputData = om.readValue(jsonBody, LinkedList.class);
-        }
-        catch (IOException ex) {
-            System.err.println("fuck cannot wrap request data into json!");
-            throw new InternalException("failed to parse json input");
-        }
+        List<Map<String, Object>> inputData = parseJsonRows(jsonBody);
 
-        if (inputData.size() > 0) {
-            StringBuilder sb = new StringBuilder("UPDATE `%s`.`%s` SET ");
-            inputData.get(0).forEach((k, v) -> sb.append(String.format("`%s`='%s',", k, v)));
-            removeLastComma(sb);
-            sb.append(String.format(" WHERE `%s`='%s'", colName, colValue));
-            return sb.toString();
+        if (inputData.size() > 0 && inputData.get(0).size() > 0) {
+            PreparedSQL sql = new PreparedSQL("UPDATE `%s`.`%s` SET ");
+            inputData.get(0).forEach((k, v) ->
+                    sql.append(PreparedSQL.quote(k).replace("%", "%%") + "=?,", v == null ? null : v.toString()));
+            sql.replaceTail(",", "");
+            sql.append(" WHERE " + PreparedSQL.quote(colName).replace("%", "%%") + "=?", colValue);
+            return sql;
         }
         else {
             throw new InternalException("no update clause found in json body");
         }
     }
 
-    /**
-     * 处理StringBuilder,去除尾部逗号
-     * @param sb 需要修改的StringBuilder实例
-     */
-    private void removeLastComma(StringBuilder sb) {
-        removeLastComma(sb, "");
-    }
-
     /**
      * 处理StringBuilder,将尾部逗号替换为其他字符串
      * @param sb 需要修改的StringBuilder实例
@@ -0,0 +1,101 @@
+package com.blueline.databus.core.helper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 预先编译好的SQL模板和参数的绑定计划:
+ * <ul>
+ *     <li>sql - SQL模板,所有的值都以'?'占位</li>
+ *     <li>binders - 按占位符顺序排列,每个binder从请求的参数map中取出对应的绑定值</li>
+ * </ul>
+ * <p>
+ *     模板只取决于请求的"形状"(参数名、同名参数的个数、_by、_order等),与参数值无关;
+ *     因此同一形状的请求可以复用同一个模板,只需要按绑定计划取值,不必再重新拼接SQL
+ * </p>
+ * <p>
+ *     模板拼接完成后被多个线程共享,不能再修改
+ * </p>
+ * @see SQLTemplateCache
+ */
+public class SQLTemplate {
+
+    /**
+     * 从请求的参数map中取一个绑定值
+     */
+    @FunctionalInterface
+    public interface Binder {
+        Object bind(Map<String, String[]> paramMap);
+    }
+
+    private final StringBuilder sql;
+
+    private final List<Binder> binders = new ArrayList<>();
+
+    private String sqlText;
+
+    public SQLTemplate(String head) {
+        this.sql = new StringBuilder(head);
+    }
+
+    /**
+     * 追加一段SQL文本,并按顺序追加该段文本中'?'对应的binder
+     * @param fragment SQL文本片段
+     * @param binders 取绑定值的binder
+     * @return 本实例
+     */
+    public SQLTemplate append(String fragment, Binder... binders) {
+        this.sql.append(fragment);
+        for (Binder binder : binders) {
+            this.binders.add(binder);
+        }
+        this.sqlText = null;
+        return this;
+    }
+
+    /**
+     * 在SQL模板前面加上一段不含占位符的文本(如<code>SELECT * FROM `db`.`table` </code>)
+     * @param head SQL文本
+     * @return 新的模板实例
+     */
+    public SQLTemplate prepend(String head) {
+        SQLTemplate template = new SQLTemplate(head);
+        template.append(this.getSql(), this.binders.toArray(new Binder[this.binders.size()]));
+        return template;
+    }
+
+    public String getSql() {
+        if (sqlText == null) {
+            sqlText = sql.toString();
+        }
+        return sqlText;
+    }
+
+    /**
+     * 按绑定计划从参数map中取出所有的绑定值
+     * @param paramMap request获取的parameter Map
+     * @return 按占位符顺序排列的绑定值
+     */
+    public Object[] bindArgs(Map<String, String[]> paramMap) {
+        Object[] args = new Object[binders.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = binders.get(i).bind(paramMap);
+        }
+        return args;
+    }
+
+    /**
+     * 按绑定计划从参数map中取值,生成参数化的SQL
+     * @param paramMap request获取的parameter Map
+     * @return 参数化的SQL
+     */
+    public PreparedSQL bind(Map<String, String[]> paramMap) {
+        return new PreparedSQL(getSql()).append("", bindArgs(paramMap));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s; binders: %d", getSql(), binders.size());
+    }
+}
@@ -0,0 +1,72 @@
+package com.blueline.databus.core.helper;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * 在SQLParser之前的SQL模板缓存(LRU)
+ * <p>
+ *     以(库名, 表名, 请求形状)为键,缓存编译好的完整SQL模板和绑定计划;
+ *     命中时只需要按绑定计划从参数map中取值,不必复制参数map、过滤参数和拼接SQL
+ * </p>
+ * <p>
+ *     命中/未命中次数和缓存大小通过actuator的/metrics输出:
+ *     sqltemplate.cache.hits, sqltemplate.cache.misses, sqltemplate.cache.size
+ * </p>
+ * @see SQLParser#selectShape(Map)
+ */
+@Component
+public class SQLTemplateCache implements PublicMetrics {
+
+    @Value("${default.sqlTemplateCacheSize:1024}")
+    private int cacheSize;
+
+    @Autowired
+    private SQLParser sqlParser;
+
+    private LRUCache<String, SQLTemplate> selectCache;
+
+    @PostConstruct
+    public void init() {
+        selectCache = new LRUCache<>(cacheSize);
+    }
+
+    /**
+     * 获取查询数据的完整SQL模板,没有缓存则编译并放入缓存
+     * @param dbName 数据库名
+     * @param tableName 表名
+     * @param paramMap request获取的parameter Map
+     * @return SQL模板,如<code>SELECT * FROM `db`.`table` WHERE `name`=? AND 1=1 ORDER BY `id` ASC LIMIT ?,?</code>
+     */
+    public SQLTemplate getSelect(String dbName, String tableName, Map<String, String[]> paramMap) {
+        String key = dbName.length() + ":" + dbName + tableName.length() + ":" + tableName
+                + sqlParser.selectShape(paramMap);
+        return selectCache.get(key, k ->
+                sqlParser.compileSQL4Select(paramMap).prepend(String.format("SELECT * FROM `%s`.`%s` ",
+                        PreparedSQL.escape(dbName), PreparedSQL.escape(tableName))));
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        selectCache.clear();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        Collection<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("sqltemplate.cache.hits", selectCache.getHits()));
+        metrics.add(new Metric<>("sqltemplate.cache.misses", selectCache.getMisses()));
+        metrics.add(new Metric<>("sqltemplate.cache.size", selectCache.size()));
+        return metrics;
+    }
+}
@@ -0,0 +1,65 @@
+package com.blueline.databus.core.helper;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 合并对同一个键的并发调用(single-flight)
+ * <p>
+ *     同一时刻对同一个键只有一个线程真正执行loader,
+ *     其它线程等待并共享它的结果(或异常);执行结束后键被移除,下一次调用会重新执行
+ * </p>
+ * <p>
+ *     用于缓存未命中时的数据库查询,避免大量并发请求同时穿透到数据库
+ * </p>
+ * @param <K> 键类型
+ * @param <V> 结果类型
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * 执行loader,或者等待正在对同一个键执行的loader
+     * @param key 键
+     * @param loader 生成结果的函数
+     * @return loader的结果
+     */
+    public V execute(K key, Supplier<V> loader) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> running = calls.putIfAbsent(key, future);
+        if (running != null) {
+            try {
+                return running.join();
+            }
+            catch (CompletionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw ex;
+            }
+        }
+
+        try {
+            V value = loader.get();
+            future.complete(value);
+            return value;
+        }
+        catch (Throwable ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        }
+        finally {
+            calls.remove(key, future);
+        }
+    }
+
+    /**
+     * @return 正在执行的调用数
+     */
+    public int inFlight() {
+        return calls.size();
+    }
+}
@@ -0,0 +1,94 @@
+package com.blueline.databus.core.helper;
+
+/**
+ * 预先解析好的acl访问时间段,以一天中的分钟数(0-1439)表示,首尾都包含在内
+ * <p>
+ *     acl记录中的duration字符串在载入缓存时解析一次,之后每次检查只是两次整数比较;
+ *     判断规则与{@link TimeHelper#isInDuration(String, String)}相同:
+ * </p>
+ * <ul>
+ *     <li>"0" - 全天可访问</li>
+ *     <li>"HHmmHHmm" - 从HHmm到HHmm;结束早于开始的视为无效</li>
+ *     <li>其它格式无效,任何时间都不能访问</li>
+ * </ul>
+ */
+public final class TimeWindow {
+
+    public static final TimeWindow ALL_DAY = new TimeWindow((short) 0, (short) (24 * 60 - 1));
+
+    public static final TimeWindow NEVER = new TimeWindow((short) 1, (short) 0);
+
+    private final short start;
+
+    private final short end;
+
+    private TimeWindow(short start, short end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * 解析duration字符串
+     * @param duration 时间段,格式'HHmmHHmm'或'0'
+     * @return 解析后的时间段;格式无效时返回{@link #NEVER}
+     */
+    public static TimeWindow parse(String duration) {
+        if (duration == null) {
+            return NEVER;
+        }
+        if (duration.equals("0")) {
+            return ALL_DAY;
+        }
+        if (duration.length() != 8) {
+            return NEVER;
+        }
+        int start = parseMinute(duration, 0);
+        int end = parseMinute(duration, 4);
+        if (start < 0 || end < 0 || end < start) {
+            return NEVER;
+        }
+        return new TimeWindow((short) start, (short) end);
+    }
+
+    /**
+     * @param minuteOfDay 一天中的分钟数,见{@link MinuteClock#minuteOfDay()}
+     * @return 是否在时间段内
+     */
+    public boolean contains(int minuteOfDay) {
+        return minuteOfDay >= start && minuteOfDay <= end;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    @Override
+    public String toString() {
+        return this == NEVER ? "never" : String.format("%02d%02d-%02d%02d", start / 60, start % 60, end / 60, end % 60);
+    }
+
+    /**
+     * 解析从offset开始的'HHmm'
+     * @return 分钟数;格式无效返回-1
+     */
+    private static int parseMinute(String s, int offset) {
+        int value = 0;
+        for (int i = offset; i < offset + 4; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        int hour = value / 100;
+        int minute = value % 100;
+        if (minute > 59) {
+            return -1;
+        }
+        return hour * 60 + minute;
+    }
+}
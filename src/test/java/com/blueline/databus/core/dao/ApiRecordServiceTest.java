@@ -0,0 +1,117 @@
+package com.blueline.databus.core.dao;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.*;
+
+public class ApiRecordServiceTest {
+
+    /**
+     * 把pipeline中的INCRBY记录在内存中的redis;down为true时写入失败
+     */
+    private static class StubRedisTemplate extends StringRedisTemplate {
+        final Map<String, Long> counts = new HashMap<>();
+        boolean down;
+
+        @Override
+        public List<Object> executePipelined(RedisCallback<?> action, RedisSerializer<?> resultSerializer) {
+            if (down) {
+                throw new RedisConnectionFailureException("connection refused");
+            }
+            RedisConnection connection = (RedisConnection) Proxy.newProxyInstance(
+                    RedisConnection.class.getClassLoader(),
+                    new Class<?>[] {RedisConnection.class},
+                    (proxy, method, args) -> {
+                        if ("incrBy".equals(method.getName())) {
+                            counts.merge(new String((byte[]) args[0], StandardCharsets.UTF_8), (Long) args[1], Long::sum);
+                        }
+                        return null;
+                    });
+            action.doInRedis(connection);
+            return Collections.emptyList();
+        }
+    }
+
+    private final StubRedisTemplate redis = new StubRedisTemplate();
+
+    private final ApiRecordService service = new ApiRecordService();
+
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(service, "redisTemplate4Record", redis);
+    }
+
+    private int pendingSize() {
+        return ((Map<?, ?>) ReflectionTestUtils.getField(service, "pending")).size();
+    }
+
+    @Test
+    public void flushedKeysAreDropped() {
+        for (int i = 0; i < 10000; i++) {
+            service.recordAPICall("GET /api/data/db/t/id/" + i);
+        }
+        service.recordAPICall("GET /api/data/db/t/id/0");
+        assertEquals(10000, pendingSize());
+
+        service.flush();
+        assertEquals(0, pendingSize());
+        assertEquals(10000, redis.counts.size());
+        assertEquals(Long.valueOf(2), redis.counts.get("GET /api/data/db/t/id/0"));
+
+        // 被删除的条目在下一次刷新时丢弃,不会再写入
+        service.recordAPICall("GET /api/data/db/t/id/0");
+        service.flush();
+        service.flush();
+        assertEquals(0, pendingSize());
+        assertEquals(Long.valueOf(3), redis.counts.get("GET /api/data/db/t/id/0"));
+        assertEquals(Long.valueOf(1), redis.counts.get("GET /api/data/db/t/id/1"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void lateIncrementOnDroppedKeyIsFlushed() {
+        service.recordAPICall("GET /a");
+        // 请求线程在条目被删除之前取得了LongAdder,在删除之后才累加
+        LongAdder adder = ((Map<String, LongAdder>) ReflectionTestUtils.getField(service, "pending")).get("GET /a");
+        service.flush();
+        assertEquals(0, pendingSize());
+        adder.increment();
+
+        service.flush();
+        assertEquals(Long.valueOf(2), redis.counts.get("GET /a"));
+    }
+
+    @Test
+    public void failedFlushKeepsCounts() {
+        service.recordAPICall("GET /a");
+        service.recordAPICall("GET /a");
+        service.recordAPICall("POST /b");
+
+        redis.down = true;
+        service.flush();
+        assertEquals(2, pendingSize());
+        assertTrue(redis.counts.isEmpty());
+
+        service.recordAPICall("GET /a");
+        redis.down = false;
+        service.flush();
+        assertEquals(0, pendingSize());
+        assertEquals(Long.valueOf(3), redis.counts.get("GET /a"));
+        assertEquals(Long.valueOf(1), redis.counts.get("POST /b"));
+    }
+}
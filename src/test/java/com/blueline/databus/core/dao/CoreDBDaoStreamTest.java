@@ -0,0 +1,187 @@
+package com.blueline.databus.core.dao;
+
+import com.blueline.databus.core.JsonConfiguration;
+import com.blueline.databus.core.datasource.ShardRouter;
+import com.blueline.databus.core.helper.SQLParser;
+import com.blueline.databus.core.helper.SQLTemplateCache;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CoreDBDaoStreamTest {
+
+    private static final JsonConfiguration JSON = new JsonConfiguration();
+
+    /**
+     * 逐行返回rows行(id, name)的JdbcTemplate;读出failAfter行之后抛出异常,failAfter小于0则不出错
+     */
+    private static class StubTemplate extends JdbcTemplate {
+        int rows;
+        int failAfter = -1;
+
+        @Override
+        public void query(PreparedStatementCreator psc, RowCallbackHandler rch) throws DataAccessException {
+            int[] current = new int[1];
+            ResultSetMetaData meta = (ResultSetMetaData) Proxy.newProxyInstance(
+                    ResultSetMetaData.class.getClassLoader(),
+                    new Class<?>[] {ResultSetMetaData.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "getColumnCount":
+                                return 2;
+                            case "getColumnLabel":
+                                return (Integer) args[0] == 1 ? "id" : "name";
+                            default:
+                                return null;
+                        }
+                    });
+            ResultSet rs = (ResultSet) Proxy.newProxyInstance(
+                    ResultSet.class.getClassLoader(),
+                    new Class<?>[] {ResultSet.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "getMetaData":
+                                return meta;
+                            case "getObject":
+                                return (Integer) args[0] == 1 ? (Object) current[0] : "name-" + current[0];
+                            default:
+                                return null;
+                        }
+                    });
+            try {
+                for (current[0] = 1; current[0] <= rows; current[0]++) {
+                    if (current[0] - 1 == failAfter) {
+                        throw new DataAccessResourceFailureException("connection reset");
+                    }
+                    rch.processRow(rs);
+                }
+            }
+            catch (SQLException ex) {
+                throw new DataAccessResourceFailureException(ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /**
+     * 记录是否被关闭的输出流
+     */
+    private static class RecordingStream extends ByteArrayOutputStream {
+        boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        String text() {
+            return new String(toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private final StubTemplate template = new StubTemplate();
+
+    private final RecordingStream out = new RecordingStream();
+
+    private CoreDBDao dao;
+
+    @Before
+    public void setUp() {
+        SQLParser sqlParser = new SQLParser();
+        ReflectionTestUtils.setField(sqlParser, "defaultTakes", "10");
+        ReflectionTestUtils.setField(sqlParser, "rowListReader", JSON.rowListReader());
+        SQLTemplateCache sqlTemplateCache = new SQLTemplateCache();
+        ReflectionTestUtils.setField(sqlTemplateCache, "cacheSize", 16);
+        ReflectionTestUtils.setField(sqlTemplateCache, "sqlParser", sqlParser);
+        sqlTemplateCache.init();
+        ShardRouter.Shard shard = new ShardRouter.Shard(ShardRouter.CORE, template, template, null);
+
+        dao = new CoreDBDao();
+        ReflectionTestUtils.setField(dao, "shardRouter", new ShardRouter() {
+            @Override
+            public Shard forDb(String dbName) {
+                return shard;
+            }
+        });
+        ReflectionTestUtils.setField(dao, "sqlParser", sqlParser);
+        ReflectionTestUtils.setField(dao, "sqlTemplateCache", sqlTemplateCache);
+        ReflectionTestUtils.setField(dao, "objectMapper", JSON.objectMapper());
+        ReflectionTestUtils.setField(dao, "columnCacheSize", 16);
+        ReflectionTestUtils.setField(dao, "stickyClients", 16);
+        dao.init();
+    }
+
+    private int stream(int take) throws Exception {
+        Map<String, String[]> params = new HashMap<>();
+        params.put("_take", new String[] {String.valueOf(take)});
+        return dao.streamData("db", "t", params, out);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void completes_json_on_success() throws Exception {
+        template.rows = 3;
+        assertEquals(3, stream(10));
+
+        Map<String, Object> result = JSON.mapReader().readValue(out.text());
+        assertEquals("OK", result.get("resultType"));
+        assertEquals(3, ((List<Object>) result.get("data")).size());
+        assertFalse(result.containsKey("ext"));
+        assertFalse(out.closed);
+    }
+
+    @Test
+    public void writes_nothing_when_query_fails() throws Exception {
+        template.rows = 3;
+        template.failAfter = 0;
+        try {
+            stream(10);
+            fail("expected DataAccessException");
+        }
+        catch (DataAccessException expected) {
+        }
+        // 调用者还可以返回错误信息
+        assertEquals(0, out.size());
+        assertFalse(out.closed);
+    }
+
+    @Test
+    public void leaves_json_unfinished_when_row_fails_mid_stream() throws Exception {
+        template.rows = 5000;
+        template.failAfter = 3000;
+        try {
+            stream(5000);
+            fail("expected DataAccessException");
+        }
+        catch (DataAccessException expected) {
+        }
+        // 已经写出的部分不补全,客户端不会得到看似完整的OK结果
+        String text = out.text();
+        assertTrue(text.startsWith("{\"resultType\":\"OK\",\"data\":[{\"id\":1,"));
+        assertFalse(text.endsWith("]}"));
+        try {
+            JSON.mapReader().readValue(text);
+            fail("partial output should not be valid json");
+        }
+        catch (JsonProcessingException expected) {
+        }
+        assertFalse(out.closed);
+    }
+}
@@ -0,0 +1,85 @@
+package com.blueline.databus.core.datasource;
+
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.sql.SQLException;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DataSourcePoolFactoryTest {
+
+    private static final String UNREACHABLE_URL = "jdbc:mysql://127.0.0.1:1/databus_core?useSSL=false";
+
+    private DataSourcePoolFactory factory(String type) {
+        DataSourcePoolFactory factory = new DataSourcePoolFactory();
+        ReflectionTestUtils.setField(factory, "type", type);
+        ReflectionTestUtils.setField(factory, "minSize", 0);
+        ReflectionTestUtils.setField(factory, "maxSize", 2);
+        ReflectionTestUtils.setField(factory, "connectionTimeout", 500L);
+        ReflectionTestUtils.setField(factory, "statementCacheSize", 10);
+        ReflectionTestUtils.setField(factory, "leakDetectionThreshold", 0L);
+        ReflectionTestUtils.setField(factory, "idleTestPeriod", 60);
+        factory.init();
+        return factory;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void assertAcquireFailureRecorded(String type) throws Exception {
+        DataSourcePoolFactory factory = factory(type);
+        DataSource ds = factory.create("core", "com.mysql.jdbc.Driver", UNREACHABLE_URL, "nobody", "");
+        try {
+            ds.getConnection();
+            fail("connection to an unreachable database should fail");
+        }
+        catch (SQLException ex) {
+            // expected
+        }
+        finally {
+            ((Closeable) ds).close();
+        }
+
+        Map<String, Object> core = (Map<String, Object>) factory.snapshot().get("core");
+        assertEquals(type, core.get("type"));
+        assertEquals(1L, core.get("acquireFailures"));
+        assertEquals(0L, ((Map<String, Object>) core.get("acquire")).get("count"));
+    }
+
+    @Test
+    public void c3p0RecordsAcquireFailure() throws Exception {
+        assertAcquireFailureRecorded("c3p0");
+    }
+
+    @Test
+    public void hikariRecordsAcquireFailure() throws Exception {
+        assertAcquireFailureRecorded("hikari");
+    }
+
+    @Test
+    public void connectionTimeoutCanBeOverridden() throws Exception {
+        DataSourcePoolFactory factory = factory("hikari");
+        ReflectionTestUtils.setField(factory, "connectionTimeout", 30000L);
+        factory.init();
+        DataSource ds = factory.create("core-replica-0", "com.mysql.jdbc.Driver", UNREACHABLE_URL, "nobody", "", 500L);
+        long start = System.nanoTime();
+        try {
+            ds.getConnection();
+            fail("connection to an unreachable database should fail");
+        }
+        catch (SQLException ex) {
+            // expected
+        }
+        finally {
+            ((Closeable) ds).close();
+        }
+        assertTrue(System.nanoTime() - start < 10_000_000_000L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedType() {
+        factory("dbcp");
+    }
+}
@@ -0,0 +1,68 @@
+package com.blueline.databus.core.datasource;
+
+import com.blueline.databus.core.helper.DmlExecutor;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+
+public class DmlJdbcTemplateTest {
+
+    private final DmlJdbcTemplate template = new DmlJdbcTemplate(new DriverManagerDataSource());
+
+    private DmlExecutor executor;
+
+    @After
+    public void tearDown() throws Exception {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @param timeout 记录setQueryTimeout的参数;没有调用时保持-1
+     */
+    private static Statement recordingStatement(int[] timeout) {
+        timeout[0] = -1;
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] {Statement.class},
+                (proxy, method, args) -> {
+                    if ("setQueryTimeout".equals(method.getName())) {
+                        timeout[0] = (Integer) args[0];
+                    }
+                    return null;
+                });
+    }
+
+    @Test
+    public void no_timeout_outside_dml_task() throws Exception {
+        int[] timeout = new int[1];
+        template.applyStatementSettings(recordingStatement(timeout));
+        assertEquals(-1, timeout[0]);
+    }
+
+    @Test
+    public void dml_task_timeout_becomes_query_timeout() {
+        executor = new DmlExecutor();
+        ReflectionTestUtils.setField(executor, "async", false);
+        ReflectionTestUtils.setField(executor, "timeout", 5000L);
+        executor.init();
+
+        int[] timeout = new int[1];
+        executor.submit(() -> {
+            try {
+                template.applyStatementSettings(recordingStatement(timeout));
+            }
+            catch (SQLException ex) {
+                throw new IllegalStateException(ex);
+            }
+            return null;
+        });
+        assertEquals(5, timeout[0]);
+    }
+}
@@ -0,0 +1,180 @@
+package com.blueline.databus.core.datasource;
+
+import org.junit.Test;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReplicaRoutingDataSourceTest {
+
+    /**
+     * 记录借出连接次数的数据源;down为true时获取连接失败;
+     * blockMillis大于0时获取连接先阻塞这么久再失败,如同连接池等待不可达的数据库直到超时
+     */
+    private static class StubDataSource extends AbstractDataSource {
+        volatile int served;
+        volatile int attempts;
+        volatile boolean down;
+        volatile long blockMillis;
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            attempts++;
+            if (blockMillis > 0) {
+                try {
+                    Thread.sleep(blockMillis);
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new SQLTransientConnectionException("checkout timed out after " + blockMillis + " ms");
+            }
+            if (down) {
+                throw new SQLException("connection refused");
+            }
+            served++;
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[] {Connection.class},
+                    (proxy, method, args) -> null);
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return getConnection();
+        }
+    }
+
+    private final StubDataSource primary = new StubDataSource();
+
+    private final StubDataSource replica0 = new StubDataSource();
+
+    private final StubDataSource replica1 = new StubDataSource();
+
+    private ReplicaRoutingDataSource routing(String balance) {
+        return routing(balance, 60_000L);
+    }
+
+    private ReplicaRoutingDataSource routing(String balance, long backoffMillis) {
+        return new ReplicaRoutingDataSource(primary, Arrays.asList(replica0, replica1), balance, backoffMillis);
+    }
+
+    @Test
+    public void usesPrimaryWithoutReplicas() throws Exception {
+        DataSource ds = new ReplicaRoutingDataSource(primary, Collections.emptyList(), "round-robin", 60_000L);
+        ds.getConnection().close();
+        ds.getConnection().close();
+        assertEquals(2, primary.served);
+    }
+
+    @Test
+    public void roundRobin() throws Exception {
+        DataSource ds = routing("round-robin");
+        for (int i = 0; i < 10; i++) {
+            ds.getConnection().close();
+        }
+        assertEquals(0, primary.served);
+        assertEquals(5, replica0.served);
+        assertEquals(5, replica1.served);
+    }
+
+    @Test
+    public void leastConnectionsAvoidsBusyReplica() throws Exception {
+        DataSource ds = routing("least-connections");
+        // 第一个连接不归还,之后的连接都应该来自另一个副本
+        Connection held = ds.getConnection();
+        StubDataSource busy = replica0.served == 1 ? replica0 : replica1;
+        StubDataSource idle = busy == replica0 ? replica1 : replica0;
+        for (int i = 0; i < 6; i++) {
+            ds.getConnection().close();
+        }
+        assertEquals(1, busy.served);
+        assertEquals(6, idle.served);
+
+        // 归还后两个副本再次轮换
+        held.close();
+        held.close();
+        for (int i = 0; i < 4; i++) {
+            ds.getConnection().close();
+        }
+        assertEquals(3, busy.served);
+        assertEquals(8, idle.served);
+    }
+
+    @Test
+    public void fallsBackToPrimaryWhenReplicaIsDown() throws Exception {
+        replica0.down = true;
+        replica1.down = true;
+        DataSource ds = routing("round-robin");
+        List<Connection> connections = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            connections.add(ds.getConnection());
+        }
+        assertEquals(3, primary.served);
+        // 两个副本都失败过一次之后不再尝试
+        assertEquals(1, replica0.attempts);
+        assertEquals(1, replica1.attempts);
+    }
+
+    @Test
+    public void skipsBlockingReplicaDuringBackoff() throws Exception {
+        replica0.blockMillis = 200;
+        DataSource ds = routing("round-robin");
+        long start = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            ds.getConnection().close();
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // 只有第一次选中时等待了超时,之后都使用另一个副本
+        assertEquals(1, replica0.attempts);
+        assertEquals(0, replica0.served);
+        assertTrue(replica1.served >= 19);
+        assertEquals(20, replica1.served + primary.served);
+        assertTrue("waited " + elapsedMillis + " ms", elapsedMillis < 20 * 200 / 2);
+    }
+
+    @Test
+    public void probesReplicaAgainAfterBackoff() throws Exception {
+        replica0.blockMillis = 50;
+        replica1.blockMillis = 50;
+        DataSource ds = routing("least-connections", 100);
+        ds.getConnection().close();
+        ds.getConnection().close();
+        // 两个副本都在退避中,直接使用主库,不再等待
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            ds.getConnection().close();
+        }
+        assertTrue(System.nanoTime() - start < 50_000_000L);
+        assertEquals(12, primary.served);
+        assertEquals(1, replica0.attempts);
+        assertEquals(1, replica1.attempts);
+
+        // 退避结束后重新尝试,恢复的副本再次被使用
+        replica0.blockMillis = 0;
+        replica1.blockMillis = 0;
+        Thread.sleep(150);
+        for (int i = 0; i < 4; i++) {
+            ds.getConnection().close();
+        }
+        assertEquals(12, primary.served);
+        assertEquals(4, replica0.served + replica1.served);
+        assertTrue(replica0.served > 0 && replica1.served > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedBalance() {
+        routing("random");
+    }
+}
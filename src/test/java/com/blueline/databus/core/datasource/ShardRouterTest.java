@@ -0,0 +1,94 @@
+package com.blueline.databus.core.datasource;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.junit.Assert.*;
+
+public class ShardRouterTest {
+
+    private static final String UNREACHABLE_URL = "jdbc:mysql://127.0.0.1:1/?useSSL=false";
+
+    private final JdbcTemplate templateCore = new JdbcTemplate();
+
+    private final JdbcTemplate templateCoreRead = new JdbcTemplate();
+
+    private final ShardProperties properties = new ShardProperties();
+
+    private ShardRouter router;
+
+    private ShardRouter router() {
+        DataSourcePoolFactory factory = new DataSourcePoolFactory();
+        ReflectionTestUtils.setField(factory, "type", "hikari");
+        ReflectionTestUtils.setField(factory, "minSize", 0);
+        ReflectionTestUtils.setField(factory, "maxSize", 2);
+        ReflectionTestUtils.setField(factory, "connectionTimeout", 500L);
+        ReflectionTestUtils.setField(factory, "statementCacheSize", 10);
+        ReflectionTestUtils.setField(factory, "leakDetectionThreshold", 0L);
+        ReflectionTestUtils.setField(factory, "idleTestPeriod", 60);
+        factory.init();
+
+        router = new ShardRouter();
+        ReflectionTestUtils.setField(router, "coreDriverManager", "com.mysql.jdbc.Driver");
+        ReflectionTestUtils.setField(router, "coreUsername", "nobody");
+        ReflectionTestUtils.setField(router, "corePassword", "");
+        ReflectionTestUtils.setField(router, "templateCore", templateCore);
+        ReflectionTestUtils.setField(router, "templateCoreRead", templateCoreRead);
+        ReflectionTestUtils.setField(router, "txTemplateCore", new TransactionTemplate());
+        ReflectionTestUtils.setField(router, "shardProperties", properties);
+        ReflectionTestUtils.setField(router, "poolFactory", factory);
+        router.init();
+        return router;
+    }
+
+    private void addServer(String name) {
+        ShardProperties.Server server = new ShardProperties.Server();
+        server.setUrl(UNREACHABLE_URL);
+        properties.getServers().put(name, server);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (router != null) {
+            router.close();
+        }
+    }
+
+    @Test
+    public void unmappedDatabasesStayOnCore() {
+        ShardRouter.Shard shard = router().forDb("anything");
+        assertEquals(ShardRouter.CORE, shard.getName());
+        assertSame(templateCore, shard.getTemplate());
+        assertSame(templateCoreRead, shard.getReadTemplate());
+    }
+
+    @Test
+    public void mappedDatabasesUseTheirShard() {
+        addServer("s1");
+        properties.getDatabases().put("tenant_a", "s1");
+        properties.getDatabases().put("tenant_b", "core");
+        router();
+
+        ShardRouter.Shard s1 = router.forDb("tenant_a");
+        assertEquals("s1", s1.getName());
+        assertNotSame(templateCore, s1.getTemplate());
+        assertSame(s1.getTemplate(), s1.getReadTemplate());
+        assertNotNull(s1.getTxTemplate());
+        assertEquals(ShardRouter.CORE, router.forDb("tenant_b").getName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownShard() {
+        properties.getDatabases().put("tenant_a", "s9");
+        router();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void coreIsReserved() {
+        addServer(ShardRouter.CORE);
+        router();
+    }
+}
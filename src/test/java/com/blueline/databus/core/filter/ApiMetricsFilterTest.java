@@ -0,0 +1,111 @@
+package com.blueline.databus.core.filter;
+
+import com.blueline.databus.core.helper.ApiMetrics;
+import com.blueline.databus.core.helper.RequestTimer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.AsyncListener;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ApiMetricsFilterTest {
+
+    private static final String ROUTE = "/api/data/{dbName}/{tableName}/{colName}/{colValue}";
+
+    private final ApiMetrics apiMetrics = new ApiMetrics();
+
+    private final ApiMetricsFilter filter = new ApiMetricsFilter();
+
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(apiMetrics, "maxApis", 1024);
+        ReflectionTestUtils.setField(filter, "apiMetrics", apiMetrics);
+    }
+
+    @After
+    public void tearDown() {
+        RequestTimer.attach(null);
+    }
+
+    /**
+     * @param uri 请求路径
+     * @param route controller匹配的路径模式;null表示没有匹配
+     */
+    private void send(String uri, String route) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", uri);
+        filter.doFilter(request, new MockHttpServletResponse(), (req, resp) -> {
+            if (route != null) {
+                req.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, route);
+            }
+        });
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void sameRouteSharesOneEntry() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            send("/api/data/db/t/id/" + i, ROUTE);
+        }
+
+        Map<String, Object> snapshot = apiMetrics.snapshot();
+        assertEquals(1, snapshot.size());
+        Map<String, Object> results = (Map<String, Object>) ((Map<String, Object>) snapshot.get("GET " + ROUTE)).get("results");
+        assertEquals(100L, results.get("OK"));
+    }
+
+    /**
+     * 模拟DmlExecutor:fork出timer并开始异步处理,filter返回时请求还没有结束
+     * @return 请求的AsyncContext
+     */
+    private MockAsyncContext sendAsync(String uri) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", uri);
+        request.setAsyncSupported(true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, (req, resp) -> {
+            req.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, ROUTE);
+            req.setAttribute(RequestTimer.ASYNC_ATTRIBUTE, RequestTimer.fork());
+            req.startAsync(req, resp);
+        });
+        return (MockAsyncContext) request.getAsyncContext();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void asyncRequestsAreRecordedOnComplete() throws Exception {
+        MockAsyncContext first = sendAsync("/api/data/db/t/id/1");
+        MockAsyncContext second = sendAsync("/api/data/db/t/id/2");
+        assertTrue(apiMetrics.snapshot().isEmpty());
+
+        // 所有请求共用同一个listener
+        List<AsyncListener> listeners = first.getListeners();
+        assertEquals(1, listeners.size());
+        assertSame(listeners.get(0), second.getListeners().get(0));
+
+        first.complete();
+        second.complete();
+        Map<String, Object> results = (Map<String, Object>) ((Map<String, Object>) apiMetrics.snapshot()
+                .get("GET " + ROUTE)).get("results");
+        assertEquals(2L, results.values().stream().mapToLong(count -> (Long) count).sum());
+    }
+
+    @Test
+    public void unmatchedRequestsShareOneEntry() throws Exception {
+        send("/nowhere/1", null);
+        send("/nowhere/2", null);
+        send("/api/data/db/t/id/1", ROUTE);
+
+        Map<String, Object> snapshot = apiMetrics.snapshot();
+        assertEquals(2, snapshot.size());
+        assertTrue(snapshot.containsKey("GET " + ApiMetrics.UNMATCHED));
+        assertTrue(snapshot.containsKey("GET " + ROUTE));
+    }
+}
@@ -0,0 +1,91 @@
+package com.blueline.databus.core.helper;
+
+import com.blueline.databus.core.JsonConfiguration;
+import com.blueline.databus.core.datatype.ColumnInfo;
+import com.blueline.databus.core.exception.InternalException;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+public class BulkLoadInputStreamTest {
+
+    private final ObjectReader mapReader = new JsonConfiguration().mapReader();
+
+    private List<ColumnInfo> columns() {
+        List<ColumnInfo> columnInfoList = new LinkedList<>();
+        columnInfoList.add(new ColumnInfo("id", "INT", 0, 1, "", false, "INT(11)", "PRI"));
+        columnInfoList.add(new ColumnInfo("name", "VARCHAR", 16, 2, "", true, "VARCHAR(16)", ""));
+        columnInfoList.add(new ColumnInfo("age", "SMALLINT", 0, 3, "", true, "SMALLINT(6)", ""));
+        return columnInfoList;
+    }
+
+    private BulkLoadInputStream open(String format, String data) throws IOException, InternalException {
+        InputStream in = new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8));
+        return new BulkLoadInputStream(BulkLoadReader.of(format, in, mapReader), columns());
+    }
+
+    private String drain(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[3]; // 故意使用很小的缓冲区
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void can_convert_csv() throws Exception {
+        BulkLoadInputStream in = open("csv",
+                "name,age\r\ndave,18\r\n\"mi,\"\"ke\"\"\njr\",\\N\r\n\r\n\"\\N\",\r\n");
+
+        assertEquals(Arrays.asList("name", "age"), in.getColumnNames());
+        assertEquals("dave\t18\nmi,\"ke\"\\njr\t\\N\n\\\\N\t\n", drain(in));
+        assertEquals(3, in.getRowCount());
+        assertNull(in.getError());
+    }
+
+    @Test
+    public void can_convert_ndjson() throws Exception {
+        BulkLoadInputStream in = open("ndjson",
+                "{\"age\":18,\"name\":\"dave\"}\n\n{\"name\":\"tab\\there\",\"age\":null}\n");
+
+        assertEquals(Arrays.asList("age", "name"), in.getColumnNames());
+        assertEquals("18\tdave\n\\N\ttab\\there\n", drain(in));
+    }
+
+    @Test(expected = InternalException.class)
+    public void can_handle_unknown_column() throws Exception {
+        open("csv", "name,salary\ndave,20k\n");
+    }
+
+    @Test
+    public void can_handle_bad_rows() throws Exception {
+        BulkLoadInputStream in = open("ndjson", "{\"name\":\"dave\"}\n{\"name\":\"dave\",\"age\":1}\n");
+        try {
+            drain(in);
+            fail("should not accept different keys");
+        }
+        catch (IOException ex) {
+            assertTrue(in.getError().startsWith("line 2:"));
+        }
+
+        in = open("csv", "name\nthis is much too long\n");
+        try {
+            drain(in);
+            fail("should not accept values longer than the column");
+        }
+        catch (IOException ex) {
+            assertEquals("line 2: value of column name is longer than 16", in.getError());
+        }
+    }
+}
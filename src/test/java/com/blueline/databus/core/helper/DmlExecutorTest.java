@@ -0,0 +1,242 @@
+package com.blueline.databus.core.helper;
+
+import com.blueline.databus.core.datatype.RestResult;
+import com.blueline.databus.core.datatype.ResultType;
+import com.blueline.databus.core.exception.StreamAbortedException;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.StandardServletAsyncWebRequest;
+import org.springframework.web.context.request.async.WebAsyncManager;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class DmlExecutorTest {
+
+    private DmlExecutor executor;
+
+    private DmlExecutor newExecutor(boolean async, int poolSize, int queueCapacity) {
+        executor = new DmlExecutor();
+        ReflectionTestUtils.setField(executor, "async", async);
+        ReflectionTestUtils.setField(executor, "poolSize", poolSize);
+        ReflectionTestUtils.setField(executor, "queueCapacity", queueCapacity);
+        ReflectionTestUtils.setField(executor, "timeout", 30000L);
+        executor.init();
+        return executor;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        RequestContextHolder.resetRequestAttributes();
+        RequestTimer.attach(null);
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void runs_inline_when_async_disabled() {
+        newExecutor(false, 1, 1);
+        Thread caller = Thread.currentThread();
+
+        DeferredResult<RestResult> deferred = executor.submit(() -> {
+            assertSame(caller, Thread.currentThread());
+            return new RestResult(ResultType.OK, "done");
+        });
+
+        assertTrue(deferred.hasResult());
+        assertEquals("done", ((RestResult) deferred.getResult()).getMessage());
+        assertEquals(false, executor.snapshot().get("async"));
+    }
+
+    @Test
+    public void propagates_request_and_timer_to_worker() throws Exception {
+        newExecutor(true, 2, 2);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        RequestTimer.attach(null);
+        RequestTimer.begin();
+
+        CountDownLatch done = new CountDownLatch(1);
+        DeferredResult<RestResult> deferred = executor.submit(() -> {
+            assertTrue(Thread.currentThread().getName().startsWith("dml-"));
+            assertSame(request, ((ServletRequestAttributes) RequestContextHolder.getRequestAttributes()).getRequest());
+            RequestTimer.record(RequestTimer.Stage.DB_EXECUTE, System.nanoTime() - 1_000_000);
+            return new RestResult(ResultType.OK, "done");
+        });
+        deferred.setResultHandler(result -> done.countDown());
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        RequestTimer forked = (RequestTimer) request.getAttribute(RequestTimer.ASYNC_ATTRIBUTE);
+        assertNotNull(forked);
+        assertTrue(forked.getNanos(RequestTimer.Stage.DB_EXECUTE) >= 1_000_000);
+        assertEquals(ResultType.OK, forked.getResultType());
+        // 请求线程上的记录不受worker影响
+        assertEquals(0, RequestTimer.fork().getNanos(RequestTimer.Stage.DB_EXECUTE));
+    }
+
+    @Test
+    public void rejects_when_queue_is_full() throws Exception {
+        newExecutor(true, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+
+        DeferredResult<RestResult> running = executor.submit(() -> {
+            started.countDown();
+            await(release);
+            return new RestResult(ResultType.OK, "first");
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        DeferredResult<RestResult> queued = executor.submit(() -> new RestResult(ResultType.OK, "second"));
+
+        try {
+            executor.submit(() -> new RestResult(ResultType.OK, "third"));
+            fail("expected RejectedExecutionException");
+        }
+        catch (RejectedExecutionException expected) {
+        }
+
+        Map<String, Object> snapshot = executor.snapshot();
+        assertEquals(1L, snapshot.get("rejected"));
+        assertEquals(1, snapshot.get("queued"));
+
+        release.countDown();
+        executor.shutdown();
+        assertEquals("first", ((RestResult) running.getResult()).getMessage());
+        assertEquals("second", ((RestResult) queued.getResult()).getMessage());
+    }
+
+    @Test
+    public void failures_become_error_results() throws Exception {
+        newExecutor(true, 1, 1);
+        CountDownLatch done = new CountDownLatch(1);
+
+        DeferredResult<RestResult> deferred = executor.submit(() -> {
+            throw new IllegalStateException("boom");
+        });
+        deferred.setResultHandler(result -> done.countDown());
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(deferred.getResult() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void timeout_cancels_running_and_queued_tasks() throws Exception {
+        newExecutor(true, 1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        AtomicBoolean queuedRan = new AtomicBoolean();
+
+        DeferredResult<RestResult> running = executor.submit(() -> {
+            started.countDown();
+            try {
+                new CountDownLatch(1).await(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException ex) {
+                interrupted.countDown();
+            }
+            return new RestResult(ResultType.OK, "late");
+        });
+        DeferredResult<RestResult> queued = executor.submit(() -> {
+            queuedRan.set(true);
+            return new RestResult(ResultType.OK, "queued");
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // 先让排队中的任务超时,否则运行中的任务被中断后它会立即开始执行
+        expire(queued);
+        expire(running);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        // 超时之后产生的结果被丢弃,排队中的任务不再执行
+        assertTrue(running.getResult() instanceof TimeoutException);
+        assertTrue(queued.getResult() instanceof TimeoutException);
+        assertFalse(queuedRan.get());
+        assertEquals(2L, executor.snapshot().get("timedOut"));
+    }
+
+    @Test
+    public void timeout_aborts_committed_response() throws Exception {
+        newExecutor(true, 1, 1);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        response.setCommitted(true);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest(), response));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        DeferredResult<RestResult> streaming = executor.submitStream(() -> {
+            started.countDown();
+            await(release);
+            return null;
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // 已经开始输出的响应不能再写入504的结果
+        expire(streaming);
+        release.countDown();
+        assertTrue(streaming.getResult() instanceof StreamAbortedException);
+        assertTrue(((Throwable) streaming.getResult()).getCause() instanceof TimeoutException);
+    }
+
+    @Test
+    public void query_timeout_is_remaining_time_of_task() {
+        newExecutor(false, 1, 1);
+        ReflectionTestUtils.setField(executor, "streamTimeout", 0L);
+
+        assertEquals(0, DmlExecutor.queryTimeoutSeconds());
+        int[] timeouts = new int[2];
+        executor.submit(() -> {
+            timeouts[0] = DmlExecutor.queryTimeoutSeconds();
+            executor.submitStream(() -> {
+                timeouts[1] = DmlExecutor.queryTimeoutSeconds();
+                return null;
+            });
+            return null;
+        });
+        assertEquals(30, timeouts[0]);
+        // 不超时的任务不设置查询超时
+        assertEquals(0, timeouts[1]);
+        assertEquals(0, DmlExecutor.queryTimeoutSeconds());
+    }
+
+    /**
+     * 模拟servlet容器的异步超时:开始异步处理后通知AsyncListener超时
+     */
+    private static void expire(DeferredResult<RestResult> deferred) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAsyncSupported(true);
+        WebAsyncManager asyncManager = WebAsyncUtils.getAsyncManager(request);
+        asyncManager.setAsyncWebRequest(new StandardServletAsyncWebRequest(request, new MockHttpServletResponse()));
+        asyncManager.startDeferredResultProcessing(deferred);
+        MockAsyncContext asyncContext = (MockAsyncContext) request.getAsyncContext();
+        for (AsyncListener listener : asyncContext.getListeners()) {
+            listener.onTimeout(new AsyncEvent(asyncContext));
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.blueline.databus.core.helper;
+
+import com.blueline.databus.core.JsonConfiguration;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+public class JsonRowIteratorTest {
+
+    private final ObjectReader mapReader = new JsonConfiguration().mapReader();
+
+    private InputStream input(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void can_read_rows_one_by_one() throws IOException {
+        try (JsonRowIterator rows = new JsonRowIterator(mapReader,
+                input("[{\"name\":\"dave\",\"age\":\"18\"}, {}, {\"name\":\"frank\",\"tags\":[1,2]}]"))) {
+            assertTrue(rows.hasNext());
+            Map<String, Object> row = rows.next();
+            assertEquals("dave", row.get("name"));
+            assertEquals("18", row.get("age"));
+
+            assertTrue(rows.next().isEmpty());
+            assertEquals("frank", rows.next().get("name"));
+            assertFalse(rows.hasNext());
+        }
+    }
+
+    @Test
+    public void can_read_empty_array() throws IOException {
+        try (JsonRowIterator rows = new JsonRowIterator(mapReader, input("[]"))) {
+            assertFalse(rows.hasNext());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void can_handle_non_array() throws IOException {
+        new JsonRowIterator(mapReader, input("{\"name\":\"dave\"}"));
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void can_handle_bad_element() throws IOException {
+        try (JsonRowIterator rows = new JsonRowIterator(mapReader, input("[{\"name\":\"dave\"}, 5]"))) {
+            rows.next();
+            rows.next();
+        }
+    }
+}
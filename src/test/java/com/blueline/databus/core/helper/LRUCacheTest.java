@@ -0,0 +1,123 @@
+package com.blueline.databus.core.helper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.*;
+
+public class LRUCacheTest {
+
+    @Test
+    public void evicts_least_recently_used() {
+        LRUCache<String, Integer> cache = new LRUCache<>(2);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+
+        // b是最久没有访问的,被淘汰
+        cache.put("c", 3);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        assertEquals(Integer.valueOf(3), cache.get("c"));
+    }
+
+    @Test
+    public void counts_hits_and_misses() {
+        LRUCache<String, Integer> cache = new LRUCache<>(10);
+        assertEquals(Integer.valueOf(1), cache.get("a", k -> 1));
+        assertEquals(Integer.valueOf(1), cache.get("a", k -> 2));
+        assertNull(cache.get("b"));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void expires_after_ttl() throws InterruptedException {
+        LRUCache<String, Integer> cache = new LRUCache<>(10, 50);
+        cache.put("a", 1);
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+
+        Thread.sleep(100);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void can_remove_by_value() {
+        LRUCache<String, Integer> cache = new LRUCache<>(10);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 1);
+
+        cache.removeIf(v -> v == 1);
+        assertEquals(1, cache.size());
+        assertEquals(Integer.valueOf(2), cache.get("b"));
+    }
+
+    @Test
+    public void evicts_in_batches_keeping_recent_entries() {
+        LRUCache<Integer, Integer> cache = new LRUCache<>(100);
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, i);
+        }
+        // 0~9最近被访问过,超出容量时应该保留
+        for (int i = 0; i < 10; i++) {
+            cache.get(i);
+        }
+        cache.put(100, 100);
+        assertEquals(90, cache.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.valueOf(i), cache.get(i));
+        }
+        assertEquals(Integer.valueOf(100), cache.get(100));
+    }
+
+    @Test
+    public void concurrent_get_and_put() throws Exception {
+        final int threads = 8;
+        final int rounds = 20000;
+        LRUCache<Integer, Integer> cache = new LRUCache<>(500);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < rounds; i++) {
+                        int key = random.nextInt(1000);
+                        Integer value = cache.get(key, k -> k * 2);
+                        assertEquals(Integer.valueOf(key * 2), value);
+                        if (i % 100 == 0) {
+                            cache.remove(random.nextInt(1000));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals((long) threads * rounds, cache.getHits() + cache.getMisses());
+        assertTrue(cache.getHits() > 0);
+        // 并发的put可能让缓存短暂超出容量,再put一次后回到容量以内
+        cache.put(-1, -2);
+        assertTrue("size " + cache.size(), cache.size() <= cache.getMaxSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void can_handle_bad_size() {
+        new LRUCache<String, Integer>(0);
+    }
+}
@@ -0,0 +1,46 @@
+package com.blueline.databus.core.helper;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets_are_within_precision() {
+        for (long micros = 0; micros < 1000000; micros += 7) {
+            int bucket = LatencyHistogram.bucketOf(micros);
+            long upper = LatencyHistogram.upperBoundOf(bucket);
+            assertTrue(micros + " <= " + upper, micros <= upper);
+            assertTrue(micros + " ~ " + upper, upper - micros <= Math.max(micros / 32, 1));
+            if (bucket > 0) {
+                assertTrue(micros > LatencyHistogram.upperBoundOf(bucket - 1));
+            }
+        }
+    }
+
+    @Test
+    public void can_compute_percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1ms .. 100ms 各一次
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000000L);
+        }
+        Map<String, Object> snapshot = histogram.snapshot();
+        assertEquals(100L, snapshot.get("count"));
+        assertEquals(50.5, (Double) snapshot.get("mean"), 0.01);
+        assertEquals(50.0, (Double) snapshot.get("p50"), 50.0 / 32);
+        assertEquals(90.0, (Double) snapshot.get("p90"), 90.0 / 32);
+        assertEquals(99.0, (Double) snapshot.get("p99"), 99.0 / 32);
+        assertEquals(100.0, (Double) snapshot.get("max"), 0.001);
+    }
+
+    @Test
+    public void empty_snapshot_has_only_count() {
+        Map<String, Object> snapshot = new LatencyHistogram().snapshot();
+        assertEquals(1, snapshot.size());
+        assertEquals(0L, snapshot.get("count"));
+    }
+}
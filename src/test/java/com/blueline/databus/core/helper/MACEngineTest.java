@@ -0,0 +1,95 @@
+package com.blueline.databus.core.helper;
+
+import org.junit.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.*;
+
+public class MACEngineTest {
+
+    private static final String[] PAYLOADS = {
+            "",
+            "XYZ123_GET_/api/data/db1/table1?id=1",
+            "appkey_GET_/api/data/db1/table1?name=张三&city=Zürich",
+            "emoji 😀 and lone surrogates \uD800 \uDC00 end\uD83D",
+            new String(new char[1000]).replace('\0', 'x') + "é"
+    };
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void md5MatchesReference() throws Exception {
+        MACEngine engine = MACEngine.forName("md5");
+        for (String payload : PAYLOADS) {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            String expected = hex(md.digest(("skey1#" + payload).getBytes(StandardCharsets.UTF_8)));
+            assertEquals(expected, engine.calculate("skey1", payload));
+            assertEquals(expected, MACHelper.calculateMAC("skey1", payload));
+        }
+    }
+
+    @Test
+    public void hmacSha256MatchesReference() throws Exception {
+        MACEngine engine = MACEngine.forName("HMAC-SHA256");
+        for (String skey : new String[]{"skey1", "skey2", "skey1"}) {
+            for (String payload : PAYLOADS) {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(skey.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+                String expected = hex(mac.doFinal(payload.getBytes(StandardCharsets.UTF_8)));
+                assertEquals(expected, engine.calculate(skey, payload));
+            }
+        }
+    }
+
+    @Test
+    public void hmacSha256KnownVector() {
+        // RFC 4231 test case 2
+        assertEquals("5bdcc146bf60754e6a042426089575c75a003f089d2739839dec58b964ec3843",
+                MACEngine.forName(MACEngine.HMAC_SHA256).calculate("Jefe", "what do ya want for nothing?"));
+    }
+
+    @Test
+    public void hmacSha256EmptyKey() {
+        assertEquals("b613679a0814d9ec772f95d778c35fc5ff1697c493715653c6c712144292c5ad",
+                MACEngine.forName(MACEngine.HMAC_SHA256).calculate("", ""));
+    }
+
+    @Test
+    public void segmentedUpdateEqualsWholePayload() {
+        MACEngine engine = MACEngine.forName(MACEngine.MD5);
+        String whole = engine.calculate("skey", "app_GET_/api/data/db/t?a=1");
+        String segmented = engine.begin("skey")
+                .update("app").update('_').update("GET").update('_').update("/api/data/db/t")
+                .update('?').update("a=1").toHex();
+        assertEquals(whole, segmented);
+    }
+
+    @Test
+    public void verify() {
+        for (String algorithm : new String[]{MACEngine.MD5, MACEngine.HMAC_SHA256}) {
+            MACEngine engine = MACEngine.forName(algorithm);
+            String mac = engine.calculate("skey", "payload");
+            assertTrue(engine.verify("skey", "payload", mac));
+            assertFalse(engine.verify("skey", "payload", mac.toUpperCase()));
+            assertFalse(engine.verify("skey", "payload", mac.substring(1)));
+            assertFalse(engine.verify("skey", "payload", null));
+            assertFalse(engine.verify("skey", "payload2", mac));
+            assertFalse(engine.verify("skey2", "payload", mac));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedAlgorithm() {
+        MACEngine.forName("sha1");
+    }
+}
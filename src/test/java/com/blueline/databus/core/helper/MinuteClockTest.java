@@ -0,0 +1,44 @@
+package com.blueline.databus.core.helper;
+
+import org.junit.Test;
+
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class MinuteClockTest {
+
+    private static final long MINUTE = 60 * 1000L;
+
+    @Test
+    public void follows_the_clock() {
+        AtomicLong now = new AtomicLong(0);
+        MinuteClock clock = new MinuteClock(now::get, TimeZone.getTimeZone("UTC"));
+        assertEquals(0, clock.minuteOfDay());
+
+        now.set(MINUTE - 1);
+        assertEquals(0, clock.minuteOfDay());
+
+        now.set(13 * 60 * MINUTE + 5 * MINUTE + 30 * 1000);
+        assertEquals(13 * 60 + 5, clock.minuteOfDay());
+
+        // 第二天
+        now.addAndGet(24 * 60 * MINUTE);
+        assertEquals(13 * 60 + 5, clock.minuteOfDay());
+
+        // 时钟被调回
+        now.set(MINUTE);
+        assertEquals(1, clock.minuteOfDay());
+    }
+
+    @Test
+    public void uses_time_zone_offset() {
+        AtomicLong now = new AtomicLong(0);
+        MinuteClock clock = new MinuteClock(now::get, TimeZone.getTimeZone("GMT+08:00"));
+        assertEquals(8 * 60, clock.minuteOfDay());
+
+        now.set(-MINUTE);
+        assertEquals(8 * 60 - 1, clock.minuteOfDay());
+    }
+}
@@ -27,11 +27,12 @@ public class SQLParserTest {
         map.put("name", new String[] { "dave" });
         // 普通参数拼接是按照先入后出的
 
-        String result = sqlParser.parseSQL4Select(map);
-        assertFalse(StringUtils.isEmpty(result));
+        PreparedSQL result = sqlParser.parseSQL4Select(map);
+        assertFalse(StringUtils.isEmpty(result.getSql()));
 
         System.out.println(result);
-        assertEquals("WHERE `name`='dave' AND `id`='1' AND 1=1 ORDER BY `id` ASC LIMIT 0,10", result);
+        assertEquals("WHERE `name`=? AND `id`=? AND 1=1 ORDER BY `id` ASC LIMIT ?,?", result.getSql());
+        assertArrayEquals(new Object[] { "dave", "1", 0, 10 }, result.getArgs());
     }
 
     @Test
@@ -39,11 +40,12 @@ public class SQLParserTest {
         Map<String, String[]> map = new HashMap<>();
         map.put("id", new String[] { "1", "2" });
 
-        String result = sqlParser.parseSQL4Select(map);
-        assertFalse(StringUtils.isEmpty(result));
+        PreparedSQL result = sqlParser.parseSQL4Select(map);
+        assertFalse(StringUtils.isEmpty(result.getSql()));
 
         System.out.println(result);
-        assertEquals("WHERE (`id`='1' OR `id`='2' OR 1=0) AND 1=1 ORDER BY `id` ASC LIMIT 0,10", result);
+        assertEquals("WHERE (`id`=? OR `id`=? OR 1=0) AND 1=1 ORDER BY `id` ASC LIMIT ?,?", result.getSql());
+        assertArrayEquals(new Object[] { "1", "2", 0, 10 }, result.getArgs());
     }
 
     @Test
@@ -53,11 +55,12 @@ public class SQLParserTest {
         map.put("_skip", new String[] { "50" });
         map.put("_take", new String[] { "100" });
 
-        String result = sqlParser.parseSQL4Select(map);
-        assertFalse(StringUtils.isEmpty(result));
+        PreparedSQL result = sqlParser.parseSQL4Select(map);
+        assertFalse(StringUtils.isEmpty(result.getSql()));
 
         System.out.println(result);
-        assertEquals("WHERE 1=1 ORDER BY `name` ASC LIMIT 50,100", result);
+        assertEquals("WHERE 1=1 ORDER BY `name` ASC, `id` ASC LIMIT ?,?", result.getSql());
+        assertArrayEquals(new Object[] { 50, 100 }, result.getArgs());
     }
 
     @Test
@@ -67,11 +70,120 @@ public class SQLParserTest {
         map.put("id_stop", new String[] { "50", "20" });
         map.put("_take", new String[] { "100" });
 
-        String result = sqlParser.parseSQL4Select(map);
-        assertFalse(StringUtils.isEmpty(result));
+        PreparedSQL result = sqlParser.parseSQL4Select(map);
+        assertFalse(StringUtils.isEmpty(result.getSql()));
 
         System.out.println(result);
-        assertEquals("WHERE `id`<='50' AND `id`>='10' AND 1=1 ORDER BY `id` ASC LIMIT 0,100", result);
+        assertEquals("WHERE `id`<=? AND `id`>=? AND 1=1 ORDER BY `id` ASC LIMIT ?,?", result.getSql());
+        assertArrayEquals(new Object[] { "50", "10", 0, 100 }, result.getArgs());
+    }
+
+    @Test
+    public void select_parse_keyset_after() {
+        Map<String, String[]> map = new HashMap<>();
+        map.put("_after", new String[] { PageCursorHelper.encode(20) });
+        map.put("_skip", new String[] { "50" });
+        map.put("_take", new String[] { "5" });
+
+        PreparedSQL result = sqlParser.parseSQL4Select(map);
+        assertFalse(StringUtils.isEmpty(result.getSql()));
+
+        System.out.println(result);
+        assertEquals("WHERE `id`>? AND 1=1 ORDER BY `id` ASC LIMIT ?", result.getSql());
+        assertArrayEquals(new Object[] { "20", 5 }, result.getArgs());
+    }
+
+    @Test
+    public void select_parse_keyset_after_desc() {
+        Map<String, String[]> map = new HashMap<>();
+        map.put("_by", new String[] { "name" });
+        map.put("_order", new String[] { "desc" });
+        map.put("_after", new String[] { PageCursorHelper.encode("dave", 42) });
+
+        PreparedSQL result = sqlParser.parseSQL4Select(map);
+        assertFalse(StringUtils.isEmpty(result.getSql()));
+
+        System.out.println(result);
+        assertEquals("WHERE (`name`,`id`)<(?,?) AND 1=1 ORDER BY `name` DESC, `id` DESC LIMIT ?", result.getSql());
+        assertArrayEquals(new Object[] { "dave", "42", 10 }, result.getArgs());
+    }
+
+    @Test
+    public void select_parse_keyset_duplicate_sort_values() {
+        // 多行的name都是dave时,下一页从(dave, 42)之后开始,而不是跳过所有的dave
+        Map<String, String[]> map = new HashMap<>();
+        map.put("_by", new String[] { "name" });
+        map.put("_take", new String[] { "2" });
+        map.put("_after", new String[] { PageCursorHelper.encode("dave", 42) });
+
+        PreparedSQL result = sqlParser.parseSQL4Select(map);
+        assertEquals("WHERE (`name`,`id`)>(?,?) AND 1=1 ORDER BY `name` ASC, `id` ASC LIMIT ?", result.getSql());
+        assertArrayEquals(new Object[] { "dave", "42", 2 }, result.getArgs());
+
+        // 值中的分隔符不影响解码
+        assertArrayEquals(new String[] { "a.b", "7" },
+                PageCursorHelper.decode(PageCursorHelper.encode("a.b", 7), 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void select_parse_keyset_cursor_without_id() {
+        Map<String, String[]> map = new HashMap<>();
+        map.put("_by", new String[] { "name" });
+        map.put("_after", new String[] { PageCursorHelper.encode("dave") });
+        sqlParser.parseSQL4Select(map);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void select_parse_keyset_bad_cursor() {
+        Map<String, String[]> map = new HashMap<>();
+        map.put("_after", new String[] { "" });
+        sqlParser.parseSQL4Select(map);
+    }
+
+    @Test
+    public void select_shape_ignores_values_and_order() {
+        Map<String, String[]> map1 = new LinkedHashMap<>();
+        map1.put("name", new String[] { "dave" });
+        map1.put("id", new String[] { "1", "2" });
+        map1.put("_skip", new String[] { "20" });
+
+        Map<String, String[]> map2 = new LinkedHashMap<>();
+        map2.put("id", new String[] { "7", "8" });
+        map2.put("_take", new String[] { "5" });
+        map2.put("name", new String[] { "frank" });
+
+        assertEquals(sqlParser.selectShape(map1), sqlParser.selectShape(map2));
+
+        // 同一个模板绑定不同的值
+        SQLTemplate template = sqlParser.compileSQL4Select(map1);
+        assertArrayEquals(new Object[] { "dave", "1", "2", 20, 10 }, template.bindArgs(map1));
+        assertArrayEquals(new Object[] { "frank", "7", "8", 0, 5 }, template.bindArgs(map2));
+    }
+
+    @Test
+    public void select_shape_differs() {
+        Map<String, String[]> map = new HashMap<>();
+        map.put("id", new String[] { "1" });
+        String shape = sqlParser.selectShape(map);
+
+        map.put("id", new String[] { "1", "2" });
+        assertNotEquals(shape, sqlParser.selectShape(map));
+
+        map.put("id", new String[] { "1" });
+        map.put("_order", new String[] { "desc" });
+        assertNotEquals(shape, sqlParser.selectShape(map));
+
+        map.remove("_order");
+        map.put("_after", new String[] { "MjA" });
+        assertNotEquals(shape, sqlParser.selectShape(map));
+
+        // 参数名中的特殊字符不会导致不同的形状混淆
+        Map<String, String[]> map1 = new HashMap<>();
+        map1.put("a#1;b", new String[] { "1" });
+        Map<String, String[]> map2 = new HashMap<>();
+        map2.put("a", new String[] { "1" });
+        map2.put("b", new String[] { "1" });
+        assertNotEquals(sqlParser.selectShape(map1), sqlParser.selectShape(map2));
     }
 
     @Test
@@ -79,11 +191,12 @@ public class SQLParserTest {
         Map<String, String[]> map = new HashMap<>();
         map.put("id", new String[] { "1", "2" });
 
-        String result = sqlParser.parseSQL4Delete(map);
-        assertFalse("SQL should not be blank", StringUtils.isEmpty(result));
+        PreparedSQL result = sqlParser.parseSQL4Delete(map);
+        assertFalse("SQL should not be blank", StringUtils.isEmpty(result.getSql()));
 
         System.out.println(result);
-        assertEquals("WHERE (`id`='1' OR `id`='2' OR 1=0) AND 1=1", result);
+        assertEquals("WHERE (`id`=? OR `id`=? OR 1=0) AND 1=1", result.getSql());
+        assertArrayEquals(new Object[] { "1", "2" }, result.getArgs());
     }
 
     @Test
@@ -95,10 +208,11 @@ public class SQLParserTest {
         columnInfoList.add(new ColumnInfo("name", "varchar", 2));
         columnInfoList.add(new ColumnInfo("age", "smallint", 3));
 
-        String result = sqlParser.parseSQL4Insert(jsonBody, columnInfoList);
+        PreparedSQL result = sqlParser.parseSQL4Insert(jsonBody, columnInfoList);
 
-        assertFalse(StringUtils.isEmpty(result));
-        assertEquals("INSERT INTO `%s`.`%s` (`name`,`age`) VALUES ('dave','18'),('frank','11')", result);
+        assertFalse(StringUtils.isEmpty(result.getSql()));
+        assertEquals("INSERT INTO `%s`.`%s` (`name`,`age`) VALUES (?,?),(?,?)", result.getSql());
+        assertArrayEquals(new Object[] { "dave", "18", "frank", "11" }, result.getArgs());
         System.out.println(result);
     }
 
@@ -111,12 +225,74 @@ public class SQLParserTest {
         columnInfoList.add(new ColumnInfo("name", "varchar", 2));
         columnInfoList.add(new ColumnInfo("age", "smallint", 3));
 
-        String result = sqlParser.parseSQL4Insert(jsonBody, columnInfoList);
+        PreparedSQL result = sqlParser.parseSQL4Insert(jsonBody, columnInfoList);
+
+        assertFalse(StringUtils.isEmpty(result.getSql()));
+        assertEquals("INSERT INTO `%s`.`%s` (`name`,`age`) VALUES (?,?)", result.getSql());
+        assertArrayEquals(new Object[] { "dirk", "18" }, result.getArgs());
+
+        System.out.println(result);
+    }
+
+    @Test
+    public void insert_parse_missing_column_default() throws InternalException {
+        String jsonBody = "[{\"name\" : \"dave\"}, {\"name\": \"o'neil\", \"age\" : \"11\"}]";
+
+        List<ColumnInfo> columnInfoList = new LinkedList<>();
+        columnInfoList.add(new ColumnInfo("id", "int", 1));
+        columnInfoList.add(new ColumnInfo("name", "varchar", 2));
+        columnInfoList.add(new ColumnInfo("age", "smallint", 3));
+
+        PreparedSQL result = sqlParser.parseSQL4Insert(jsonBody, columnInfoList);
 
-        assertFalse(StringUtils.isEmpty(result));
-        assertEquals("INSERT INTO `%s`.`%s` (`name`,`age`) VALUES ('dirk','18')", result);
+        assertEquals("INSERT INTO `%s`.`%s` (`name`,`age`) VALUES (?,DEFAULT),(?,?)", result.getSql());
+        assertArrayEquals(new Object[] { "dave", "o'neil", "11" }, result.getArgs());
+        System.out.println(result);
+    }
+
+    @Test
+    public void select_parse_value_not_inlined() {
+        Map<String, String[]> map = new HashMap<>();
+        map.put("name", new String[] { "x' OR '1'='1" });
+        map.put("_order", new String[] { "asc; DROP TABLE t" });
+
+        PreparedSQL result = sqlParser.parseSQL4Select(map);
 
         System.out.println(result);
+        assertEquals("WHERE `name`=? AND 1=1 ORDER BY `id` ASC LIMIT ?,?", result.getSql());
+        assertArrayEquals(new Object[] { "x' OR '1'='1", 0, 10 }, result.getArgs());
+    }
+
+    @Test
+    public void insert_row_template() {
+        List<ColumnInfo> columnInfoList = new LinkedList<>();
+        columnInfoList.add(new ColumnInfo("id", "int", 1));
+        columnInfoList.add(new ColumnInfo("name", "varchar", 2));
+        columnInfoList.add(new ColumnInfo("age", "smallint", 3));
+
+        List<String> columnNames = sqlParser.parseInsertColumns(columnInfoList);
+        assertEquals(Arrays.asList("name", "age"), columnNames);
+
+        Map<String, Object> row1 = new HashMap<>();
+        row1.put("name", "dave");
+        row1.put("age", "18");
+        BitSet defaults1 = sqlParser.parseDefaults(row1, columnNames);
+        assertTrue(defaults1.isEmpty());
+        assertEquals("INSERT INTO `%s`.`%s` (`name`,`age`) VALUES (?,?)",
+                sqlParser.parseSQL4InsertRow(columnNames, defaults1));
+
+        Map<String, Object> row2 = new HashMap<>();
+        row2.put("name", "Default");
+        BitSet defaults2 = sqlParser.parseDefaults(row2, columnNames);
+        assertEquals("INSERT INTO `%s`.`%s` (`name`,`age`) VALUES (DEFAULT,DEFAULT)",
+                sqlParser.parseSQL4InsertRow(columnNames, defaults2));
+    }
+
+    @Test
+    public void load_data_template() {
+        assertEquals("LOAD DATA LOCAL INFILE 'bulk' INTO TABLE `%s`.`%s` CHARACTER SET utf8mb4 " +
+                "FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n' (`name`,`age`)",
+                sqlParser.parseSQL4LoadData(Arrays.asList("name", "age")));
     }
 
     @Test
@@ -124,11 +300,12 @@ public class SQLParserTest {
 
         String jsonBody = "[{\"name\":\"dave is 6666\"}]";
 
-        String result = sqlParser.parseSQL4Update("id", "10", jsonBody);
-        assertFalse("SQL should not be blank", StringUtils.isEmpty(result));
+        PreparedSQL result = sqlParser.parseSQL4Update("id", "10", jsonBody);
+        assertFalse("SQL should not be blank", StringUtils.isEmpty(result.getSql()));
 
         System.out.println(result);
-        assertEquals("UPDATE `%s`.`%s` SET `name`='dave is 6666' WHERE `id`='10'", result);
+        assertEquals("UPDATE `%s`.`%s` SET `name`=? WHERE `id`=?", result.getSql());
+        assertArrayEquals(new Object[] { "dave is 6666", "10" }, result.getArgs());
     }
 
     @Test
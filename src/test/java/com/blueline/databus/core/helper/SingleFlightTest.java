@@ -0,0 +1,90 @@
+package com.blueline.databus.core.helper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+
+    @Test
+    public void coalesces_concurrent_calls() throws Exception {
+        SingleFlight<String, Integer> flight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch waiting = new CountDownLatch(7);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            results.add(pool.submit(() -> flight.execute("k", () -> {
+                calls.incrementAndGet();
+                started.countDown();
+                // 等其它调用都进入execute后再返回
+                await(waiting);
+                sleep(100);
+                return 42;
+            })));
+            started.await();
+            for (int i = 0; i < 7; i++) {
+                results.add(pool.submit(() -> {
+                    waiting.countDown();
+                    return flight.execute("k", () -> {
+                        calls.incrementAndGet();
+                        return -1;
+                    });
+                }));
+            }
+
+            for (Future<Integer> result : results) {
+                assertEquals(Integer.valueOf(42), result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, calls.get());
+            assertEquals(0, flight.inFlight());
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void runs_again_after_completion_or_failure() {
+        SingleFlight<String, Integer> flight = new SingleFlight<>();
+        try {
+            flight.execute("k", () -> { throw new IllegalStateException("db down"); });
+            fail("should rethrow the loader exception");
+        }
+        catch (IllegalStateException ex) {
+            assertEquals("db down", ex.getMessage());
+        }
+        assertEquals(Integer.valueOf(1), flight.execute("k", () -> 1));
+        assertEquals(Integer.valueOf(2), flight.execute("k", () -> 2));
+        assertEquals(0, flight.inFlight());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        }
+        catch (InterruptedException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
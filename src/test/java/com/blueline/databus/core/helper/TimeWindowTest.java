@@ -0,0 +1,47 @@
+package com.blueline.databus.core.helper;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TimeWindowTest {
+
+    @Test
+    public void can_parse_duration() {
+        assertSame(TimeWindow.ALL_DAY, TimeWindow.parse("0"));
+
+        TimeWindow window = TimeWindow.parse("11001930");
+        assertEquals(11 * 60, window.getStart());
+        assertEquals(19 * 60 + 30, window.getEnd());
+        assertTrue(window.contains(11 * 60));
+        assertTrue(window.contains(19 * 60 + 30));
+        assertFalse(window.contains(11 * 60 - 1));
+        assertFalse(window.contains(19 * 60 + 31));
+    }
+
+    @Test
+    public void can_handle_bad_duration() {
+        assertSame(TimeWindow.NEVER, TimeWindow.parse(null));
+        assertSame(TimeWindow.NEVER, TimeWindow.parse(""));
+        assertSame(TimeWindow.NEVER, TimeWindow.parse("1"));
+        assertSame(TimeWindow.NEVER, TimeWindow.parse("111"));
+        assertSame(TimeWindow.NEVER, TimeWindow.parse("56781234"));
+        assertSame(TimeWindow.NEVER, TimeWindow.parse("11a01900"));
+        assertSame(TimeWindow.NEVER, TimeWindow.parse("11701900"));
+        for (int minute = 0; minute < 24 * 60; minute++) {
+            assertFalse(TimeWindow.NEVER.contains(minute));
+        }
+    }
+
+    @Test
+    public void agrees_with_time_helper() {
+        String[] durations = {"0", "00002359", "11112333", "00001111", "11112359", "12001200", "56781234"};
+        for (String duration : durations) {
+            TimeWindow window = TimeWindow.parse(duration);
+            for (int minute = 0; minute < 24 * 60; minute++) {
+                String nowDate = String.format("%02d%02d", minute / 60, minute % 60);
+                assertEquals(duration + " at " + nowDate,
+                        TimeHelper.isInDuration(nowDate, duration), window.contains(minute));
+            }
+        }
+    }
+}